@@ -0,0 +1,20 @@
+// Entry point of benchmarks.jar
+// same command line as org.openjdk.jmh.Main, with the GC profiler always on
+// so every result carries gc.alloc.rate.norm (bytes/op) next to ops/sec
+
+package aps;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkMain {
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    Options options =
+        new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build();
+    new Runner(options).run();
+  }
+}
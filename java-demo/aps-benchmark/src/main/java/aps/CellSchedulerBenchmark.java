@@ -0,0 +1,66 @@
+// Scaling of the cell-partitioned dispatch with the number of cells, one
+// thread per cell
+
+package aps;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CellSchedulerBenchmark {
+  @Param({"1", "2", "4", "8"}) public int cell_num;
+
+  @Param({"100000"}) public int product_num;
+
+  @Param({"500"}) public int machine_num;
+
+  // Heuristic constant, the enum itself is not visible to the JMH stubs
+  @Param({"FIRST_FREE_MACHINE", "OPTIMIZE_SWITCH_TIME_OPTIMIZE1"})
+  public String heuristic;
+
+  OrderTable orders;
+  int[] sequence;
+  SwitchMatrix switch_matrix;
+  List<APSDemo.Machine> machines;
+  CellScheduler cells;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    orders = APSDemo.generateRandomOrder(
+        product_num, APSDemo.maxDdlDate(product_num, machine_num),
+        APSDemo.PRODUCT_TYPE_NUM);
+    sequence = APSDemo.sortOrders(orders, APSDemo.SORT_METHOD);
+    switch_matrix =
+        APSDemo.generateRandomSwitchMatrix(APSDemo.PRODUCT_TYPE_NUM);
+    machines = APSDemo.generateRandomMachine(machine_num);
+    cells = new CellScheduler(cell_num, Heuristic.valueOf(heuristic),
+                              cell_num);
+  }
+
+  @Setup(Level.Invocation)
+  public void reset() {
+    APSDemo.cleanMachine(machines);
+  }
+
+  @Benchmark
+  public Object schedule() {
+    return cells.schedule(orders, sequence, switch_matrix, machines);
+  }
+}
@@ -0,0 +1,70 @@
+// Throughput of schedule evaluation on a first free machine schedule
+
+package aps;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvaluateBenchmark {
+  @Param({"10000", "100000"}) public int product_num;
+
+  @Param({"20", "200", "2000"}) public int machine_num;
+
+  @Param({"40", "400"}) public int product_type_num;
+
+  OrderTable orders;
+  SwitchMatrix switch_matrix;
+  List<APSDemo.Machine> machines;
+  PrintStream stdout;
+
+  @Setup
+  public void schedule() {
+    orders = APSDemo.generateRandomOrder(
+        product_num, APSDemo.maxDdlDate(product_num, machine_num),
+        product_type_num);
+    switch_matrix = APSDemo.generateRandomSwitchMatrix(product_type_num);
+    machines = APSDemo.generateRandomMachine(machine_num);
+    APSDemo.first_free_Machines(
+        orders, APSDemo.sortOrders(orders, APSDemo.SORT_METHOD),
+        switch_matrix, machines);
+    // evaluateSchedule prints its summary, keep that out of the results
+    stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+  }
+
+  @TearDown
+  public void restore() {
+    System.setOut(stdout);
+  }
+
+  @Benchmark
+  public ScheduleKpi evaluateSchedule() {
+    return APSDemo.evaluateSchedule(switch_matrix, orders, machines, false);
+  }
+
+  // KPI engine alone, without the printed summary
+  @Benchmark
+  public ScheduleKpi evaluate() {
+    return ScheduleEvaluator.evaluate(switch_matrix, orders, machines);
+  }
+}
@@ -0,0 +1,53 @@
+// Throughput of order generation, the single Random of APSDemo against the
+// chunked InstanceGenerator at a given thread count
+
+package aps;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class GeneratorBenchmark {
+  @Param({"100000", "1000000", "10000000"}) public int product_num;
+
+  @Param({"1", "4", "16"}) public int threads;
+
+  int max_ddl_date;
+  InstanceGenerator generator;
+
+  @Setup
+  public void setup() {
+    max_ddl_date = APSDemo.maxDdlDate(product_num, APSDemo.MACHINE_NUM);
+    generator = new InstanceGenerator(APSDemo.RAND_SEED,
+                                      InstanceGenerator.DEFAULT_SKEW,
+                                      InstanceGenerator.DEFAULT_CLUSTER_DAYS,
+                                      threads);
+  }
+
+  @Benchmark
+  public OrderTable legacy() {
+    return APSDemo.generateRandomOrder(product_num, max_ddl_date,
+                                       APSDemo.PRODUCT_TYPE_NUM);
+  }
+
+  @Benchmark
+  public OrderTable chunked() {
+    return generator.orders(product_num, max_ddl_date,
+                            APSDemo.PRODUCT_TYPE_NUM);
+  }
+}
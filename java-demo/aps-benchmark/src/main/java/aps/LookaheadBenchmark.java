@@ -0,0 +1,92 @@
+// Time and schedule quality of the lookahead dispatcher as the window grows
+// the quality counters are summed over the invocations of an iteration,
+// divide them by "schedules" for the result of one schedule
+
+package aps;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookaheadBenchmark {
+  @Param({"1", "2", "4", "6", "8"}) public int window;
+
+  @Param({"100000"}) public int product_num;
+
+  @Param({"20", "200"}) public int machine_num;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Quality {
+    public long schedules;
+    public long late;
+    public long switch_time;
+    public long tardiness;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+      schedules = 0;
+      late = 0;
+      switch_time = 0;
+      tardiness = 0;
+    }
+  }
+
+  OrderTable orders;
+  int[] sequence;
+  SwitchMatrix switch_matrix;
+  List<APSDemo.Machine> machines;
+  LookaheadDispatcher dispatcher;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    orders = APSDemo.generateRandomOrder(
+        product_num, APSDemo.maxDdlDate(product_num, machine_num),
+        APSDemo.PRODUCT_TYPE_NUM);
+    sequence = APSDemo.sortOrders(orders, APSDemo.SORT_METHOD);
+    switch_matrix =
+        APSDemo.generateRandomSwitchMatrix(APSDemo.PRODUCT_TYPE_NUM);
+    machines = APSDemo.generateRandomMachine(machine_num);
+    dispatcher = new LookaheadDispatcher(window);
+  }
+
+  @Setup(Level.Invocation)
+  public void reset() {
+    APSDemo.cleanMachine(machines);
+  }
+
+  // outside the measured time
+  @TearDown(Level.Invocation)
+  public void score(Quality quality) {
+    ScheduleKpi kpi =
+        ScheduleEvaluator.evaluate(switch_matrix, orders, machines);
+    quality.schedules++;
+    quality.late += kpi.late;
+    quality.switch_time += kpi.total_switch_time;
+    quality.tardiness += kpi.total_tardiness;
+  }
+
+  @Benchmark
+  public Object schedule() {
+    return dispatcher.schedule(orders, sequence, switch_matrix, machines);
+  }
+}
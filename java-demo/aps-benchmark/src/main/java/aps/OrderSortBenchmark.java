@@ -0,0 +1,47 @@
+// Throughput of the order rankings used to build the dispatch sequence
+
+package aps;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderSortBenchmark {
+  @Param({"10000", "100000", "1000000"}) public int product_num;
+
+  @Param({"20", "200"}) public int machine_num;
+
+  @Param({"40", "400"}) public int product_type_num;
+
+  // SORT_METHOD values, see APSDemo
+  @Param({"1", "2", "3", "4", "5", "6"}) public int sort_method;
+
+  OrderTable orders;
+
+  @Setup
+  public void generate() {
+    orders = APSDemo.generateRandomOrder(
+        product_num, APSDemo.maxDdlDate(product_num, machine_num),
+        product_type_num);
+  }
+
+  @Benchmark
+  public int[] sortOrders() {
+    return APSDemo.sortOrders(orders, sort_method);
+  }
+}
@@ -0,0 +1,94 @@
+// Throughput of every dispatch heuristic on a fresh machine set
+
+package aps;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchedulerBenchmark {
+  @Param({"10000", "100000"}) public int product_num;
+
+  @Param({"20", "200", "2000"}) public int machine_num;
+
+  @Param({"40", "400"}) public int product_type_num;
+
+  // 0: every machine runs every type, see APSDemo.generateRandomMachine
+  @Param({"0", "20"}) public int family_num;
+
+  OrderTable orders;
+  int[] sequence;
+  SwitchMatrix switch_matrix;
+  List<APSDemo.Machine> machines;
+
+  @Setup(Level.Trial)
+  public void generate() {
+    orders = APSDemo.generateRandomOrder(
+        product_num, APSDemo.maxDdlDate(product_num, machine_num),
+        product_type_num);
+    sequence = APSDemo.sortOrders(orders, APSDemo.SORT_METHOD);
+    switch_matrix = APSDemo.generateRandomSwitchMatrix(product_type_num);
+    machines = APSDemo.generateRandomMachine(machine_num, product_type_num,
+                                             family_num);
+  }
+
+  // every call schedules all orders, so the reset is amortized over
+  // milliseconds of work
+  @Setup(Level.Invocation)
+  public void reset() {
+    APSDemo.cleanMachine(machines);
+  }
+
+  @Benchmark
+  public Object first_free_Machines() {
+    return APSDemo.first_free_Machines(orders, sequence, switch_matrix,
+                                       machines);
+  }
+
+  @Benchmark
+  public Object first_free_Machines_optimize1() {
+    return APSDemo.first_free_Machines_optimize1(orders, sequence,
+                                                 switch_matrix, machines);
+  }
+
+  @Benchmark
+  public Object optimize_switch_time() {
+    return APSDemo.optimize_switch_time(orders, sequence, switch_matrix,
+                                        machines);
+  }
+
+  @Benchmark
+  public Object optimize_switch_time_optimize1() {
+    return APSDemo.optimize_switch_time_optimize1(orders, sequence,
+                                                  switch_matrix, machines);
+  }
+
+  @Benchmark
+  public Object optimize_switch_time_optimize2() {
+    return APSDemo.optimize_switch_time_optimize2(orders, sequence,
+                                                  switch_matrix, machines);
+  }
+
+  @Benchmark
+  public Object first_free_Released() {
+    return EventDispatcher.first_free_Released(orders, sequence, switch_matrix,
+                                               machines);
+  }
+}
@@ -0,0 +1,1133 @@
+// 6/25/2024 Yuyang Gong
+// Herustic algorithm for APS demo
+
+package aps;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.Math;
+import java.lang.System;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+class APSDemo {
+  public static final int RAND_SEED = 1337;
+  public static final int PRODUCT_NUM = 100000;     // 20000000 needs ~1GB
+  public static final int PRODUCT_TYPE_NUM = 40; // Size of the switch matrix
+  public static final int MACHINE_NUM = 20; // >200 traverse get much slower
+  public static final int PRIORITY_NUM = 5;
+  public static final int MACHINE_PRODUCT_PER_HOUR = 200; // high speed low drag
+
+  public static final int MIN_PRODUCT_QUANTITY = 1000;
+  public static final int MAX_PRODUCT_QUANTITY = 10000 - MIN_PRODUCT_QUANTITY;
+  // large switch time will make the stf algo perform better
+  public static final int MIN_SWITCH_TIME = 0;
+  public static final int MAX_SWITCH_TIME = 3 - MIN_SWITCH_TIME;
+  public static final int MAX_ESD_DATE = 10;
+  public static final int MIN_DUE_START_INTERVAL = 30;
+  // public static final int MAX_DDL_DATE = 45 - MIN_DUE_START_INTERVAL;
+  // dynamic interval index >= 0.7 is loose bound, 0.5 is 'expected' bound
+  public static final int MAX_DDL_DATE = maxDdlDate(PRODUCT_NUM, MACHINE_NUM);
+
+  // 0: index Order           initial order
+  // 1: priority > ddl > esd
+  //                          priority is the most important
+  // 2: esd > priority > ddl
+  //                          not vialate the esd is the most important
+  // 3: ddl > priority > esd
+  //                          not vialate the ddl is the most important
+  // 4: ddl > quantity > priority
+  //                          not vialate the ddl is the most important,
+  //                      XXX: good for loose ddl model, unstable for tight ddl
+  // 5: quantity > ddl > priority
+  //                          utilization efficiency is the most important
+  // 6: quantity_lower > ddl > priority
+  //                          if the ddl is too close(must vialate), maker the
+  //                          smaller quantity first to max the unvialate order
+  public static final int SORT_METHOD = 4;
+  public static final int SORT_METHOD_NUM = OrderRanking.values().length;
+  // 0: no print, 1: print running time, 2: print summay,
+  // 3. print order summay, 4. print all
+  public static final int PRINT_FLAG = 2;
+  public static final boolean OUTPUT_SWITCH_MATRIX = false;
+  public static final boolean OUTPUT_SCHEDULE = false;
+  // snapshot of the optimize1 schedule, see ScheduleSnapshot
+  public static final boolean OUTPUT_SNAPSHOT = false;
+  // run every sort method with every heuristic and keep the best schedule
+  public static final boolean RUN_PORTFOLIO = false;
+  // local search budget after the last heuristic, 0 to skip
+  public static final int LOCAL_SEARCH_MS = 0;
+  // branch and bound over short windows of each queue, 0 to skip
+  public static final int EXACT_WINDOW_MS = 0;
+  // genetic optimizer budget, seeded by the heuristics, 0 to skip
+  public static final int GENETIC_MS = 0;
+  // rerun the last heuristic split over one cell of machines per core
+  public static final boolean RUN_CELLS = false;
+  // rerun the last heuristic over due date windows, see RollingHorizon
+  public static final boolean ROLLING_HORIZON = false;
+  // group the sorted orders into product type campaigns and dispatch those
+  public static final boolean CAMPAIGN_BATCHING = false;
+  // dispatch on release and machine free events so no order starts before
+  // its earlest_start_date, evaluated with idle time
+  public static final boolean RELEASE_DATES = false;
+  // 0: every machine runs every type at MACHINE_PRODUCT_PER_HOUR, otherwise
+  // machines of mixed speed that run some of this many product families
+  public static final int MACHINE_FAMILY_NUM = 0;
+
+  public static DecimalFormat df = new DecimalFormat("0.000");
+
+  // TODO add sales order, production order, extend both from order
+  public static class Order {
+    public int order_id;
+    public String name;
+    public int quantity;
+    public int due_date;
+    public int priority;
+    public int earlest_start_date;
+    public int product_type;
+
+    public Order(int id, String n, int q, int d, int p, int e, int pt) {
+      order_id = id;
+      name = n;
+      quantity = q;
+      due_date = d;
+      priority = p;
+      earlest_start_date = e;
+      product_type = pt;
+    }
+  }
+
+  public static class Machine {
+    public int machine_id;
+    public String name;
+    public int finishing_time;
+    public int machine_product_per_hour;
+    // product types the machine can run, null for every type
+    public SparseBitSet eligible_types;
+    // index of the orders in the OrderTable, copies share it until written
+    public OrderQueue orders_in_queue;
+
+    public Machine(int id, String n, int c, int mph) {
+      machine_id = id;
+      name = n;
+      finishing_time = c;
+      machine_product_per_hour = mph;
+      orders_in_queue = new OrderQueue();
+    }
+
+    public Machine(Machine m) {
+      machine_id = m.machine_id;
+      name = m.name;
+      finishing_time = m.finishing_time;
+      machine_product_per_hour = m.machine_product_per_hour;
+      eligible_types = m.eligible_types;
+      orders_in_queue = new OrderQueue(m.orders_in_queue);
+    }
+
+    // see OrderQueue.freeze, call before forking from several threads
+    public void freeze() { orders_in_queue.freeze(); }
+
+    public boolean canRun(int product_type) {
+      return eligible_types == null || eligible_types.get(product_type);
+    }
+
+    // -1 when no order is queued
+    public int getLastOrder() { return orders_in_queue.getLast(); }
+  }
+
+  public static int maxDdlDate(int product_num, int machine_num) {
+    return Math.max((int)(((double)product_num * MAX_PRODUCT_QUANTITY /
+                           machine_num / MACHINE_PRODUCT_PER_HOUR / 24) *
+                          0.6),
+                    1);
+  }
+
+  public static OrderTable generateRandomOrder(int size) {
+    return generateRandomOrder(size, MAX_DDL_DATE, PRODUCT_TYPE_NUM);
+  }
+
+  public static OrderTable generateRandomOrder(int size, int max_ddl_date,
+                                               int product_type_num) {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.GENERATE, "orders");
+    Random rand = new Random(RAND_SEED);
+    OrderTable orders = new OrderTable(size);
+    for (int i = 0; i < size; i++) {
+      int earlest_start_date = rand.nextInt(MAX_ESD_DATE);
+      int due_date = rand.nextInt(max_ddl_date) + earlest_start_date +
+                     MIN_DUE_START_INTERVAL;
+      orders.add(
+          i,
+          ((rand.nextInt(MAX_PRODUCT_QUANTITY) + MIN_PRODUCT_QUANTITY) /
+           MACHINE_PRODUCT_PER_HOUR) *
+              MACHINE_PRODUCT_PER_HOUR,
+          due_date, rand.nextInt(PRIORITY_NUM), earlest_start_date,
+          rand.nextInt(product_type_num));
+    }
+    Metrics.end(span, size);
+    return orders;
+  }
+
+  public static SwitchMatrix generateRandomSwitchMatrix(int size) {
+    Random rand = new Random(RAND_SEED);
+    SwitchMatrix switch_matrix = new SwitchMatrix(size);
+    for (int i = 0; i < size; i++) {
+      for (int j = 0; j < size; j++) {
+        switch_matrix.set(i, j,
+                          rand.nextInt(MAX_SWITCH_TIME) + MIN_SWITCH_TIME);
+      }
+    }
+    return switch_matrix;
+  }
+
+  // o1 and o2 are indices in orders, o1 is -1 when there is no previous order
+  public static int getSwitchTime(final SwitchMatrix switch_matrix,
+                                  final OrderTable orders, final int o1,
+                                  final int o2) {
+    return o1 == -1 ? 0
+                    : switch_matrix.get(orders.productType(o1),
+                                        orders.productType(o2));
+  }
+
+  public static List<Machine> generateRandomMachine(int size) {
+    List<Machine> machines = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      Machine m = new Machine(i, "machine" + (i < 10 ? "0" + i : i), 0,
+                              MACHINE_PRODUCT_PER_HOUR);
+      machines.add(m);
+    }
+    return machines;
+  }
+
+  // a plant of unlike machines: product types fall into family_num families
+  // by type % family_num, machine i runs family i % family_num and every odd
+  // machine the next family too, at a rate between half and 1.5 times
+  // MACHINE_PRODUCT_PER_HOUR. family_num 0 is generateRandomMachine(size)
+  public static List<Machine> generateRandomMachine(int size,
+                                                    int product_type_num,
+                                                    int family_num) {
+    if (family_num < 0) {
+      throw new IllegalArgumentException("family_num must be >= 0");
+    }
+    if (family_num == 0) {
+      return generateRandomMachine(size);
+    }
+    Random rand = new Random(RAND_SEED);
+    List<Machine> machines = generateRandomMachine(size);
+    for (int i = 0; i < size; i++) {
+      Machine m = machines.get(i);
+      m.machine_product_per_hour = MACHINE_PRODUCT_PER_HOUR / 2 +
+                                   rand.nextInt(MACHINE_PRODUCT_PER_HOUR + 1);
+      int family = i % family_num;
+      int next_family = i % 2 == 1 ? (family + 1) % family_num : family;
+      m.eligible_types = new SparseBitSet(product_type_num);
+      for (int t = 0; t < product_type_num; t++) {
+        if (t % family_num == family || t % family_num == next_family) {
+          m.eligible_types.set(t);
+        }
+      }
+    }
+    return machines;
+  }
+
+  // the comparators below define the rankings of OrderRanking, equal orders
+  // compare as 0 so a stable sort keeps them in index order
+
+  // compare function 1
+  // 1. priority is higher
+  // 2. priority same, due_date closer
+  // 3. priority same, due_date same, earlest_start_date closer
+  public static class CompareOrder_priority_ddl_esd
+      implements Comparator<Order> {
+    @Override
+    public int compare(Order o1, Order o2) {
+      int c = Integer.compare(o2.priority, o1.priority);
+      if (c == 0) {
+        c = Integer.compare(o1.due_date, o2.due_date);
+      }
+      if (c == 0) {
+        c = Integer.compare(o1.earlest_start_date, o2.earlest_start_date);
+      }
+      return c;
+    }
+  }
+
+  // compare function 2
+  // 1. earlest_start_date closer
+  // 2. earlest_start_date same, priority is higher
+  // 3. priority same, earlest_start_date same, due_date closer
+  public static class CompareOrder_esd_priority_ddl
+      implements Comparator<Order> {
+    @Override
+    public int compare(Order o1, Order o2) {
+      int c = Integer.compare(o1.earlest_start_date, o2.earlest_start_date);
+      if (c == 0) {
+        c = Integer.compare(o2.priority, o1.priority);
+      }
+      if (c == 0) {
+        c = Integer.compare(o1.due_date, o2.due_date);
+      }
+      return c;
+    }
+  }
+
+  // compare function 3
+  // 1. due_date closer
+  // 2. due_date same, priority is higher
+  // 3. priority same, due_date same, earlest_start_date closer
+  public static class CompareOrder_ddl_priority_esd
+      implements Comparator<Order> {
+    @Override
+    public int compare(Order o1, Order o2) {
+      int c = Integer.compare(o1.due_date, o2.due_date);
+      if (c == 0) {
+        c = Integer.compare(o2.priority, o1.priority);
+      }
+      if (c == 0) {
+        c = Integer.compare(o1.earlest_start_date, o2.earlest_start_date);
+      }
+      return c;
+    }
+  }
+
+  // compare function 4
+  // 1. due_date closer
+  // 2. due_date same, quantity is larger
+  // 3. quantity same, due_date same, priority is higher
+  public static class CompareOrder_ddl_quantity_priority
+      implements Comparator<Order> {
+    @Override
+    public int compare(Order o1, Order o2) {
+      int c = Integer.compare(o1.due_date, o2.due_date);
+      if (c == 0) {
+        c = Integer.compare(o2.quantity, o1.quantity);
+      }
+      if (c == 0) {
+        c = Integer.compare(o2.priority, o1.priority);
+      }
+      return c;
+    }
+  }
+
+  // compare function 5
+  // 1. quantity is higher
+  // 2. quantity same, due_date closer
+  // 3. due_date same, priority is higher
+  public static class CompareOrder_quantity_ddl_priority
+      implements Comparator<Order> {
+    @Override
+    public int compare(Order o1, Order o2) {
+      int c = Integer.compare(o2.quantity, o1.quantity);
+      if (c == 0) {
+        c = Integer.compare(o1.due_date, o2.due_date);
+      }
+      if (c == 0) {
+        c = Integer.compare(o2.priority, o1.priority);
+      }
+      return c;
+    }
+  }
+
+  // compare function 6
+  // 1. quantity is lower
+  // 2. quantity same, due_date closer
+  // 3. due_date same, priority is higher
+  public static class CompareOrder_quantity_lower_ddl_priority
+      implements Comparator<Order> {
+    @Override
+    public int compare(Order o1, Order o2) {
+      int c = Integer.compare(o1.quantity, o2.quantity);
+      if (c == 0) {
+        c = Integer.compare(o1.due_date, o2.due_date);
+      }
+      if (c == 0) {
+        c = Integer.compare(o2.priority, o1.priority);
+      }
+      return c;
+    }
+  }
+
+  public static String sortMethodName(int sort_method) {
+    return OrderRanking.of(sort_method).label;
+  }
+
+  // dispatch sequence of order indices for a SORT_METHOD value
+  public static int[] sortOrders(final OrderTable orders, int sort_method) {
+    return OrderSort.sort(orders, OrderRanking.of(sort_method));
+  }
+
+  // best machine to put the order
+  public static class CompareMachineByFreeTime implements Comparator<Machine> {
+    @Override
+    public int compare(Machine m1, Machine m2) {
+      int c = Integer.compare(m1.finishing_time, m2.finishing_time);
+      return c != 0 ? c : Integer.compare(m1.machine_id, m2.machine_id);
+    }
+  }
+
+  public static class CompareMachineById implements Comparator<Machine> {
+    @Override
+    public int compare(Machine m1, Machine m2) {
+      return Integer.compare(m1.machine_id, m2.machine_id);
+    }
+  }
+
+  public static List<Machine>
+  first_free_Machines(final OrderTable orders, final int[] sequence,
+                      final SwitchMatrix switch_matrix,
+                      List<Machine> machines) {
+    Metrics.Span span =
+        Metrics.begin(Metrics.Phase.DISPATCH, "first_free_Machines");
+    MachinePool machine_pool = new MachinePool(
+        machines, MachineHeap.BY_FREE_TIME, switch_matrix.size());
+
+    for (int o : sequence) {
+      long decision_start = Metrics.now();
+      // find the best machine to put the order
+      int i = machine_pool.peek(orders.productType(o));
+      Machine best_machine = machines.get(i);
+      // calculate the finishing time
+      int finishing_time =
+          best_machine.finishing_time +
+          orders.quantity(o) / best_machine.machine_product_per_hour +
+          getSwitchTime(switch_matrix, orders, best_machine.getLastOrder(), o);
+      // update the finishing time
+      best_machine.finishing_time = finishing_time;
+      // update the order queue
+      best_machine.orders_in_queue.add(o);
+      // the machine only got later, sift it down in place
+      machine_pool.update(i);
+      Metrics.decision(decision_start);
+    }
+    Metrics.end(span, sequence.length);
+    return machines;
+  }
+
+  // Optimize first_free_Machines with checking the two orders at the same time
+  public static List<Machine>
+  first_free_Machines_optimize1(final OrderTable orders, final int[] sequence,
+                                final SwitchMatrix switch_matrix,
+                                List<Machine> machines) {
+    if (sequence.length == 0) {
+      return machines;
+    }
+    Metrics.Span span =
+        Metrics.begin(Metrics.Phase.DISPATCH, "first_free_Machines_optimize1");
+    MachinePool machine_pool = new MachinePool(
+        machines, MachineHeap.BY_FREE_TIME, switch_matrix.size());
+
+    int o1 = sequence[0];
+    for (int i = 1; i < sequence.length; i++) {
+      long decision_start = Metrics.now();
+      int o2 = sequence[i];
+      // find the best machine to put the order
+      int best = machine_pool.peek(orders.productType(o1));
+      Machine best_machine = machines.get(best);
+      int last_order = best_machine.getLastOrder();
+      // calculate the finishing time
+      int required_time1 =
+          orders.quantity(o1) / best_machine.machine_product_per_hour +
+          getSwitchTime(switch_matrix, orders, last_order, o1);
+      int required_time2 =
+          orders.quantity(o2) / best_machine.machine_product_per_hour +
+          getSwitchTime(switch_matrix, orders, last_order, o2);
+      // 1. if o1 has higher priority, put o1 first
+      // 2. same priority, if rt1 + rt2 < both o1 and o2's due date, put the one
+      // with shorter switch time first
+      // 3. same priority, if rt1 + rt2 > both o1 and o2's due date, put the one
+      // with longer due date first
+      // 4. same priority, if rt1 + rt2 < one of the order's due date, put the
+      // one exceed the due date first assign the second one to o1 and compare
+      // again next time
+      // TODO: find other rules to optimize the schedule
+      // FIXME: Potential bug: the output is not better than the original ???
+      // if (orders.priority(o1) > orders.priority(o2)) {
+      //   best_machine.finishing_time += required_time1;
+      //   best_machine.orders_in_queue.add(o1);
+      //   o1 = o2;
+      // } else if (orders.priority(o1) == orders.priority(o2)) {
+        int estimate_time = best_machine.finishing_time + required_time1 +
+                            required_time2 +
+                            getSwitchTime(switch_matrix, orders, o1, o2);
+        if (!best_machine.canRun(orders.productType(o2))) {
+          // the machine was picked for o1, o2 waits for one that runs it
+          best_machine.finishing_time += required_time1;
+          best_machine.orders_in_queue.add(o1);
+          o1 = o2;
+        } else if (estimate_time < orders.dueDate(o1) &&
+                   estimate_time < orders.dueDate(o2)) {
+          // have enough time to finish both orders
+          // find the shortest switch time sequence
+          int switch_time1 =
+              getSwitchTime(switch_matrix, orders, last_order, o1) +
+              getSwitchTime(switch_matrix, orders, o1, o2);
+          int switch_time2 =
+              getSwitchTime(switch_matrix, orders, last_order, o2) +
+              getSwitchTime(switch_matrix, orders, o2, o1);
+          if (switch_time1 < switch_time2) {
+            best_machine.finishing_time += required_time1;
+            best_machine.orders_in_queue.add(o1);
+            o1 = o2;
+          } else {
+            best_machine.finishing_time += required_time2;
+            best_machine.orders_in_queue.add(o2);
+          }
+        } else {
+          // if one of the order exceed the due date,
+          // put the one exceed the due day first
+          if (orders.dueDate(o1) < orders.dueDate(o2)) {
+            best_machine.finishing_time += required_time1;
+            best_machine.orders_in_queue.add(o1);
+            o1 = o2;
+          } else {
+            best_machine.finishing_time += required_time2;
+            best_machine.orders_in_queue.add(o2);
+          }
+        }
+      // } else { // if (orders.priority(o1) < orders.priority(o2))
+      //   best_machine.finishing_time += required_time2;
+      //   best_machine.orders_in_queue.add(o2);
+      // }
+      // the machine only got later, sift it down in place
+      machine_pool.update(best);
+      Metrics.decision(decision_start);
+    }
+
+    // add the last order
+    int best = machine_pool.peek(orders.productType(o1));
+    Machine best_machine = machines.get(best);
+    int required_time =
+        orders.quantity(o1) / best_machine.machine_product_per_hour +
+        getSwitchTime(switch_matrix, orders, best_machine.getLastOrder(), o1);
+    best_machine.finishing_time += required_time;
+    best_machine.orders_in_queue.add(o1);
+    machine_pool.update(best);
+
+    Metrics.end(span, sequence.length);
+    return machines;
+  }
+
+  // optimize the switching/switch time
+  public static List<Machine>
+  optimize_switch_time(final OrderTable orders, final int[] sequence,
+                       final SwitchMatrix switch_matrix,
+                       List<Machine> machines) {
+    Metrics.Span span =
+        Metrics.begin(Metrics.Phase.DISPATCH, "optimize_switch_time");
+    // same switch time: the machine with the lower id
+    MachineTypeIndex machine_index = new MachineTypeIndex(
+        orders, switch_matrix, machines, MachineHeap.BY_ID);
+    for (int o : sequence) {
+      long decision_start = Metrics.now();
+      // find the best machine to put the order
+      int best = machine_index.select(orders.productType(o));
+      Machine best_machine = machines.get(best);
+      int best_machine_switch_time = machine_index.lastSwitchTime();
+      // calculate the finishing time
+      int finishing_time =
+          best_machine.finishing_time +
+          orders.quantity(o) / best_machine.machine_product_per_hour +
+          best_machine_switch_time;
+      // update the finishing time
+      best_machine.finishing_time = finishing_time;
+      // update the order queue
+      best_machine.orders_in_queue.add(o);
+      // move the machine to the bucket of its new last product type
+      machine_index.update(best);
+      Metrics.decision(decision_start);
+    }
+    Metrics.end(span, sequence.length);
+    return machines;
+  }
+
+  // optimize optimize_switch_time with using a priority queue to
+  // store the fist free machine when having same switch time
+  public static List<Machine>
+  optimize_switch_time_optimize1(final OrderTable orders, final int[] sequence,
+                                 final SwitchMatrix switch_matrix,
+                                 List<Machine> machines) {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.DISPATCH,
+                                      "optimize_switch_time_optimize1");
+    // every bucket of the index is a priority queue by free time
+    MachineTypeIndex machine_index = new MachineTypeIndex(
+        orders, switch_matrix, machines, MachineHeap.BY_FREE_TIME);
+    for (int o : sequence) {
+      long decision_start = Metrics.now();
+      // find the best machine to put the order
+      int best = machine_index.select(orders.productType(o));
+      Machine best_machine = machines.get(best);
+      int machine_queue_switch_time = machine_index.lastSwitchTime();
+      // calculate the finishing time
+      int finishing_time =
+          best_machine.finishing_time +
+          orders.quantity(o) / best_machine.machine_product_per_hour +
+          machine_queue_switch_time;
+      // update the finishing time
+      best_machine.finishing_time = finishing_time;
+      // update the order queue
+      best_machine.orders_in_queue.add(o);
+      machine_index.update(best);
+      Metrics.decision(decision_start);
+    }
+    Metrics.end(span, sequence.length);
+    return machines;
+  }
+
+  public static void printOrders(final OrderTable orders,
+                                 final int[] sequence) {
+    for (int o : sequence) {
+      System.out.println("Order: " + orders.name(o) +
+                         " Quantity: " + orders.quantity(o) +
+                         " Due Date: " + orders.dueDate(o) +
+                         " Priority: " + orders.priority(o) +
+                         " Earlest Start Date: " + orders.earlestStartDate(o));
+    }
+  }
+
+  // combine the optimization of osto1 and ffmo1
+  // add a compare order to select the best order to put in the machine
+  public static List<Machine>
+  optimize_switch_time_optimize2(final OrderTable orders, final int[] sequence,
+                                 final SwitchMatrix switch_matrix,
+                                 List<Machine> machines) {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.DISPATCH,
+                                      "optimize_switch_time_optimize2");
+    for (int o : sequence) {
+      long decision_start = Metrics.now();
+      // lowest switch time, then earliest free, in one scan over the keys
+      Machine best_machine = null;
+      int machine_queue_switch_time = Integer.MAX_VALUE;
+      long best_key = Long.MAX_VALUE;
+      for (Machine m : machines) {
+        if (!m.canRun(orders.productType(o))) {
+          continue;
+        }
+        int switch_time =
+            getSwitchTime(switch_matrix, orders, m.getLastOrder(), o);
+        long key = MachineHeap.BY_FREE_TIME.of(m);
+        if (switch_time < machine_queue_switch_time ||
+            (switch_time == machine_queue_switch_time && key < best_key)) {
+          best_machine = m;
+          machine_queue_switch_time = switch_time;
+          best_key = key;
+        }
+      }
+      if (best_machine == null) {
+        throw new IllegalArgumentException("no machine can run product type " +
+                                           orders.productType(o));
+      }
+      // calculate the finishing time
+      int finishing_time =
+          best_machine.finishing_time +
+          orders.quantity(o) / best_machine.machine_product_per_hour +
+          machine_queue_switch_time;
+      // update the finishing time
+      best_machine.finishing_time = finishing_time;
+      // update the order queue
+      best_machine.orders_in_queue.add(o);
+      Metrics.decision(decision_start);
+    }
+    Metrics.end(span, sequence.length);
+    return machines;
+  }
+
+  public static void printMachine(final OrderTable orders,
+                                  List<Machine> machines, boolean print_order) {
+    for (Machine m : machines) {
+      System.out.print("Machine: " + m.name +
+                       " Estimate Finishing Time: " + m.finishing_time);
+      int sum_of_order = 0;
+      for (int i = 0; i < m.orders_in_queue.size(); i++) {
+        sum_of_order += orders.quantity(m.orders_in_queue.get(i));
+      }
+      System.out.println(
+          " Total Order: " + sum_of_order + " Actual Finishing Time: " +
+          df.format((double)sum_of_order / m.machine_product_per_hour / 24) +
+          " days");
+      // printout the orders in the machine
+      if (print_order) {
+        for (int i = 0; i < m.orders_in_queue.size(); i++) {
+          int o = m.orders_in_queue.get(i);
+          System.out.println("\tOrder: " + orders.name(o) +
+                             " Quantity: " + orders.quantity(o) +
+                             " Due Date: " + orders.dueDate(o) +
+                             " Priority: " + orders.priority(o) +
+                             " Earlest Start Date: " +
+                             orders.earlestStartDate(o));
+        }
+      }
+    }
+  }
+
+  public static ScheduleKpi evaluateSchedule(final SwitchMatrix switch_matrix,
+                                             final OrderTable orders,
+                                             final List<Machine> machines,
+                                             boolean verbose) {
+    return evaluateSchedule(switch_matrix, orders, machines, verbose, false);
+  }
+
+  // release_dates: orders wait for their earlest_start_date, see
+  // ScheduleEvaluator
+  public static ScheduleKpi evaluateSchedule(final SwitchMatrix switch_matrix,
+                                             final OrderTable orders,
+                                             final List<Machine> machines,
+                                             boolean verbose,
+                                             boolean release_dates) {
+    ScheduleKpi kpi = ScheduleEvaluator.evaluate(switch_matrix, orders,
+                                                 machines, release_dates);
+
+    if (verbose) {
+      for (int i = 0; i < machines.size(); i++) {
+        System.out.println(
+            "Machine: " + machines.get(i).name +
+            " Total Switch Time: " + (double)kpi.machine_switch_time[i] +
+            " Total Work Time: " + (double)kpi.machine_work_time[i] +
+            " Utilization: " + df.format(kpi.machineUtilization(i)) + "%");
+      }
+      // per order detail, on time orders first
+      printOrderDetail(switch_matrix, orders, machines, false);
+      printOrderDetail(switch_matrix, orders, machines, true);
+      System.out.print("Makespan: " + kpi.makespan +
+                       " Total Tardiness: " + kpi.total_tardiness +
+                       " Late Orders by Days Late:");
+      for (long count : kpi.tardiness_histogram) {
+        System.out.print(" " + count);
+      }
+      System.out.println();
+    }
+    System.out.println(
+        "Total Switch Time(" + kpi.min_switch_time + "-" +
+        kpi.max_switch_time + ")[" +
+        (kpi.max_switch_time - kpi.min_switch_time) +
+        "]: " + kpi.total_switch_time + " Total Work Time(" +
+        kpi.min_work_time + "-" + kpi.max_work_time + ")[" +
+        (kpi.max_work_time - kpi.min_work_time) +
+        "]: " + kpi.total_work_time +
+        " Utilization: " + df.format(kpi.utilization()) + "%");
+    System.out.println("Total Order on time: " + kpi.on_time +
+                       " Total Order late: " + kpi.late);
+    if (release_dates) {
+      System.out.println("Total Idle Time: " + kpi.total_idle_time +
+                         " Makespan: " + kpi.makespan);
+    }
+    if (kpi.ineligible > 0) {
+      System.out.println("Orders on ineligible machines: " + kpi.ineligible);
+    }
+    return kpi;
+  }
+
+  private static void printOrderDetail(final SwitchMatrix switch_matrix,
+                                       final OrderTable orders,
+                                       final List<Machine> machines,
+                                       boolean print_late) {
+    for (Machine m : machines) {
+      int previous_order_type = -1;
+      int work_time = 0;
+      int switch_time = 0;
+      for (int i = 0; i < m.orders_in_queue.size(); i++) {
+        int o = m.orders_in_queue.get(i);
+        work_time += orders.quantity(o) / m.machine_product_per_hour;
+        if (previous_order_type != -1) {
+          switch_time +=
+              switch_matrix.get(previous_order_type, orders.productType(o));
+        }
+        boolean late = work_time + switch_time > orders.dueDate(o) * 24;
+        if (late == print_late) {
+          System.out.println("Order: " + orders.name(o) +
+                             (late ? " late Late Time: "
+                                   : " on time Remaining Time: ") +
+                             (orders.dueDate(o) - work_time));
+        }
+        previous_order_type = orders.productType(o);
+      }
+    }
+  }
+
+  public static void outputSWMatrix2CSV(SwitchMatrix switch_matrix,
+                                        String filename) {
+    try {
+      File file = new File(filename);
+      FileWriter fw = new FileWriter(file);
+      for (int i = 0; i < switch_matrix.size(); i++) {
+        for (int j = 0; j < switch_matrix.size(); j++) {
+          fw.write(Integer.toString(switch_matrix.get(i, j)));
+          if (j != switch_matrix.size() - 1) {
+            fw.write(",");
+          }
+        }
+        fw.write("\n");
+      }
+      fw.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  // one row per order, see ScheduleExporter
+  public static void outputSchedule2CSV(SwitchMatrix switch_matrix,
+                                        OrderTable orders,
+                                        List<Machine> machines,
+                                        String filename) {
+    try {
+      ScheduleExporter.writeCsv(switch_matrix, orders, machines,
+                                Path.of(filename));
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  public static void cleanMachine(List<Machine> machines) {
+    for (Machine m : machines) {
+      m.finishing_time = 0;
+      m.orders_in_queue.clear();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    // print out the final static parameters
+    System.out.println("\n");
+    System.out.print(
+        "Product Num: " + PRODUCT_NUM + " Machine Num: " + MACHINE_NUM +
+        " Priority Num: " + PRIORITY_NUM +
+        " Machine Product Per Hour: " + MACHINE_PRODUCT_PER_HOUR +
+        " Product Quantity: " + MIN_PRODUCT_QUANTITY + "-" +
+        (MAX_PRODUCT_QUANTITY + MIN_PRODUCT_QUANTITY) +
+        " Total Product Type: " + PRODUCT_TYPE_NUM + "\nSwitch Time: " +
+        MIN_SWITCH_TIME + "-" + (MAX_SWITCH_TIME + MIN_SWITCH_TIME - 1) +
+        " Max ESD Date: " + MAX_ESD_DATE +
+        " Min Due Start Interval: " + MIN_DUE_START_INTERVAL +
+        " Max DDL Date: " + (MAX_DDL_DATE + MIN_DUE_START_INTERVAL) +
+        " Sort Method: ");
+    OrderTable orders = generateRandomOrder(PRODUCT_NUM);
+    System.out.print(sortMethodName(SORT_METHOD));
+    // sort orders by priority and due_date
+    int[] sequence = sortOrders(orders, SORT_METHOD);
+    System.out.println("\n");
+
+    SwitchMatrix switch_matrix = generateRandomSwitchMatrix(PRODUCT_TYPE_NUM);
+    List<Machine> machines = generateRandomMachine(
+        MACHINE_NUM, PRODUCT_TYPE_NUM, MACHINE_FAMILY_NUM);
+    if (OUTPUT_SWITCH_MATRIX) {
+      outputSWMatrix2CSV(switch_matrix, "switch_matrix.csv");
+    }
+
+    long startTime = System.nanoTime();
+    first_free_Machines(orders, sequence, switch_matrix, machines);
+    long endTime = System.nanoTime();
+    switch (PRINT_FLAG) {
+    case 4:
+      printOrders(orders, sequence);
+    case 3:
+      printMachine(orders, machines, PRINT_FLAG >= 4);
+    case 2:
+      evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+    case 1:
+      System.out.println("First free machine time: " +
+                         (double)(endTime - startTime) / 1000000 + "ms\n");
+      break;
+    default:
+      break;
+    }
+    if (OUTPUT_SCHEDULE) {
+      outputSchedule2CSV(switch_matrix, orders, machines, "schedule.csv");
+    }
+
+    cleanMachine(machines);
+    startTime = System.nanoTime();
+    first_free_Machines_optimize1(orders, sequence, switch_matrix, machines);
+    endTime = System.nanoTime();
+    switch (PRINT_FLAG) {
+    case 4:
+      printOrders(orders, sequence);
+    case 3:
+      printMachine(orders, machines, PRINT_FLAG >= 4);
+    case 2:
+      evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+    case 1:
+      System.out.println("First free machine optimized -o1 time: " +
+                         (double)(endTime - startTime) / 1000000 + "ms\n");
+    default:
+      break;
+    }
+    if (OUTPUT_SCHEDULE) {
+      outputSchedule2CSV(switch_matrix, orders, machines,
+                         "schedule_optimize1.csv");
+    }
+
+    cleanMachine(machines);
+    startTime = System.nanoTime();
+    optimize_switch_time(orders, sequence, switch_matrix, machines);
+    endTime = System.nanoTime();
+    switch (PRINT_FLAG) {
+    case 4:
+      printOrders(orders, sequence);
+    case 3:
+      printMachine(orders, machines, PRINT_FLAG >= 4);
+    case 2:
+      evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+    case 1:
+      System.out.println("Optimize switch time time: " +
+                         (double)(endTime - startTime) / 1000000 + "ms\n");
+    default:
+      break;
+    }
+    if (OUTPUT_SCHEDULE) {
+      outputSchedule2CSV(switch_matrix, orders, machines,
+                         "schedule_switch_time.csv");
+    }
+
+    cleanMachine(machines);
+    startTime = System.nanoTime();
+    optimize_switch_time_optimize1(orders, sequence, switch_matrix, machines);
+    endTime = System.nanoTime();
+    switch (PRINT_FLAG) {
+    case 4:
+      printOrders(orders, sequence);
+    case 3:
+      printMachine(orders, machines, PRINT_FLAG >= 4);
+    case 2:
+      evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+    case 1:
+      System.out.println("Optimize switch time optimized -o1 time: " +
+                         (double)(endTime - startTime) / 1000000 + "ms\n");
+      MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+      MemoryUsage heapMemoryUsage = memoryBean.getHeapMemoryUsage();
+      System.out.println("Heap Memory Usage: " +
+                         heapMemoryUsage.getUsed() / 1024 / 1024 + "MB");
+    default:
+      break;
+    }
+    if (OUTPUT_SCHEDULE) {
+      outputSchedule2CSV(switch_matrix, orders, machines,
+                         "schedule_switch_time_optimize1.csv");
+    }
+    if (OUTPUT_SNAPSHOT) {
+      startTime = System.nanoTime();
+      ScheduleSnapshot.write(
+          switch_matrix, orders, machines,
+          ScheduleEvaluator.evaluate(switch_matrix, orders, machines),
+          Path.of("schedule.snapshot"));
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Snapshot time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+    }
+
+    if (LOCAL_SEARCH_MS > 0) {
+      startTime = System.nanoTime();
+      LocalSearch.Stats stats = new LocalSearch(LOCAL_SEARCH_MS)
+                                    .improve(switch_matrix, orders, machines);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Local search moves: " + stats.moves() +
+                           " rounds: " + stats.rounds);
+      }
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Local search time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+      if (OUTPUT_SCHEDULE) {
+        outputSchedule2CSV(switch_matrix, orders, machines,
+                           "schedule_local_search.csv");
+      }
+    }
+
+    if (EXACT_WINDOW_MS > 0) {
+      startTime = System.nanoTime();
+      int replaced = BranchAndBound.resequence(
+          orders, switch_matrix, machines, BranchAndBound.DEFAULT_WINDOW,
+          EXACT_WINDOW_MS);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Exact windows replaced: " + replaced);
+      }
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Exact window time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+    }
+
+    if (GENETIC_MS > 0) {
+      cleanMachine(machines);
+      startTime = System.nanoTime();
+      GeneticOptimizer.Stats stats = new GeneticOptimizer(GENETIC_MS)
+                                         .optimize(switch_matrix, orders,
+                                                   machines);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Genetic generations: " + stats.generations +
+                           " best seed: " + stats.seed_label + " late " +
+                           stats.seed_late + " switch " +
+                           stats.seed_switch_time);
+      }
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Genetic optimizer time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+      if (OUTPUT_SCHEDULE) {
+        outputSchedule2CSV(switch_matrix, orders, machines,
+                           "schedule_genetic.csv");
+      }
+    }
+
+    if (RUN_CELLS) {
+      cleanMachine(machines);
+      CellScheduler cells =
+          new CellScheduler(Heuristic.OPTIMIZE_SWITCH_TIME_OPTIMIZE1);
+      startTime = System.nanoTime();
+      cells.schedule(orders, sequence, switch_matrix, machines);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Cell scheduler rebalance moves: " +
+                           cells.rebalanceMoves() + "\nCell scheduler time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+      if (OUTPUT_SCHEDULE) {
+        outputSchedule2CSV(switch_matrix, orders, machines,
+                           "schedule_cells.csv");
+      }
+    }
+
+    if (ROLLING_HORIZON) {
+      cleanMachine(machines);
+      startTime = System.nanoTime();
+      RollingHorizon.Stats stats =
+          new RollingHorizon(Heuristic.OPTIMIZE_SWITCH_TIME_OPTIMIZE1,
+                             OrderRanking.of(SORT_METHOD))
+              .schedule(orders, switch_matrix, machines, null);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Rolling horizon windows: " + stats.windows +
+                           " first plan: " + stats.first_plan_ms +
+                           "ms\nRolling horizon time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+      if (OUTPUT_SCHEDULE) {
+        outputSchedule2CSV(switch_matrix, orders, machines,
+                           "schedule_rolling_horizon.csv");
+      }
+    }
+
+    if (CAMPAIGN_BATCHING) {
+      startTime = System.nanoTime();
+      CampaignBatcher.Campaigns campaigns =
+          CampaignBatcher.batch(orders, sequence, switch_matrix);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Campaigns: " + campaigns.size() + " from " +
+                           campaigns.orderNum() + " orders, batching time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+
+      cleanMachine(machines);
+      startTime = System.nanoTime();
+      CampaignBatcher.first_free_Campaigns(orders, campaigns, switch_matrix,
+                                           machines);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Campaign first free machine time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+
+      cleanMachine(machines);
+      startTime = System.nanoTime();
+      CampaignBatcher.optimize_switch_time_Campaigns(orders, campaigns,
+                                                     switch_matrix, machines);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Campaign optimize switch time time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+      if (OUTPUT_SCHEDULE) {
+        outputSchedule2CSV(switch_matrix, orders, machines,
+                           "schedule_campaigns.csv");
+      }
+    }
+
+    if (RELEASE_DATES) {
+      // the last heuristic ignores the releases, count what it skipped
+      if (PRINT_FLAG >= 2) {
+        System.out.println("Optimize switch time optimized -o1 with " +
+                           "release dates:");
+        evaluateSchedule(switch_matrix, orders, machines, false, true);
+      }
+      cleanMachine(machines);
+      startTime = System.nanoTime();
+      EventDispatcher.first_free_Released(orders, sequence, switch_matrix,
+                                          machines);
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, machines, PRINT_FLAG >= 3,
+                         true);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Release-aware first free machine time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+      if (OUTPUT_SCHEDULE) {
+        outputSchedule2CSV(switch_matrix, orders, machines,
+                           "schedule_released.csv");
+      }
+    }
+
+    if (RUN_PORTFOLIO) {
+      startTime = System.nanoTime();
+      PortfolioSolver.Result best = new PortfolioSolver().solve(
+          orders, switch_matrix,
+          generateRandomMachine(MACHINE_NUM, PRODUCT_TYPE_NUM,
+                                MACHINE_FAMILY_NUM));
+      endTime = System.nanoTime();
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Portfolio best: " +
+                           sortMethodName(best.sort_method) + " / " +
+                           best.heuristic.label);
+      }
+      if (PRINT_FLAG >= 2) {
+        evaluateSchedule(switch_matrix, orders, best.machines,
+                         PRINT_FLAG >= 3);
+      }
+      if (PRINT_FLAG >= 1) {
+        System.out.println("Portfolio time: " +
+                           (double)(endTime - startTime) / 1000000 + "ms\n");
+      }
+      if (OUTPUT_SCHEDULE) {
+        outputSchedule2CSV(switch_matrix, orders, best.machines,
+                           "schedule_portfolio.csv");
+      }
+    }
+
+    System.out.println("\n\n");
+    if (Metrics.ENABLED) {
+      System.out.println(Metrics.summary());
+    }
+  }
+}
@@ -0,0 +1,674 @@
+// Exact branch and bound for small windows of orders
+// sequences up to MAX_ORDERS orders on one or a few machines, starting from
+// each machine's finishing time and last order, with switch times from the
+// switch matrix. objective is PortfolioSolver.LATE_SWITCH_MAKESPAN, plus the
+// switch into a fixed next type per machine when the window sits inside a
+// longer queue
+//
+// a node appends one order to one machine. decisions are made in order of
+// start time (ties by machine), so every schedule is reached once and a
+// machine that fell behind the last start is closed. a node is cut when
+//   - its lower bound is no better than the incumbent: orders that finish
+//     late even if started next on the fastest open machine, plus the
+//     cheapest switch into every open order, plus the latest of those
+//     finishes or the average finish of the open machines
+//   - an earlier node with the same orders done and the same last types was
+//     at least as good on every machine (per-thread transposition table)
+//   - its machine is interchangeable with an earlier one in the same state
+//
+// the top SPLIT_DEPTH levels fork one task per child on a fork-join pool,
+// idle workers steal subtrees. children are tried in due date order and the
+// incumbent starts as a due date greedy, every improvement is passed to the
+// listener. past the time limit the open nodes only report their bound, so
+// the result is optimal or comes with a lower bound on the objective
+
+package aps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+class BranchAndBound {
+  public static final int MAX_ORDERS = 63;
+  // orders per window of resequence
+  public static final int DEFAULT_WINDOW = 12;
+  // levels of the tree forked as separate tasks
+  public static final int SPLIT_DEPTH = 2;
+  // slot bits of each thread's transposition table, a window of n orders
+  // gets n + 4 at most so short solves do not allocate megabytes
+  private static final int TABLE_BITS = 16;
+
+  public static class Solution {
+    // per machine the window orders in run order, as OrderTable indices
+    public final int[][] sequences;
+    public final long late;
+    public final long switch_time;
+    public final long makespan;
+    // lower bound, equal to the objective when optimal
+    public long bound_late;
+    public long bound_switch_time;
+    public long bound_makespan;
+    public boolean optimal;
+    public long nodes;
+
+    Solution(int[][] sequences, long late, long switch_time, long makespan) {
+      this.sequences = sequences;
+      this.late = late;
+      this.switch_time = switch_time;
+      this.makespan = makespan;
+    }
+
+    boolean betterThan(long late, long switch_time, long makespan) {
+      return compare(this.late, this.switch_time, this.makespan, late,
+                     switch_time, makespan) < 0;
+    }
+  }
+
+  interface Listener {
+    // called from a worker thread with every new incumbent
+    void improved(Solution incumbent);
+  }
+
+  private final long time_limit_ms;
+  private final ForkJoinPool pool;
+
+  public BranchAndBound(long time_limit_ms, ForkJoinPool pool) {
+    this.time_limit_ms = time_limit_ms;
+    this.pool = pool;
+  }
+
+  public BranchAndBound(long time_limit_ms) {
+    this(time_limit_ms, ForkJoinPool.commonPool());
+  }
+
+  // window: the orders to place. machines are read, not changed, and
+  // next_type[m] is the product type queued after the window on machine m,
+  // -1 or a null array for none
+  public Solution solve(final OrderTable orders, final int[] window,
+                        final SwitchMatrix switch_matrix,
+                        final List<APSDemo.Machine> machines,
+                        final int[] next_type, Listener listener) {
+    if (window.length > MAX_ORDERS) {
+      throw new IllegalArgumentException("at most " + MAX_ORDERS +
+                                         " orders, got " + window.length);
+    }
+    Problem p = new Problem(orders, window, switch_matrix, machines,
+                            next_type, listener,
+                            System.nanoTime() + time_limit_ms * 1000000);
+    State root = new State(p);
+    pool.invoke(new Search(p, root));
+    Solution best = p.incumbent.get();
+    best.nodes = p.nodes.sum();
+    best.optimal = p.open_late == Long.MAX_VALUE;
+    if (!best.optimal && compare(p.open_late, p.open_switch_time,
+                                 p.open_makespan, best.late, best.switch_time,
+                                 best.makespan) < 0) {
+      best.bound_late = p.open_late;
+      best.bound_switch_time = p.open_switch_time;
+      best.bound_makespan = p.open_makespan;
+    } else {
+      best.bound_late = best.late;
+      best.bound_switch_time = best.switch_time;
+      best.bound_makespan = best.makespan;
+    }
+    return best;
+  }
+
+  // re-sequences every machine's queue in windows of window orders, a
+  // window is replaced only when its late orders and switch time (into the
+  // next order included) get better, which never delays the orders after
+  // it. returns the number of windows replaced
+  public static int resequence(final OrderTable orders,
+                               final SwitchMatrix switch_matrix,
+                               List<APSDemo.Machine> machines, int window,
+                               long time_limit_ms) {
+    return resequence(orders, switch_matrix, machines, null, null, window,
+                      time_limit_ms);
+  }
+
+  // same, only queue positions from[m] (inclusive) to to[m] (exclusive) of
+  // machine m of the list are moved, null for the whole queue
+  public static int resequence(final OrderTable orders,
+                               final SwitchMatrix switch_matrix,
+                               List<APSDemo.Machine> machines, int[] from,
+                               int[] to, int window, long time_limit_ms) {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.DISPATCH, "exact_window");
+    long deadline = System.nanoTime() + time_limit_ms * 1000000;
+    int replaced = 0;
+    long order_num = 0;
+    int[] orders_in_window = new int[window];
+    int[] next_type = new int[1];
+    for (int i = 0; i < machines.size(); i++) {
+      APSDemo.Machine m = machines.get(i);
+      OrderQueue queue = m.orders_in_queue;
+      int first = from == null ? 0 : from[i];
+      int end = to == null ? queue.size() : to[i];
+      order_num += end - first;
+      // time before the window, walked forward as windows are done
+      int start_time = m.finishing_time;
+      int previous = -1;
+      for (int k = 0; k < queue.size(); k++) {
+        int o = queue.get(k);
+        start_time -= APSDemo.getSwitchTime(switch_matrix, orders, previous,
+                                            o) +
+                      orders.quantity(o) / m.machine_product_per_hour;
+        previous = o;
+      }
+      previous = -1;
+      for (int k = 0; k < first; k++) {
+        int o = queue.get(k);
+        start_time += APSDemo.getSwitchTime(switch_matrix, orders, previous,
+                                            o) +
+                      orders.quantity(o) / m.machine_product_per_hour;
+        previous = o;
+      }
+      for (int lo = first; lo < end; lo += window) {
+        long now = System.nanoTime();
+        if (now >= deadline) {
+          break;
+        }
+        int hi = Math.min(lo + window, end);
+        int next = hi < queue.size() ? queue.get(hi) : -1;
+        APSDemo.Machine before = new APSDemo.Machine(
+            m.machine_id, m.name, start_time, m.machine_product_per_hour);
+        before.eligible_types = m.eligible_types;
+        if (previous != -1) {
+          before.orders_in_queue.add(previous);
+        }
+        // cost of the window as queued
+        long late = 0;
+        long switch_time = 0;
+        int time = start_time;
+        int last = previous;
+        for (int k = lo; k < hi; k++) {
+          int o = queue.get(k);
+          orders_in_window[k - lo] = o;
+          int s = APSDemo.getSwitchTime(switch_matrix, orders, last, o);
+          time += s + orders.quantity(o) / m.machine_product_per_hour;
+          switch_time += s;
+          late += time > orders.dueDate(o) * 24 ? 1 : 0;
+          last = o;
+        }
+        if (next != -1) {
+          switch_time += APSDemo.getSwitchTime(switch_matrix, orders, last,
+                                               next);
+        }
+        next_type[0] = next == -1 ? -1 : orders.productType(next);
+        long budget_ms = Math.max(1, (deadline - now) / 1000000);
+        Solution s =
+            new BranchAndBound(Math.min(budget_ms, 100))
+                .solve(orders, Arrays.copyOf(orders_in_window, hi - lo),
+                       switch_matrix, List.of(before), next_type, null);
+        if (s.late <= late && s.switch_time <= switch_time &&
+            (s.late < late || s.switch_time < switch_time)) {
+          for (int k = lo; k < hi; k++) {
+            queue.set(k, s.sequences[0][k - lo]);
+          }
+          // work is the same, every later order moves up by the switch saved
+          m.finishing_time -= (int)(switch_time - s.switch_time);
+          replaced++;
+        }
+        // walk past the window as it is now
+        for (int k = lo; k < hi; k++) {
+          int o = queue.get(k);
+          start_time += APSDemo.getSwitchTime(switch_matrix, orders, previous,
+                                              o) +
+                        orders.quantity(o) / m.machine_product_per_hour;
+          previous = o;
+        }
+      }
+    }
+    Metrics.end(span, order_num);
+    return replaced;
+  }
+
+  private static final class Problem {
+    final int n;
+    final int machine_num;
+    final int[] order;      // local index -> OrderTable index, by due date
+    final int[] type;
+    final int[] due;
+    final int[][] work;     // [machine][local], -1 when it cannot run
+    final int[] next_type;
+    final int[] start_time;
+    final int[] start_type;
+    // smallest machine with the same rate, eligibility and next type
+    final int[] twin;
+    final SwitchMatrix switch_matrix;
+    final Listener listener;
+    final long deadline;
+    final AtomicReference<Solution> incumbent = new AtomicReference<>();
+    final LongAdder nodes = new LongAdder();
+    final ThreadLocal<Table> table;
+    // least bound of the nodes left open at the deadline
+    long open_late = Long.MAX_VALUE;
+    long open_switch_time = Long.MAX_VALUE;
+    long open_makespan = Long.MAX_VALUE;
+
+    Problem(OrderTable orders, int[] window, SwitchMatrix switch_matrix,
+            List<APSDemo.Machine> machines, int[] next_type,
+            Listener listener, long deadline) {
+      this.switch_matrix = switch_matrix;
+      this.listener = listener;
+      this.deadline = deadline;
+      n = window.length;
+      machine_num = machines.size();
+      order = window.clone();
+      Integer[] by_due = new Integer[n];
+      for (int i = 0; i < n; i++) {
+        by_due[i] = window[i];
+      }
+      Arrays.sort(by_due, (a, b) -> Integer.compare(orders.dueDate(a),
+                                                    orders.dueDate(b)));
+      type = new int[n];
+      due = new int[n];
+      for (int i = 0; i < n; i++) {
+        order[i] = by_due[i];
+        type[i] = orders.productType(order[i]);
+        due[i] = orders.dueDate(order[i]) * 24;
+      }
+      work = new int[machine_num][n];
+      this.next_type = new int[machine_num];
+      start_time = new int[machine_num];
+      start_type = new int[machine_num];
+      twin = new int[machine_num];
+      for (int m = 0; m < machine_num; m++) {
+        APSDemo.Machine machine = machines.get(m);
+        for (int i = 0; i < n; i++) {
+          work[m][i] = machine.canRun(type[i])
+                           ? orders.quantity(order[i]) /
+                                 machine.machine_product_per_hour
+                           : -1;
+        }
+        this.next_type[m] = next_type == null ? -1 : next_type[m];
+        start_time[m] = machine.finishing_time;
+        int last = machine.getLastOrder();
+        start_type[m] = last < 0 ? -1 : orders.productType(last);
+        twin[m] = m;
+        for (int t = 0; t < m; t++) {
+          APSDemo.Machine other = machines.get(t);
+          if (twin[t] == t &&
+              other.machine_product_per_hour ==
+                  machine.machine_product_per_hour &&
+              Objects.equals(other.eligible_types,
+                                       machine.eligible_types) &&
+              this.next_type[t] == this.next_type[m]) {
+            twin[m] = t;
+            break;
+          }
+        }
+      }
+      int table_bits = Math.min(TABLE_BITS, n + 4);
+      table = ThreadLocal.withInitial(() -> new Table(machine_num, table_bits));
+      incumbent.set(greedy());
+    }
+
+    int sw(int from_type, int to_type) {
+      return from_type < 0 ? 0 : switch_matrix.get(from_type, to_type);
+    }
+
+    // due date order, each order on the machine that finishes it first
+    Solution greedy() {
+      int[] time = start_time.clone();
+      int[] last = start_type.clone();
+      int[] machine_of = new int[n];
+      long late = 0;
+      long switch_time = 0;
+      for (int i = 0; i < n; i++) {
+        int best = -1;
+        int best_finish = Integer.MAX_VALUE;
+        for (int m = 0; m < machine_num; m++) {
+          if (work[m][i] >= 0) {
+            int finish = time[m] + sw(last[m], type[i]) + work[m][i];
+            if (finish < best_finish) {
+              best = m;
+              best_finish = finish;
+            }
+          }
+        }
+        if (best < 0) {
+          throw new IllegalArgumentException(
+              "no machine can run product type " + type[i]);
+        }
+        switch_time += sw(last[best], type[i]);
+        time[best] = best_finish;
+        last[best] = type[i];
+        machine_of[i] = best;
+        late += best_finish > due[i] ? 1 : 0;
+      }
+      long makespan = 0;
+      for (int m = 0; m < machine_num; m++) {
+        if (next_type[m] >= 0) {
+          switch_time += sw(last[m], next_type[m]);
+        }
+        makespan = Math.max(makespan, time[m]);
+      }
+      int[] local = new int[n];
+      for (int i = 0; i < n; i++) {
+        local[i] = i;
+      }
+      return solution(local, machine_of, n, late, switch_time, makespan);
+    }
+
+    // decisions[0, depth) in decision order, grouped into machines
+    Solution solution(int[] decided_order, int[] decided_machine, int depth,
+                      long late, long switch_time, long makespan) {
+      int[] count = new int[machine_num];
+      for (int d = 0; d < depth; d++) {
+        count[decided_machine[d]]++;
+      }
+      int[][] sequences = new int[machine_num][];
+      for (int m = 0; m < machine_num; m++) {
+        sequences[m] = new int[count[m]];
+        count[m] = 0;
+      }
+      for (int d = 0; d < depth; d++) {
+        int m = decided_machine[d];
+        sequences[m][count[m]++] = order[decided_order[d]];
+      }
+      return new Solution(sequences, late, switch_time, makespan);
+    }
+
+    void offer(Solution s) {
+      while (true) {
+        Solution current = incumbent.get();
+        if (!s.betterThan(current.late, current.switch_time,
+                          current.makespan)) {
+          return;
+        }
+        if (incumbent.compareAndSet(current, s)) {
+          if (listener != null) {
+            listener.improved(s);
+          }
+          return;
+        }
+      }
+    }
+
+    synchronized void open(long late, long switch_time, long makespan) {
+      if (compare(late, switch_time, makespan, open_late, open_switch_time,
+                  open_makespan) < 0) {
+        open_late = late;
+        open_switch_time = switch_time;
+        open_makespan = makespan;
+      }
+    }
+  }
+
+  // one partial schedule, changed in place by the depth-first search
+  private static final class State {
+    long done;               // bit i: local order i is placed
+    final int[] time;
+    final int[] last;        // product type, -1 before any order
+    long late;
+    long switch_time;
+    int last_start = Integer.MIN_VALUE;
+    int last_machine;
+    int depth;
+    final int[] decided_order;
+    final int[] decided_machine;
+
+    State(Problem p) {
+      time = p.start_time.clone();
+      last = p.start_type.clone();
+      decided_order = new int[p.n];
+      decided_machine = new int[p.n];
+    }
+
+    State(State s) {
+      done = s.done;
+      time = s.time.clone();
+      last = s.last.clone();
+      late = s.late;
+      switch_time = s.switch_time;
+      last_start = s.last_start;
+      last_machine = s.last_machine;
+      depth = s.depth;
+      decided_order = s.decided_order.clone();
+      decided_machine = s.decided_machine.clone();
+    }
+
+    // machine m can take the next order without breaking start order
+    boolean open(int m) {
+      return time[m] > last_start ||
+          (time[m] == last_start && m >= last_machine);
+    }
+  }
+
+  private static final class Search extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Problem p;
+    private final State s;
+
+    Search(Problem p, State s) {
+      this.p = p;
+      this.s = s;
+    }
+
+    @Override
+    protected void compute() {
+      search(s);
+    }
+
+    private void search(State s) {
+      p.nodes.increment();
+      if (s.depth == p.n) {
+        leaf(s);
+        return;
+      }
+      // bound: late, switch, makespan
+      long late_bound = s.late;
+      long switch_bound = s.switch_time;
+      long makespan_bound = 0;
+      // busy time the open machines need at least, for the average finish
+      long busy = 0;
+      int open_machines = 0;
+      for (int m = 0; m < p.machine_num; m++) {
+        makespan_bound = Math.max(makespan_bound, s.time[m]);
+        if (s.open(m)) {
+          busy += s.time[m];
+          open_machines++;
+        }
+      }
+      long open_orders = ~s.done & ((1L << p.n) - 1);
+      for (long bits = open_orders; bits != 0; bits &= bits - 1) {
+        int i = Long.numberOfTrailingZeros(bits);
+        int earliest = Integer.MAX_VALUE;
+        int cheapest = Integer.MAX_VALUE;
+        int least_work = Integer.MAX_VALUE;
+        for (int m = 0; m < p.machine_num; m++) {
+          if (p.work[m][i] >= 0 && s.open(m)) {
+            earliest = Math.min(earliest, s.time[m] + p.work[m][i]);
+            cheapest = Math.min(cheapest, p.sw(s.last[m], p.type[i]));
+            least_work = Math.min(least_work, p.work[m][i]);
+          }
+        }
+        if (earliest == Integer.MAX_VALUE) {
+          return; // no open machine runs it, covered by another branch
+        }
+        for (long others = open_orders & ~(1L << i);
+             others != 0 && cheapest > 0; others &= others - 1) {
+          int j = Long.numberOfTrailingZeros(others);
+          cheapest = Math.min(cheapest, p.sw(p.type[j], p.type[i]));
+        }
+        late_bound += earliest > p.due[i] ? 1 : 0;
+        switch_bound += cheapest;
+        makespan_bound = Math.max(makespan_bound, earliest);
+        busy += least_work + cheapest;
+      }
+      if (open_orders != 0) {
+        makespan_bound = Math.max(
+            makespan_bound, (busy + open_machines - 1) / open_machines);
+      }
+      Solution best = p.incumbent.get();
+      if (compare(late_bound, switch_bound, makespan_bound, best.late,
+                  best.switch_time, best.makespan) >= 0) {
+        return;
+      }
+      if (System.nanoTime() >= p.deadline) {
+        p.open(late_bound, switch_bound, makespan_bound);
+        return;
+      }
+      if (p.table.get().dominated(s)) {
+        return;
+      }
+
+      List<Search> children =
+          s.depth < SPLIT_DEPTH ? new ArrayList<>() : null;
+      for (int m = 0; m < p.machine_num; m++) {
+        if (!s.open(m) || hasTwin(s, m)) {
+          continue;
+        }
+        for (long bits = open_orders; bits != 0; bits &= bits - 1) {
+          int i = Long.numberOfTrailingZeros(bits);
+          if (p.work[m][i] < 0) {
+            continue;
+          }
+          // apply, search, undo
+          int time = s.time[m];
+          int last = s.last[m];
+          int last_start = s.last_start;
+          int last_machine = s.last_machine;
+          int sw = p.sw(last, p.type[i]);
+          int finish = time + sw + p.work[m][i];
+          s.done |= 1L << i;
+          s.time[m] = finish;
+          s.last[m] = p.type[i];
+          s.late += finish > p.due[i] ? 1 : 0;
+          s.switch_time += sw;
+          s.last_start = time;
+          s.last_machine = m;
+          s.decided_order[s.depth] = i;
+          s.decided_machine[s.depth] = m;
+          s.depth++;
+          if (children != null) {
+            children.add(new Search(p, new State(s)));
+          } else {
+            search(s);
+          }
+          s.depth--;
+          s.switch_time -= sw;
+          s.late -= finish > p.due[i] ? 1 : 0;
+          s.last_machine = last_machine;
+          s.last_start = last_start;
+          s.last[m] = last;
+          s.time[m] = time;
+          s.done &= ~(1L << i);
+        }
+      }
+      if (children != null) {
+        invokeAll(children);
+      }
+    }
+
+    // an earlier machine of the same kind in the same state gives the same
+    // subtrees
+    private boolean hasTwin(State s, int m) {
+      for (int t = p.twin[m]; t < m; t++) {
+        if (p.twin[t] == p.twin[m] && s.time[t] == s.time[m] &&
+            s.last[t] == s.last[m] && s.open(t)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void leaf(State s) {
+      long switch_time = s.switch_time;
+      long makespan = 0;
+      for (int m = 0; m < p.machine_num; m++) {
+        if (p.next_type[m] >= 0) {
+          switch_time += p.sw(s.last[m], p.next_type[m]);
+        }
+        makespan = Math.max(makespan, s.time[m]);
+      }
+      Solution best = p.incumbent.get();
+      if (compare(s.late, switch_time, makespan, best.late, best.switch_time,
+                  best.makespan) < 0) {
+        p.offer(p.solution(s.decided_order, s.decided_machine, s.depth,
+                           s.late, switch_time, makespan));
+      }
+    }
+  }
+
+  // states seen by one thread, keyed by the placed orders and the last type
+  // of every machine; a slot keeps the latest state that was not dominated
+  private static final class Table {
+    final int machine_num;
+    final int stride;
+    final long[] done;
+    final int[] data; // last types, times, late, switch time, last start
+    final boolean[] used;
+    final int bits;
+
+    Table(int machine_num, int bits) {
+      this.machine_num = machine_num;
+      this.bits = bits;
+      stride = 2 * machine_num + 4;
+      done = new long[1 << bits];
+      data = new int[stride << bits];
+      used = new boolean[1 << bits];
+    }
+
+    // true when a stored state with the same orders and last types is no
+    // worse in every way, else s is stored
+    boolean dominated(State s) {
+      long h = s.done * 0x9e3779b97f4a7c15L;
+      for (int m = 0; m < machine_num; m++) {
+        h = (h ^ (s.last[m] + 1)) * 0xbf58476d1ce4e5b9L;
+      }
+      int slot = (int)(h >>> (64 - bits));
+      int base = slot * stride;
+      if (used[slot] && done[slot] == s.done && sameLast(base, s)) {
+        boolean no_worse =
+            data[base + 2 * machine_num] <= s.late &&
+            data[base + 2 * machine_num + 1] <= s.switch_time &&
+            (data[base + 2 * machine_num + 2] < s.last_start ||
+             (data[base + 2 * machine_num + 2] == s.last_start &&
+              data[base + 2 * machine_num + 3] <= s.last_machine));
+        for (int m = 0; m < machine_num && no_worse; m++) {
+          no_worse = data[base + machine_num + m] <= s.time[m];
+        }
+        if (no_worse) {
+          return true;
+        }
+      }
+      used[slot] = true;
+      done[slot] = s.done;
+      for (int m = 0; m < machine_num; m++) {
+        data[base + m] = s.last[m];
+        data[base + machine_num + m] = s.time[m];
+      }
+      data[base + 2 * machine_num] = (int)s.late;
+      data[base + 2 * machine_num + 1] = (int)s.switch_time;
+      data[base + 2 * machine_num + 2] = s.last_start;
+      data[base + 2 * machine_num + 3] = s.last_machine;
+      return false;
+    }
+
+    private boolean sameLast(int base, State s) {
+      for (int m = 0; m < machine_num; m++) {
+        if (data[base + m] != s.last[m]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  static int compare(long late, long switch_time, long makespan,
+                     long other_late, long other_switch_time,
+                     long other_makespan) {
+    int c = Long.compare(late, other_late);
+    if (c == 0) {
+      c = Long.compare(switch_time, other_switch_time);
+    }
+    return c != 0 ? c : Long.compare(makespan, other_makespan);
+  }
+}
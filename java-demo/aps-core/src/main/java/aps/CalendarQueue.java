@@ -0,0 +1,132 @@
+// Calendar queue of int events keyed by the hour
+// bucket b holds the events whose hour is b modulo the bucket count, time
+// only moves forward, so the queue walks the buckets from the hour of the
+// last poll and a lookup is O(1) amortized as long as the events of one lap
+// fit the buckets; after a lap without an event it jumps straight to the
+// earliest one. events of the same hour come out in no particular order
+
+package aps;
+
+import java.util.Arrays;
+
+class CalendarQueue {
+  private final int mask;
+  // first event of each bucket, -1 if empty
+  private final int[] head;
+  // events are pooled in parallel arrays chained by next, freed slots are
+  // chained from free
+  private int[] time;
+  private int[] value;
+  private int[] next;
+  private int free = -1;
+  private int used;
+  private int size;
+  // hour of the last poll, and the hour the walk has reached
+  private int now;
+  private int cursor;
+  // event found by the last locate and the one before it in its bucket
+  private int found = -1;
+  private int found_prev = -1;
+
+  // 2^bucket_bits buckets of one hour each
+  public CalendarQueue(int bucket_bits) {
+    if (bucket_bits < 1 || bucket_bits > 24) {
+      throw new IllegalArgumentException("bucket_bits must be in 1..24: " +
+                                         bucket_bits);
+    }
+    mask = (1 << bucket_bits) - 1;
+    head = new int[1 << bucket_bits];
+    Arrays.fill(head, -1);
+    time = new int[16];
+    value = new int[16];
+    next = new int[16];
+  }
+
+  public int size() { return size; }
+
+  public boolean isEmpty() { return size == 0; }
+
+  // hour of the last polled event, no event may be added before it
+  public int now() { return now; }
+
+  public void add(int t, int v) {
+    Metrics.heapOperation();
+    if (t < now) {
+      throw new IllegalArgumentException("event at " + t +
+                                         " is before the current hour " + now);
+    }
+    int e;
+    if (free >= 0) {
+      e = free;
+      free = next[e];
+    } else {
+      if (used == time.length) {
+        time = Arrays.copyOf(time, used * 2);
+        value = Arrays.copyOf(value, used * 2);
+        next = Arrays.copyOf(next, used * 2);
+      }
+      e = used++;
+    }
+    int b = t & mask;
+    time[e] = t;
+    value[e] = v;
+    next[e] = head[b];
+    head[b] = e;
+    size++;
+    found = -1;
+    cursor = Math.min(cursor, t);
+  }
+
+  // hour of the earliest event, the queue must not be empty
+  public int peekTime() {
+    return time[locate()];
+  }
+
+  // remove and return an event of the earliest hour, the queue must not be
+  // empty
+  public int poll() {
+    Metrics.heapOperation();
+    int e = locate();
+    now = time[e];
+    if (found_prev >= 0) {
+      next[found_prev] = next[e];
+    } else {
+      head[now & mask] = next[e];
+    }
+    next[e] = free;
+    free = e;
+    size--;
+    found = -1;
+    return value[e];
+  }
+
+  private int locate() {
+    if (found >= 0) {
+      return found;
+    }
+    if (size == 0) {
+      throw new IllegalStateException("calendar is empty");
+    }
+    while (true) {
+      for (int step = 0; step <= mask; step++) {
+        int prev = -1;
+        for (int e = head[cursor & mask]; e >= 0; prev = e, e = next[e]) {
+          if (time[e] == cursor) {
+            found = e;
+            found_prev = prev;
+            return e;
+          }
+        }
+        cursor++;
+      }
+      // a lap without an event, the earliest one is in a later lap
+      int earliest = Integer.MAX_VALUE;
+      for (int b = 0; b <= mask; b++) {
+        for (int e = head[b]; e >= 0; e = next[e]) {
+          earliest = Math.min(earliest, time[e]);
+        }
+      }
+      cursor = earliest;
+    }
+  }
+}
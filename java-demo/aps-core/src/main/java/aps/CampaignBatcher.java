@@ -0,0 +1,215 @@
+// Product type campaigns between sorting and dispatch
+// one pass over the sorted sequence keeps an open campaign per product type,
+// an order joins the open campaign of its type unless that would spread the
+// campaign's due dates over more than max_due_span days or grow it past
+// max_orders, then the campaign is closed and the order opens a new one.
+// only types whose switch to themselves is no dearer than the cheapest switch
+// into them are batched, other orders stay campaigns of one
+//
+// campaigns keep the sequence position of their first order and their orders
+// in sequence order, the dispatchers below place a campaign on one machine
+// with one decision and at most one changeover, unless its next order would
+// go late on that machine but not on the machine the dispatcher picks for
+// the rest of it; then the rest is dispatched again from that order on
+
+package aps;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+class CampaignBatcher {
+  public static final int DEFAULT_MAX_DUE_SPAN = 2;
+  public static final int DEFAULT_MAX_ORDERS = 16;
+
+  // campaign c holds members[start[c]] .. members[start[c + 1] - 1]
+  public static class Campaigns {
+    public final int[] start;
+    public final int[] members;
+    public final int[] product_type;
+
+    Campaigns(int[] start, int[] members, int[] product_type) {
+      this.start = start;
+      this.members = members;
+      this.product_type = product_type;
+    }
+
+    public int size() { return product_type.length; }
+
+    public int orderNum() { return members.length; }
+  }
+
+  public static Campaigns batch(final OrderTable orders, final int[] sequence,
+                                final SwitchMatrix switch_matrix) {
+    return batch(orders, sequence, switch_matrix, DEFAULT_MAX_DUE_SPAN,
+                 DEFAULT_MAX_ORDERS);
+  }
+
+  public static Campaigns batch(final OrderTable orders, final int[] sequence,
+                                final SwitchMatrix switch_matrix,
+                                int max_due_span, int max_orders) {
+    if (max_due_span < 0 || max_orders < 1) {
+      throw new IllegalArgumentException(
+          "max_due_span must be >= 0 and max_orders >= 1");
+    }
+    int type_num = switch_matrix.size();
+    boolean[] batched = new boolean[type_num];
+    for (int t = 0; t < type_num; t++) {
+      int cheapest = Integer.MAX_VALUE;
+      for (int s = 0; s < type_num; s++) {
+        cheapest = Math.min(cheapest, switch_matrix.get(s, t));
+      }
+      batched[t] = switch_matrix.get(t, t) <= cheapest;
+    }
+    // open[t]: campaign of type t that still takes orders, -1 if none
+    int[] open = new int[type_num];
+    Arrays.fill(open, -1);
+    // a campaign's orders are chained by position in the sequence
+    int[] head = new int[sequence.length];
+    int[] tail = new int[sequence.length];
+    int[] count = new int[sequence.length];
+    int[] min_due = new int[sequence.length];
+    int[] max_due = new int[sequence.length];
+    int[] type = new int[sequence.length];
+    int[] next = new int[sequence.length];
+    int campaign_num = 0;
+    for (int i = 0; i < sequence.length; i++) {
+      int o = sequence[i];
+      int t = orders.productType(o);
+      int due = orders.dueDate(o);
+      int c = open[t];
+      next[i] = -1;
+      if (c >= 0 && batched[t] && count[c] < max_orders &&
+          Math.max(max_due[c], due) - Math.min(min_due[c], due) <=
+              max_due_span) {
+        next[tail[c]] = i;
+        tail[c] = i;
+        count[c]++;
+        min_due[c] = Math.min(min_due[c], due);
+        max_due[c] = Math.max(max_due[c], due);
+        continue;
+      }
+      c = campaign_num++;
+      open[t] = c;
+      head[c] = i;
+      tail[c] = i;
+      count[c] = 1;
+      min_due[c] = due;
+      max_due[c] = due;
+      type[c] = t;
+    }
+
+    int[] start = new int[campaign_num + 1];
+    int[] members = new int[sequence.length];
+    int k = 0;
+    for (int c = 0; c < campaign_num; c++) {
+      start[c] = k;
+      for (int i = head[c]; i >= 0; i = next[i]) {
+        members[k++] = sequence[i];
+      }
+    }
+    start[campaign_num] = k;
+    return new Campaigns(start, members, Arrays.copyOf(type, campaign_num));
+  }
+
+  // every campaign goes to the machine that is free first among the ones
+  // that run its type
+  public static List<APSDemo.Machine>
+  first_free_Campaigns(final OrderTable orders, final Campaigns campaigns,
+                       final SwitchMatrix switch_matrix,
+                       List<APSDemo.Machine> machines) {
+    Metrics.Span span =
+        Metrics.begin(Metrics.Phase.DISPATCH, "first_free_Campaigns");
+    MachinePool machine_pool = new MachinePool(
+        machines, MachineHeap.BY_FREE_TIME, switch_matrix.size());
+    dispatch(orders, campaigns, switch_matrix, machines, machine_pool::peek,
+             machine_pool::update);
+    Metrics.end(span, campaigns.orderNum());
+    return machines;
+  }
+
+  // every campaign goes to the machine with the lowest switch time into its
+  // product type, the earliest free one on a tie
+  public static List<APSDemo.Machine>
+  optimize_switch_time_Campaigns(final OrderTable orders,
+                                 final Campaigns campaigns,
+                                 final SwitchMatrix switch_matrix,
+                                 List<APSDemo.Machine> machines) {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.DISPATCH,
+                                      "optimize_switch_time_Campaigns");
+    MachineTypeIndex machine_index = new MachineTypeIndex(
+        orders, switch_matrix, machines, MachineHeap.BY_FREE_TIME);
+    dispatch(orders, campaigns, switch_matrix, machines,
+             machine_index::select, machine_index::update);
+    Metrics.end(span, campaigns.orderNum());
+    return machines;
+  }
+
+  // batch with the default bounds, then dispatch, see Heuristic
+  public static void first_free_Campaigns(final OrderTable orders,
+                                          final int[] sequence,
+                                          final SwitchMatrix switch_matrix,
+                                          List<APSDemo.Machine> machines) {
+    first_free_Campaigns(orders, batch(orders, sequence, switch_matrix),
+                         switch_matrix, machines);
+  }
+
+  public static void
+  optimize_switch_time_Campaigns(final OrderTable orders, final int[] sequence,
+                                 final SwitchMatrix switch_matrix,
+                                 List<APSDemo.Machine> machines) {
+    optimize_switch_time_Campaigns(
+        orders, batch(orders, sequence, switch_matrix), switch_matrix,
+        machines);
+  }
+
+  // select gives the machine position for a product type, update tells the
+  // index that the machine at a position got more orders
+  private static void dispatch(final OrderTable orders,
+                               final Campaigns campaigns,
+                               final SwitchMatrix switch_matrix,
+                               List<APSDemo.Machine> machines,
+                               IntUnaryOperator select, IntConsumer update) {
+    for (int c = 0; c < campaigns.size(); c++) {
+      int type = campaigns.product_type[c];
+      int end = campaigns.start[c + 1];
+      for (int k = campaigns.start[c]; k < end;) {
+        long decision_start = Metrics.now();
+        int best = select.applyAsInt(type);
+        APSDemo.Machine m = machines.get(best);
+        place(orders, switch_matrix, m, campaigns.members[k++]);
+        while (k < end) {
+          int o = campaigns.members[k];
+          if (finish(orders, switch_matrix, m, o) > orders.dueDate(o) * 24) {
+            // the rest goes elsewhere if the order is on time there
+            update.accept(best);
+            APSDemo.Machine other = machines.get(select.applyAsInt(type));
+            if (other != m && finish(orders, switch_matrix, other, o) <=
+                                  orders.dueDate(o) * 24) {
+              break;
+            }
+          }
+          place(orders, switch_matrix, m, o);
+          k++;
+        }
+        update.accept(best);
+        Metrics.decision(decision_start);
+      }
+    }
+  }
+
+  private static int finish(final OrderTable orders,
+                            final SwitchMatrix switch_matrix,
+                            final APSDemo.Machine m, int o) {
+    return m.finishing_time + orders.quantity(o) / m.machine_product_per_hour +
+           APSDemo.getSwitchTime(switch_matrix, orders, m.getLastOrder(), o);
+  }
+
+  private static void place(final OrderTable orders,
+                            final SwitchMatrix switch_matrix,
+                            APSDemo.Machine m, int o) {
+    m.finishing_time = finish(orders, switch_matrix, m, o);
+    m.orders_in_queue.add(o);
+  }
+}
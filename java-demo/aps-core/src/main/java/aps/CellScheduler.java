@@ -0,0 +1,229 @@
+// Cell-partitioned parallel dispatch
+// the machines are cut into cells of neighbouring machine ids, the sequence is
+// split over the cells by a load-balancing pass, and each cell runs the
+// heuristic on its own thread against its own machines, so the cells share
+// nothing but the read-only orders and switch matrix
+//
+// the cells write straight into the machines, there is nothing left to merge
+// but a rebalance: when the cell makespans drift apart, the last order of the
+// latest machine moves to the end of the earliest machine of another cell
+// while that finishes it sooner
+
+package aps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class CellScheduler {
+  // rebalance once the latest cell finishes this much after the earliest
+  public static final double DRIFT_TOLERANCE = 0.05;
+  // latest finishing time, then lowest machine id
+  private static final MachineHeap.Key BY_LATEST =
+      m -> ((long)-m.finishing_time << 32) | (m.machine_id & 0xffffffffL);
+
+  private final int cell_num;
+  private final Heuristic heuristic;
+  private final int threads;
+  private int rebalance_moves;
+
+  // cell_num <= 0 sizes the cells by the core count
+  public CellScheduler(int cell_num, Heuristic heuristic, int threads) {
+    this.cell_num =
+        cell_num > 0 ? cell_num : Runtime.getRuntime().availableProcessors();
+    this.heuristic = heuristic;
+    this.threads = threads;
+  }
+
+  public CellScheduler(Heuristic heuristic) {
+    this(0, heuristic, Runtime.getRuntime().availableProcessors());
+  }
+
+  // orders moved between cells by the last schedule call
+  public int rebalanceMoves() { return rebalance_moves; }
+
+  public List<APSDemo.Machine> schedule(final OrderTable orders,
+                                        final int[] sequence,
+                                        final SwitchMatrix switch_matrix,
+                                        List<APSDemo.Machine> machines) {
+    int cells = Math.min(cell_num, machines.size());
+    List<List<APSDemo.Machine>> cell_machines = new ArrayList<>(cells);
+    long[] capacity = new long[cells];
+    for (int c = 0; c < cells; c++) {
+      List<APSDemo.Machine> cell = new ArrayList<>(machines.subList(
+          (int)((long)c * machines.size() / cells),
+          (int)((long)(c + 1) * machines.size() / cells)));
+      cell_machines.add(cell);
+      for (APSDemo.Machine m : cell) {
+        capacity[c] += m.machine_product_per_hour;
+      }
+    }
+
+    // cell_runs[c][t]: some machine of cell c runs product type t
+    boolean[][] cell_runs = new boolean[cells][switch_matrix.size()];
+    for (int c = 0; c < cells; c++) {
+      EligibilityIndex eligibility =
+          new EligibilityIndex(cell_machines.get(c), switch_matrix.size());
+      for (int t = 0; t < switch_matrix.size(); t++) {
+        cell_runs[c][t] = !eligibility.classesFor(t).isEmpty();
+      }
+    }
+
+    int[][] cell_sequence = split(orders, sequence, capacity, cell_runs);
+    if (cells == 1) {
+      heuristic.schedule(orders, cell_sequence[0], switch_matrix, machines);
+    } else {
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try {
+        CompletableFuture<?>[] runs = new CompletableFuture<?>[cells];
+        for (int c = 0; c < cells; c++) {
+          int[] s = cell_sequence[c];
+          List<APSDemo.Machine> cell = cell_machines.get(c);
+          runs[c] = CompletableFuture.runAsync(
+              () -> heuristic.schedule(orders, s, switch_matrix, cell), pool);
+        }
+        CompletableFuture.allOf(runs).join();
+      } finally {
+        pool.shutdown();
+      }
+    }
+
+    rebalance_moves = 0;
+    if (drifted(cell_machines)) {
+      rebalance(orders, switch_matrix, machines, cell_machines, cell_runs);
+    }
+    return machines;
+  }
+
+  // each order goes to the cell that would finish earliest with it among
+  // the cells that run its type, a cell's load is measured in products and
+  // its speed in products per hour, the sequence order is kept inside every
+  // cell
+  private static int[][] split(final OrderTable orders, final int[] sequence,
+                               long[] capacity, boolean[][] runs) {
+    int cells = capacity.length;
+    long[] load = new long[cells];
+    int[] cell_of = new int[sequence.length];
+    int[] count = new int[cells];
+    for (int i = 0; i < sequence.length; i++) {
+      int quantity = orders.quantity(sequence[i]);
+      int type = orders.productType(sequence[i]);
+      int best = -1;
+      for (int c = 0; c < cells; c++) {
+        // (load[c] + q) / capacity[c] < (load[best] + q) / capacity[best]
+        if (runs[c][type] &&
+            (best < 0 || (load[c] + quantity) * capacity[best] <
+                             (load[best] + quantity) * capacity[c])) {
+          best = c;
+        }
+      }
+      if (best < 0) {
+        throw new IllegalArgumentException("no machine can run product type " +
+                                           type);
+      }
+      load[best] += quantity;
+      cell_of[i] = best;
+      count[best]++;
+    }
+    int[][] cell_sequence = new int[cells][];
+    for (int c = 0; c < cells; c++) {
+      cell_sequence[c] = new int[count[c]];
+      count[c] = 0;
+    }
+    for (int i = 0; i < sequence.length; i++) {
+      int c = cell_of[i];
+      cell_sequence[c][count[c]++] = sequence[i];
+    }
+    return cell_sequence;
+  }
+
+  private static boolean drifted(List<List<APSDemo.Machine>> cell_machines) {
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    for (List<APSDemo.Machine> cell : cell_machines) {
+      long makespan = 0;
+      for (APSDemo.Machine m : cell) {
+        makespan = Math.max(makespan, m.finishing_time);
+      }
+      min = Math.min(min, makespan);
+      max = Math.max(max, makespan);
+    }
+    return max > min * (1 + DRIFT_TOLERANCE);
+  }
+
+  // moves orders between cells only, a move inside a cell is the cell
+  // heuristic's business: the last order of the latest machine goes to the
+  // end of the earliest machine of another cell that runs its type, while
+  // that finishes it sooner. a heap keeps the latest machine and a pool per
+  // cell the earliest one by type, so a move costs O(cells * log machines)
+  private void rebalance(final OrderTable orders,
+                         final SwitchMatrix switch_matrix,
+                         List<APSDemo.Machine> machines,
+                         List<List<APSDemo.Machine>> cell_machines,
+                         boolean[][] cell_runs) {
+    int cells = cell_machines.size();
+    // cell and position in it of every machine
+    int[] cell_of = new int[machines.size()];
+    int[] first = new int[cells + 1];
+    MachinePool[] pools = new MachinePool[cells];
+    for (int c = 0; c < cells; c++) {
+      first[c + 1] = first[c] + cell_machines.get(c).size();
+      Arrays.fill(cell_of, first[c], first[c + 1], c);
+      pools[c] = new MachinePool(cell_machines.get(c),
+                                 MachineHeap.BY_FREE_TIME,
+                                 switch_matrix.size());
+    }
+    MachineHeap latest_heap = MachineHeap.of(machines, BY_LATEST);
+    while (true) {
+      int l = latest_heap.peek();
+      APSDemo.Machine latest = machines.get(l);
+      OrderQueue queue = latest.orders_in_queue;
+      if (queue.isEmpty()) {
+        return;
+      }
+      int o = queue.getLast();
+      int type = orders.productType(o);
+      int to_cell = -1, to = -1;
+      APSDemo.Machine earliest = null;
+      for (int c = 0; c < cells; c++) {
+        if (c == cell_of[l] || !cell_runs[c][type]) {
+          continue;
+        }
+        int i = pools[c].peek(type);
+        APSDemo.Machine m = cell_machines.get(c).get(i);
+        if (earliest == null ||
+            MachineHeap.BY_FREE_TIME.of(m) <
+                MachineHeap.BY_FREE_TIME.of(earliest)) {
+          earliest = m;
+          to_cell = c;
+          to = i;
+        }
+      }
+      if (earliest == null) {
+        return;
+      }
+      int finishing_time =
+          earliest.finishing_time +
+          orders.quantity(o) / earliest.machine_product_per_hour +
+          APSDemo.getSwitchTime(switch_matrix, orders,
+                                earliest.getLastOrder(), o);
+      if (finishing_time >= latest.finishing_time) {
+        return;
+      }
+      queue.removeAt(queue.size() - 1);
+      latest.finishing_time -=
+          orders.quantity(o) / latest.machine_product_per_hour +
+          APSDemo.getSwitchTime(switch_matrix, orders, queue.getLast(), o);
+      earliest.orders_in_queue.add(o);
+      earliest.finishing_time = finishing_time;
+      latest_heap.update(l, BY_LATEST.of(latest));
+      pools[cell_of[l]].update(l - first[cell_of[l]]);
+      latest_heap.update(first[to_cell] + to, BY_LATEST.of(earliest));
+      pools[to_cell].update(to);
+      rebalance_moves++;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+// Which machines can run which product types
+// machines with the same eligible types form a class, a plant has many
+// machines but few kinds of them, so the dispatchers keep one heap or
+// bucket per class and ask classesFor(type) which ones to look at instead
+// of testing every machine
+//
+// a machine with no eligible_types runs every type, so a plant without
+// restrictions is a single class and costs one heap as before
+
+package aps;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class EligibilityIndex {
+  private final int type_num;
+  // class of each machine position
+  private final int[] class_of;
+  // types each class runs, null when it runs every type
+  private final SparseBitSet[] class_types;
+  // classes that run each type
+  private final SparseBitSet[] type_classes;
+
+  public EligibilityIndex(List<APSDemo.Machine> machines, int type_num) {
+    this.type_num = type_num;
+    int machine_num = machines.size();
+    class_of = new int[machine_num];
+    Map<SparseBitSet, Integer> classes = new HashMap<>();
+    int unrestricted = -1;
+    for (int i = 0; i < machine_num; i++) {
+      SparseBitSet types = machines.get(i).eligible_types;
+      if (types == null) {
+        if (unrestricted < 0) {
+          unrestricted = classes.size();
+          classes.put(null, unrestricted);
+        }
+        class_of[i] = unrestricted;
+      } else {
+        Integer c = classes.putIfAbsent(types, classes.size());
+        class_of[i] = c == null ? classes.size() - 1 : c;
+      }
+    }
+    class_types = new SparseBitSet[classes.size()];
+    for (Map.Entry<SparseBitSet, Integer> e : classes.entrySet()) {
+      class_types[e.getValue()] = e.getKey();
+    }
+
+    type_classes = new SparseBitSet[type_num];
+    for (int t = 0; t < type_num; t++) {
+      type_classes[t] = new SparseBitSet(class_types.length);
+    }
+    for (int c = 0; c < class_types.length; c++) {
+      for (int t = 0; t < type_num; t++) {
+        if (class_types[c] == null || class_types[c].get(t)) {
+          type_classes[t].set(c);
+        }
+      }
+    }
+  }
+
+  public int typeNum() { return type_num; }
+
+  public int classNum() { return class_types.length; }
+
+  public int classOf(int i) { return class_of[i]; }
+
+  // types the class runs, null for every type
+  public SparseBitSet typesOf(int c) { return class_types[c]; }
+
+  public SparseBitSet classesFor(int product_type) {
+    return type_classes[product_type];
+  }
+}
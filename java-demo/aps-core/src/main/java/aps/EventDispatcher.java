@@ -0,0 +1,139 @@
+// Release-aware first free machine dispatch
+// the orders' releases (earlest_start_date, in days) and the machines' free
+// times are events in a CalendarQueue keyed by the hour. at each hour the
+// released orders join a bitset over their sequence position and the freed
+// machines join a bitset of idle machines, then every idle machine takes the
+// first released order of the sequence it can run, so no order starts before
+// its release and each event costs O(1) amortized
+//
+// with machines that run only some types (see EligibilityIndex) the released
+// orders are also kept in a heap of sequence positions per type, a
+// restricted machine intersects the types with released orders with its own
+// types and takes the first head among those heaps
+//
+// a machine that waits for a release idles, evaluate the result with
+// ScheduleEvaluator's release_dates option to count that time
+
+package aps;
+
+import java.util.List;
+
+class EventDispatcher {
+  // one hour per bucket, a lap of about 170 days
+  public static final int CALENDAR_BITS = 12;
+
+  public static List<APSDemo.Machine>
+  first_free_Released(final OrderTable orders, final int[] sequence,
+                      final SwitchMatrix switch_matrix,
+                      List<APSDemo.Machine> machines) {
+    int machine_num = machines.size();
+    if (machine_num == 0) {
+      return machines;
+    }
+    Metrics.Span span =
+        Metrics.begin(Metrics.Phase.DISPATCH, "first_free_Released");
+    int type_num = switch_matrix.size();
+    EligibilityIndex eligibility = new EligibilityIndex(machines, type_num);
+    boolean restricted = false;
+    for (int c = 0; c < eligibility.classNum(); c++) {
+      restricted |= eligibility.typesOf(c) != null;
+    }
+    CalendarQueue calendar = new CalendarQueue(CALENDAR_BITS);
+    // order events are sequence positions, machine events ~position in
+    // machines
+    for (int r = 0; r < sequence.length; r++) {
+      calendar.add(orders.earlestStartDate(sequence[r]) * 24, r);
+    }
+    for (int i = 0; i < machine_num; i++) {
+      calendar.add(machines.get(i).finishing_time, ~i);
+    }
+
+    SparseBitSet ready = new SparseBitSet(sequence.length);
+    // no position below ready_from is ready
+    int ready_from = 0;
+    // released positions by type keyed by the position, restricted only
+    MachineHeap[] ready_by_type =
+        restricted ? MachineHeap.shared(type_num, sequence.length) : null;
+    SparseBitSet ready_types = new SparseBitSet(type_num);
+    SparseBitSet idle = new SparseBitSet(machine_num);
+    // machines freed this hour, the other idle machines found nothing to
+    // run and only need another look after a release
+    SparseBitSet freed = new SparseBitSet(machine_num);
+
+    int remaining = sequence.length;
+    while (remaining > 0) {
+      if (calendar.isEmpty()) {
+        // the idle machines run none of the released types
+        throw new IllegalArgumentException(
+            "no machine can run product type " +
+            orders.productType(sequence[ready.nextSetBit(0)]));
+      }
+      int now = calendar.peekTime();
+      boolean released = false;
+      while (!calendar.isEmpty() && calendar.peekTime() == now) {
+        int e = calendar.poll();
+        if (e >= 0) {
+          ready.set(e);
+          released = true;
+          ready_from = Math.min(ready_from, e);
+          if (restricted) {
+            int t = orders.productType(sequence[e]);
+            ready_by_type[t].add(e, e);
+            ready_types.set(t);
+          }
+        } else {
+          idle.set(~e);
+          freed.set(~e);
+        }
+      }
+      SparseBitSet look = released ? null : freed;
+      for (int i = SparseBitSet.nextCommon(idle, look, 0);
+           i >= 0 && !ready.isEmpty();
+           i = SparseBitSet.nextCommon(idle, look, i + 1)) {
+        long decision_start = Metrics.now();
+        SparseBitSet types = eligibility.typesOf(eligibility.classOf(i));
+        int r;
+        if (types == null) {
+          r = ready.nextSetBit(ready_from);
+          ready_from = r;
+        } else {
+          r = -1;
+          for (int t = SparseBitSet.nextCommon(ready_types, types, 0); t >= 0;
+               t = SparseBitSet.nextCommon(ready_types, types, t + 1)) {
+            int head = ready_by_type[t].peek();
+            if (r < 0 || head < r) {
+              r = head;
+            }
+          }
+          if (r < 0) {
+            continue;
+          }
+        }
+        int o = sequence[r];
+        ready.clear(r);
+        if (restricted) {
+          int t = orders.productType(o);
+          ready_by_type[t].remove(r);
+          if (ready_by_type[t].isEmpty()) {
+            ready_types.clear(t);
+          }
+        }
+        idle.clear(i);
+
+        APSDemo.Machine m = machines.get(i);
+        m.finishing_time =
+            now + orders.quantity(o) / m.machine_product_per_hour +
+            APSDemo.getSwitchTime(switch_matrix, orders, m.getLastOrder(), o);
+        m.orders_in_queue.add(o);
+        calendar.add(m.finishing_time, ~i);
+        remaining--;
+        Metrics.decision(decision_start);
+      }
+      for (int i = freed.nextSetBit(0); i >= 0; i = freed.nextSetBit(i + 1)) {
+        freed.clear(i);
+      }
+    }
+    Metrics.end(span, sequence.length);
+    return machines;
+  }
+}
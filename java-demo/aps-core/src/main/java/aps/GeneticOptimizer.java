@@ -0,0 +1,686 @@
+// Memetic (genetic plus guided moves) optimizer
+// a schedule is an order permutation plus the machine of every order; a
+// machine runs its orders in permutation order. the first population is the
+// schedules of first_free_Machines and optimize_switch_time_optimize1 under
+// every OrderRanking, so the best individual starts as the best of those
+// heuristics and elitism never lets it get worse
+//
+// a child copies one parent, or takes a slice of its permutation and the
+// rest in the other parent's order (OX) with the machine of each order from
+// the parent whose part it came from. then a few guided moves: join an order
+// to a nearby order of its type (one switch less), rush an order the parent
+// finished late, defer one to the end, or move an order to another machine
+// that runs its type; some children also get a Moore-Hodgson repair
+//
+// breeding and decoding of a generation run in parallel on a fork-join pool.
+// decode is one pass over the permutation into arrays the individual owns,
+// and the scratch for breeding is per worker thread, so nothing is
+// allocated per individual. every child draws from its own random stream
+// seeded by generation and slot, so a run does not depend on the threads
+//
+// the last POLISH_SHARE percent of the time goes to LocalSearch on the best
+// schedule, which cuts switch time without adding late orders
+//
+// objective is PortfolioSolver.LATE_SWITCH_MAKESPAN, the time model is the
+// one of ScheduleEvaluator without release dates
+
+package aps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+
+class GeneticOptimizer {
+  public static final int DEFAULT_POPULATION = 24;
+  // best individuals copied unchanged into the next generation
+  public static final int ELITES = 2;
+  // most guided moves applied to a child
+  public static final int MOVES = 8;
+  // positions searched on each side of an order for a join partner
+  public static final int JOIN_WINDOW = 64;
+  // most positions a late order is moved forward
+  public static final int RUSH_WINDOW = 256;
+  // percent of the time limit left to LocalSearch on the best schedule,
+  // which takes back the switch time the repair and the moves spent
+  public static final int POLISH_SHARE = 20;
+  // one child in this many gets the Moore-Hodgson repair
+  public static final int REPAIR_EVERY = 4;
+  private static final Heuristic[] SEED_HEURISTICS = {
+      Heuristic.FIRST_FREE_MACHINE, Heuristic.OPTIMIZE_SWITCH_TIME_OPTIMIZE1};
+
+  public static class Stats {
+    public int generations;
+    public long children;
+    // best seed, i.e. the best single heuristic
+    public String seed_label;
+    public long seed_late;
+    public long seed_switch_time;
+    public long late;
+    public long switch_time;
+    public long makespan;
+    public long tardiness;
+  }
+
+  private final long time_limit_ms;
+  private final ForkJoinPool pool;
+  private final int population;
+  private final long seed;
+
+  // read only while breeding
+  private int n;
+  private int[] type;
+  private int[] quantity;
+  private int[] due;
+  private APSDemo.Machine[] machines;
+  private int[] rate;
+  private int[] start_time;
+  private int[] start_type;
+  private SwitchMatrix switch_matrix;
+  private ThreadLocal<Scratch> scratch;
+
+  public GeneticOptimizer(long time_limit_ms, ForkJoinPool pool,
+                          int population, long seed) {
+    if (population < ELITES + 1) {
+      throw new IllegalArgumentException("population must be more than " +
+                                         ELITES);
+    }
+    this.time_limit_ms = time_limit_ms;
+    this.pool = pool;
+    this.population = population;
+    this.seed = seed;
+  }
+
+  public GeneticOptimizer(long time_limit_ms) {
+    this(time_limit_ms, ForkJoinPool.commonPool(), DEFAULT_POPULATION,
+         APSDemo.RAND_SEED);
+  }
+
+  // machines is the initial machine state, the best schedule found is
+  // appended to their queues
+  public Stats optimize(final SwitchMatrix switch_matrix,
+                        final OrderTable orders,
+                        List<APSDemo.Machine> machines)
+      throws InterruptedException {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.DISPATCH, "genetic", true);
+    long start = System.nanoTime();
+    long deadline =
+        start + time_limit_ms * (100 - POLISH_SHARE) / 100 * 1000000;
+    load(switch_matrix, orders, machines);
+    Stats stats = new Stats();
+    Individual[] current = seed(orders, stats);
+    Individual[] next = new Individual[population];
+    for (int i = 0; i < population; i++) {
+      next[i] = new Individual(n, this.machines.length);
+    }
+
+    while (System.nanoTime() < deadline) {
+      Arrays.sort(current, Individual::compareTo);
+      for (int e = 0; e < ELITES; e++) {
+        next[e].copyFrom(current[e]);
+      }
+      pool.invoke(new BreedTask(current, next, stats.generations, ELITES,
+                                population));
+      Individual[] t = current;
+      current = next;
+      next = t;
+      stats.generations++;
+      stats.children += population - ELITES;
+    }
+    Arrays.sort(current, Individual::compareTo);
+
+    Individual best = current[0];
+    for (int k = 0; k < n; k++) {
+      int o = best.sequence[k];
+      this.machines[best.machine[o]].orders_in_queue.add(o);
+    }
+    for (int i = 0; i < this.machines.length; i++) {
+      this.machines[i].finishing_time = best.machine_time[i];
+    }
+    Metrics.end(span, stats.children * n);
+
+    long polish_ms = time_limit_ms - (System.nanoTime() - start) / 1000000;
+    if (polish_ms > 0) {
+      new LocalSearch(polish_ms, pool.getParallelism(), seed)
+          .improve(switch_matrix, orders, machines);
+    }
+    ScheduleKpi kpi =
+        ScheduleEvaluator.evaluate(switch_matrix, orders, machines, pool);
+    stats.late = kpi.late;
+    stats.switch_time = kpi.total_switch_time;
+    stats.makespan = kpi.makespan;
+    stats.tardiness = kpi.total_tardiness;
+    return stats;
+  }
+
+  private void load(final SwitchMatrix switch_matrix, final OrderTable orders,
+                    List<APSDemo.Machine> machines) {
+    this.switch_matrix = switch_matrix;
+    n = orders.size();
+    type = new int[n];
+    quantity = new int[n];
+    due = new int[n];
+    for (int o = 0; o < n; o++) {
+      type[o] = orders.productType(o);
+      quantity[o] = orders.quantity(o);
+      due[o] = orders.dueDate(o) * 24;
+    }
+    this.machines = machines.toArray(new APSDemo.Machine[0]);
+    int machine_num = this.machines.length;
+    rate = new int[machine_num];
+    start_time = new int[machine_num];
+    start_type = new int[machine_num];
+    for (int i = 0; i < machine_num; i++) {
+      APSDemo.Machine m = this.machines[i];
+      rate[i] = m.machine_product_per_hour;
+      start_time[i] = m.finishing_time;
+      int last = m.getLastOrder();
+      start_type[i] = last < 0 ? -1 : type[last];
+      // the seeds fork it from the pool's threads
+      m.freeze();
+    }
+    int type_num = switch_matrix.size();
+    scratch =
+        ThreadLocal.withInitial(() -> new Scratch(n, machine_num, type_num));
+  }
+
+  // one individual per seed heuristic and ranking, in parallel, the best
+  // ones fill the population and mutated copies of them the rest
+  private Individual[] seed(final OrderTable orders, Stats stats) {
+    OrderRanking[] rankings = OrderRanking.values();
+    int seed_num = rankings.length * SEED_HEURISTICS.length;
+    Individual[] seeds = new Individual[seed_num];
+    String[] labels = new String[seed_num];
+    pool.submit(() -> IntStream.range(0, seed_num).parallel().forEach(index -> {
+      OrderRanking ranking = rankings[index / SEED_HEURISTICS.length];
+      Heuristic heuristic = SEED_HEURISTICS[index % SEED_HEURISTICS.length];
+      List<APSDemo.Machine> copy = new ArrayList<>(machines.length);
+      for (APSDemo.Machine m : machines) {
+        copy.add(new APSDemo.Machine(m));
+      }
+      heuristic.schedule(orders, OrderSort.sort(orders, ranking),
+                         switch_matrix, copy);
+      seeds[index] = fromSchedule(copy);
+      labels[index] = ranking.label + " / " + heuristic.label;
+    })).join();
+    Integer[] rank = new Integer[seed_num];
+    for (int s = 0; s < seed_num; s++) {
+      rank[s] = s;
+    }
+    Arrays.sort(rank, (a, b) -> seeds[a].compareTo(seeds[b]));
+    stats.seed_label = labels[rank[0]];
+    stats.seed_late = seeds[rank[0]].late;
+    stats.seed_switch_time = seeds[rank[0]].switch_time;
+
+    Individual[] current = new Individual[population];
+    for (int i = 0; i < population; i++) {
+      Individual parent = seeds[rank[i % seed_num]];
+      if (i < seed_num) {
+        current[i] = parent;
+      } else {
+        current[i] = new Individual(n, machines.length);
+        current[i].copyFrom(parent);
+        Scratch s = scratch.get();
+        s.reseed(seed, -1, i);
+        s.positions(current[i]);
+        mutate(current[i], parent, s);
+        decode(current[i]);
+      }
+    }
+    return current;
+  }
+
+  // the permutation of a finished schedule is its orders by finishing time,
+  // queue order breaking ties, so decoding it gives the same schedule back
+  private Individual fromSchedule(List<APSDemo.Machine> scheduled) {
+    Individual ind = new Individual(n, machines.length);
+    long[] keys = new long[n];
+    int[] by_key = new int[n];
+    int k = 0;
+    for (int i = 0; i < scheduled.size(); i++) {
+      APSDemo.Machine m = scheduled.get(i);
+      int time = start_time[i];
+      int last = start_type[i];
+      OrderQueue queue = m.orders_in_queue;
+      // orders queued before the optimizer ran stay where they are
+      for (int q = machines[i].orders_in_queue.size(); q < queue.size();
+           q++) {
+        int o = queue.get(q);
+        time += (last < 0 ? 0 : switch_matrix.get(last, type[o])) +
+                quantity[o] / rate[i];
+        last = type[o];
+        ind.machine[o] = i;
+        keys[k] = (long)time << 32 | k;
+        by_key[k++] = o;
+      }
+    }
+    if (k != n) {
+      throw new IllegalStateException("seed schedule has " + k + " of " + n +
+                                      " orders");
+    }
+    Arrays.sort(keys);
+    for (int j = 0; j < n; j++) {
+      ind.sequence[j] = by_key[(int)keys[j]];
+    }
+    decode(ind);
+    return ind;
+  }
+
+  private final class BreedTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Individual[] current;
+    private final Individual[] next;
+    private final int generation;
+    private final int lo;
+    private final int hi;
+
+    BreedTask(Individual[] current, Individual[] next, int generation, int lo,
+              int hi) {
+      this.current = current;
+      this.next = next;
+      this.generation = generation;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo > 1) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new BreedTask(current, next, generation, lo, mid),
+                  new BreedTask(current, next, generation, mid, hi));
+        return;
+      }
+      Scratch s = scratch.get();
+      s.reseed(seed, generation, lo);
+      Individual a = current[tournament(current, s)];
+      Individual b = current[tournament(current, s)];
+      Individual child = next[lo];
+      // half the children only mutate, crossover of unlike parents mostly
+      // breaks the runs of one type both had
+      if (s.nextInt(2) == 0) {
+        child.copyFrom(a);
+      } else {
+        crossover(a, b, child, s);
+      }
+      s.positions(child);
+      mutate(child, a, s);
+      if (s.nextInt(REPAIR_EVERY) == 0) {
+        repair(child, s);
+      }
+      decode(child);
+    }
+  }
+
+  // better of two random individuals
+  private static int tournament(Individual[] population, Scratch s) {
+    int a = s.nextInt(population.length);
+    int b = s.nextInt(population.length);
+    return population[a].compareTo(population[b]) <= 0 ? a : b;
+  }
+
+  // OX: child keeps a's slice [i, j) in place and gets the other orders in
+  // b's order around it
+  private void crossover(Individual a, Individual b, Individual child,
+                         Scratch s) {
+    int i = s.nextInt(n);
+    int j = i + s.nextInt(n - i) + 1;
+    int stamp = s.nextStamp();
+    for (int k = i; k < j; k++) {
+      int o = a.sequence[k];
+      child.sequence[k] = o;
+      child.machine[o] = a.machine[o];
+      s.mark[o] = stamp;
+    }
+    int k = 0;
+    for (int q = 0; q < n; q++) {
+      int o = b.sequence[q];
+      if (s.mark[o] != stamp) {
+        if (k == i) {
+          k = j;
+        }
+        child.sequence[k++] = o;
+        child.machine[o] = b.machine[o];
+      }
+    }
+  }
+
+  // guided moves on child, parent tells which orders were late
+  private void mutate(Individual child, Individual parent, Scratch s) {
+    int moves = 1 + s.nextInt(MOVES);
+    for (int m = 0; m < moves; m++) {
+      int pick = s.nextInt(10);
+      if (pick < 4) {
+        int o = s.nextInt(n);
+        join(child, o, JOIN_WINDOW, JOIN_WINDOW, s);
+      } else if (pick < 7) {
+        rush(child, parent, s);
+      } else if (pick < 9) {
+        defer(child, parent, s);
+      } else {
+        reassign(child, s);
+      }
+    }
+  }
+
+  // puts o right behind the nearest order of its type at most before
+  // positions ahead or after positions behind it, on another machine or on
+  // its own with other orders in between; false when there is none
+  private boolean join(Individual child, int o, int before, int after,
+                       Scratch s) {
+    int k = s.position[o];
+    int t = type[o];
+    for (int d = 1; d <= Math.max(before, after); d++) {
+      for (int q = k - d; q <= k + d; q += 2 * d) {
+        if (q < 0 || q >= n || (q < k ? d > before : d > after)) {
+          continue;
+        }
+        int p = child.sequence[q];
+        if (type[p] == t &&
+            (child.machine[p] != child.machine[o] || d > 1)) {
+          child.machine[o] = child.machine[p];
+          s.move(child, k, q + 1);
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // moves an order the parent finished late forward, behind an order of
+  // its type when there is one so the move costs no switch
+  private void rush(Individual child, Individual parent, Scratch s) {
+    for (int tries = 0; tries < 4; tries++) {
+      int o = s.nextInt(n);
+      if (parent.isLate(o)) {
+        if (!join(child, o, RUSH_WINDOW, 0, s)) {
+          int k = s.position[o];
+          s.move(child, k, Math.max(0, k - 1 - s.nextInt(RUSH_WINDOW)));
+        }
+        return;
+      }
+    }
+  }
+
+  // gives up on a late order of the parent, the largest of a few tries, by
+  // moving it to the end behind the last order of its type; everything it
+  // held up finishes earlier (Moore-Hodgson drops the longest late job the
+  // same way)
+  private void defer(Individual child, Individual parent, Scratch s) {
+    int o = -1;
+    for (int tries = 0; tries < 4; tries++) {
+      int q = s.nextInt(n);
+      if (parent.isLate(q) && (o < 0 || quantity[q] > quantity[o])) {
+        o = q;
+      }
+    }
+    if (o < 0) {
+      return;
+    }
+    int k = s.position[o];
+    for (int q = n - 1; q > k && q >= n - JOIN_WINDOW; q--) {
+      int p = child.sequence[q];
+      if (type[p] == type[o]) {
+        child.machine[o] = child.machine[p];
+        break;
+      }
+    }
+    s.move(child, k, n);
+  }
+
+  private void reassign(Individual child, Scratch s) {
+    int o = s.nextInt(n);
+    int m = s.nextInt(machines.length);
+    if (machines[m].canRun(type[o])) {
+      child.machine[o] = m;
+    }
+  }
+
+  // Moore-Hodgson on every machine in permutation order: whenever an order
+  // finishes late the longest order kept so far is deferred, and the
+  // deferred orders go to the end of the permutation grouped by type. exact
+  // for the number of late orders on one machine in due date order without
+  // switch times, a cheap repair for everything else
+  private void repair(Individual child, Scratch s) {
+    int[] end = s.machine_end;
+    Arrays.fill(end, 0);
+    for (int o : child.sequence) {
+      end[child.machine[o] + 1]++;
+    }
+    for (int m = 1; m < end.length; m++) {
+      end[m] += end[m - 1];
+    }
+    // end[m] is now the start of machine m, and its end once filled
+    for (int o : child.sequence) {
+      s.bucket[end[child.machine[o]]++] = o;
+    }
+    int stamp = s.nextStamp();
+    for (int m = 0, lo = 0; m < machines.length; lo = end[m++]) {
+      int time = start_time[m];
+      int last = start_type[m];
+      int heap_size = 0;
+      for (int q = lo; q < end[m]; q++) {
+        int o = s.bucket[q];
+        time += (last < 0 ? 0 : switch_matrix.get(last, type[o])) +
+                quantity[o] / rate[m];
+        last = type[o];
+        heap_size = s.push(o, heap_size, quantity);
+        if (time > due[o]) {
+          int longest = s.heap[0];
+          heap_size = s.pop(heap_size, quantity);
+          time -= quantity[longest] / rate[m];
+          s.mark[longest] = stamp;
+        }
+      }
+    }
+    // kept orders stay in order at the front, deferred ones by type after
+    int kept = 0;
+    int deferred = 0;
+    int[] type_end = s.type_end;
+    Arrays.fill(type_end, 0);
+    for (int q = 0; q < n; q++) {
+      int o = child.sequence[q];
+      if (s.mark[o] == stamp) {
+        s.bucket[deferred++] = o;
+        type_end[type[o] + 1]++;
+      } else {
+        child.sequence[kept++] = o;
+      }
+    }
+    type_end[0] = kept;
+    for (int t = 1; t < type_end.length; t++) {
+      type_end[t] += type_end[t - 1];
+    }
+    for (int q = 0; q < deferred; q++) {
+      int o = s.bucket[q];
+      child.sequence[type_end[type[o]]++] = o;
+    }
+  }
+
+  // runs every machine's orders in permutation order, touches only the
+  // individual's own arrays
+  private void decode(Individual ind) {
+    int[] time = ind.machine_time;
+    int[] last = ind.machine_type;
+    System.arraycopy(start_time, 0, time, 0, time.length);
+    System.arraycopy(start_type, 0, last, 0, last.length);
+    Arrays.fill(ind.late_orders, 0);
+    long late = 0;
+    long switch_time = 0;
+    long tardiness = 0;
+    for (int k = 0; k < n; k++) {
+      int o = ind.sequence[k];
+      int m = ind.machine[o];
+      int t = type[o];
+      int s = last[m] < 0 ? 0 : switch_matrix.get(last[m], t);
+      int finish = time[m] + s + quantity[o] / rate[m];
+      time[m] = finish;
+      last[m] = t;
+      switch_time += s;
+      if (finish > due[o]) {
+        late++;
+        tardiness += finish - due[o];
+        ind.late_orders[o >>> 6] |= 1L << o;
+      }
+    }
+    long makespan = 0;
+    for (int f : time) {
+      makespan = Math.max(makespan, f);
+    }
+    ind.late = late;
+    ind.switch_time = switch_time;
+    ind.tardiness = tardiness;
+    ind.makespan = makespan;
+  }
+
+  private static final class Individual {
+    final int[] sequence;
+    // machine position of each order
+    final int[] machine;
+    final long[] late_orders;
+    final int[] machine_time;
+    final int[] machine_type;
+    long late;
+    long switch_time;
+    long tardiness;
+    long makespan;
+
+    Individual(int n, int machine_num) {
+      sequence = new int[n];
+      machine = new int[n];
+      late_orders = new long[(n + 63) >>> 6];
+      machine_time = new int[machine_num];
+      machine_type = new int[machine_num];
+    }
+
+    boolean isLate(int o) { return (late_orders[o >>> 6] & (1L << o)) != 0; }
+
+    void copyFrom(Individual other) {
+      System.arraycopy(other.sequence, 0, sequence, 0, sequence.length);
+      System.arraycopy(other.machine, 0, machine, 0, machine.length);
+      System.arraycopy(other.late_orders, 0, late_orders, 0,
+                       late_orders.length);
+      System.arraycopy(other.machine_time, 0, machine_time, 0,
+                       machine_time.length);
+      System.arraycopy(other.machine_type, 0, machine_type, 0,
+                       machine_type.length);
+      late = other.late;
+      switch_time = other.switch_time;
+      tardiness = other.tardiness;
+      makespan = other.makespan;
+    }
+
+    int compareTo(Individual other) {
+      int c = Long.compare(late, other.late);
+      if (c == 0) {
+        c = Long.compare(switch_time, other.switch_time);
+      }
+      return c != 0 ? c : Long.compare(makespan, other.makespan);
+    }
+  }
+
+  // breeding state of one worker thread
+  private static final class Scratch {
+    // order -> stamp of the crossover that took it from the first parent
+    final int[] mark;
+    // order -> index in the child's permutation
+    final int[] position;
+    // orders grouped by machine, then the deferred orders, see repair
+    final int[] bucket;
+    final int[] heap;
+    final int[] machine_end;
+    final int[] type_end;
+    int stamp;
+    long random;
+
+    Scratch(int n, int machine_num, int type_num) {
+      mark = new int[n];
+      position = new int[n];
+      bucket = new int[n];
+      heap = new int[n];
+      machine_end = new int[machine_num + 1];
+      type_end = new int[type_num + 1];
+    }
+
+    void reseed(long seed, int generation, int slot) {
+      random = mix(seed * 0x9e3779b97f4a7c15L + generation) + slot;
+    }
+
+    // splitmix64
+    int nextInt(int bound) {
+      random += 0x9e3779b97f4a7c15L;
+      return (int)((mix(random) >>> 1) % bound);
+    }
+
+    int nextStamp() {
+      if (++stamp == 0) {
+        Arrays.fill(mark, 0);
+        stamp = 1;
+      }
+      return stamp;
+    }
+
+    void positions(Individual ind) {
+      for (int k = 0; k < ind.sequence.length; k++) {
+        position[ind.sequence[k]] = k;
+      }
+    }
+
+    // max-heap of orders by quantity, returns the new size
+    int push(int o, int size, int[] quantity) {
+      int k = size;
+      while (k > 0 && quantity[heap[(k - 1) >>> 1]] < quantity[o]) {
+        heap[k] = heap[(k - 1) >>> 1];
+        k = (k - 1) >>> 1;
+      }
+      heap[k] = o;
+      return size + 1;
+    }
+
+    // removes heap[0], returns the new size
+    int pop(int size, int[] quantity) {
+      int o = heap[--size];
+      int k = 0;
+      while (2 * k + 1 < size) {
+        int c = 2 * k + 1;
+        if (c + 1 < size && quantity[heap[c + 1]] > quantity[heap[c]]) {
+          c++;
+        }
+        if (quantity[heap[c]] <= quantity[o]) {
+          break;
+        }
+        heap[k] = heap[c];
+        k = c;
+      }
+      heap[k] = o;
+      return size;
+    }
+
+    // moves the order at from in front of the order at to (to may be the
+    // end), shifting the ones in between
+    void move(Individual ind, int from, int to) {
+      int[] seq = ind.sequence;
+      int o = seq[from];
+      if (to < from) {
+        System.arraycopy(seq, to, seq, to + 1, from - to);
+      } else if (to > from) {
+        to--;
+        System.arraycopy(seq, from + 1, seq, from, to - from);
+      }
+      seq[to] = o;
+      for (int k = Math.min(from, to), end = Math.max(from, to); k <= end;
+           k++) {
+        position[seq[k]] = k;
+      }
+    }
+
+    private static long mix(long z) {
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return z ^ (z >>> 31);
+    }
+  }
+}
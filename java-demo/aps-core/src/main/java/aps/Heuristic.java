@@ -0,0 +1,61 @@
+// Dispatch heuristics that can be run by name, e.g. by the portfolio solver
+
+package aps;
+
+import java.util.List;
+
+enum Heuristic {
+  FIRST_FREE_MACHINE("First free machine", APSDemo::first_free_Machines,
+                     true),
+  FIRST_FREE_MACHINE_OPTIMIZE1("First free machine optimized -o1",
+                               APSDemo::first_free_Machines_optimize1),
+  OPTIMIZE_SWITCH_TIME("Optimize switch time", APSDemo::optimize_switch_time,
+                       true),
+  OPTIMIZE_SWITCH_TIME_OPTIMIZE1("Optimize switch time optimized -o1",
+                                 APSDemo::optimize_switch_time_optimize1,
+                                 true),
+  OPTIMIZE_SWITCH_TIME_OPTIMIZE2("Optimize switch time optimized -o2",
+                                 APSDemo::optimize_switch_time_optimize2,
+                                 true),
+  LOOKAHEAD_WINDOW(
+      "Lookahead window k=" + LookaheadDispatcher.DEFAULT_WINDOW,
+      new LookaheadDispatcher(LookaheadDispatcher.DEFAULT_WINDOW)::schedule),
+  CAMPAIGN_FIRST_FREE_MACHINE("Campaign first free machine",
+                              CampaignBatcher::first_free_Campaigns),
+  CAMPAIGN_OPTIMIZE_SWITCH_TIME(
+      "Campaign optimize switch time",
+      CampaignBatcher::optimize_switch_time_Campaigns);
+
+  // signature shared by the scheduling functions in APSDemo
+  interface Dispatcher {
+    void schedule(OrderTable orders, int[] sequence,
+                  SwitchMatrix switch_matrix, List<APSDemo.Machine> machines);
+  }
+
+  public final String label;
+  // each order goes behind the last one of the machine the heuristic picks
+  // for it when its turn in the sequence comes, and the pick is the first
+  // of the machines by a fixed order. every queue is then in sequence order,
+  // cutting the schedule after a prefix of the sequence gives the machines
+  // as they were at that point, and the heuristic continues from there on
+  // the rest of it, see WhatIfService
+  public final boolean resumable;
+  private final Dispatcher dispatcher;
+
+  Heuristic(String label, Dispatcher dispatcher) {
+    this(label, dispatcher, false);
+  }
+
+  Heuristic(String label, Dispatcher dispatcher, boolean resumable) {
+    this.label = label;
+    this.dispatcher = dispatcher;
+    this.resumable = resumable;
+  }
+
+  // appends the orders in sequence to machines
+  public void schedule(final OrderTable orders, final int[] sequence,
+                       final SwitchMatrix switch_matrix,
+                       List<APSDemo.Machine> machines) {
+    dispatcher.schedule(orders, sequence, switch_matrix, machines);
+  }
+}
@@ -0,0 +1,234 @@
+// Parallel deterministic problem instances
+// orders are generated in chunks of CHUNK rows, each chunk from its own
+// SplittableRandom seeded by a hash of (seed, chunk index), and written
+// straight into the OrderTable columns, so the chunks fill in parallel and
+// the table is the same for any thread count. the switch matrix is seeded
+// per row the same way
+//
+// next to the uniform fields of APSDemo.generateRandomOrder, the product mix
+// is Zipf distributed (type t is ordered about 1/(t+1)^skew as often as
+// type 0) and due dates cluster a few days before a shipping date every
+// cluster_days. presets size a whole instance from a quick run to a stress
+// test:
+//     java -cp aps-core.jar aps.InstanceGenerator ENTERPRISE 42 orders.bin \
+//         switch_matrix.csv
+
+package aps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+class InstanceGenerator {
+  public static final int CHUNK = 1 << 16;
+  public static final double DEFAULT_SKEW = 1.0;
+  public static final int DEFAULT_CLUSTER_DAYS = 7;
+  // standard deviation of how early before its shipping date an order is due
+  public static final double DUE_SPREAD_DAYS = 2.0;
+
+  enum Preset {
+    SMALL(10000, 20, 10, 0),
+    PLANT(100000, 40, 20, 4),
+    ENTERPRISE(2000000, 200, 200, 8),
+    STRESS(20000000, 400, 1000, 16);
+
+    public final int order_num;
+    public final int product_type_num;
+    public final int machine_num;
+    // see APSDemo.generateRandomMachine, 0 for identical machines
+    public final int family_num;
+
+    Preset(int order_num, int product_type_num, int machine_num,
+           int family_num) {
+      this.order_num = order_num;
+      this.product_type_num = product_type_num;
+      this.machine_num = machine_num;
+      this.family_num = family_num;
+    }
+
+    public int maxDdlDate() {
+      return APSDemo.maxDdlDate(order_num, machine_num);
+    }
+  }
+
+  public static class Instance {
+    public final OrderTable orders;
+    public final SwitchMatrix switch_matrix;
+    public final List<APSDemo.Machine> machines;
+
+    Instance(OrderTable orders, SwitchMatrix switch_matrix,
+             List<APSDemo.Machine> machines) {
+      this.orders = orders;
+      this.switch_matrix = switch_matrix;
+      this.machines = machines;
+    }
+  }
+
+  private final long seed;
+  private final double skew;
+  private final int cluster_days;
+  private final int threads;
+
+  // skew 0 for a uniform product mix, cluster_days 0 for uniform due dates
+  public InstanceGenerator(long seed, double skew, int cluster_days,
+                           int threads) {
+    if (skew < 0 || cluster_days < 0 || threads < 1) {
+      throw new IllegalArgumentException(
+          "bad generator skew " + skew + " cluster_days " + cluster_days +
+          " threads " + threads);
+    }
+    this.seed = seed;
+    this.skew = skew;
+    this.cluster_days = cluster_days;
+    this.threads = threads;
+  }
+
+  public InstanceGenerator(long seed) {
+    this(seed, DEFAULT_SKEW, DEFAULT_CLUSTER_DAYS,
+         Runtime.getRuntime().availableProcessors());
+  }
+
+  public Instance generate(Preset preset) {
+    return new Instance(
+        orders(preset.order_num, preset.maxDdlDate(),
+               preset.product_type_num),
+        switchMatrix(preset.product_type_num),
+        APSDemo.generateRandomMachine(preset.machine_num,
+                                      preset.product_type_num,
+                                      preset.family_num));
+  }
+
+  public OrderTable orders(int size, int max_ddl_date, int product_type_num) {
+    if (size < 0 || max_ddl_date < 1 || product_type_num < 1) {
+      throw new IllegalArgumentException(
+          "bad order table " + size + " orders " + max_ddl_date + " days " +
+          product_type_num + " types");
+    }
+    Metrics.Span span = Metrics.begin(Metrics.Phase.GENERATE, "orders",
+                                      threads > 1);
+    // cumulative Zipf weights of the product types
+    double[] mix = new double[product_type_num];
+    double total = 0;
+    for (int t = 0; t < product_type_num; t++) {
+      total += Math.pow(t + 1, -skew);
+      mix[t] = total;
+    }
+    for (int t = 0; t < product_type_num; t++) {
+      mix[t] /= total;
+    }
+    OrderTable orders = new OrderTable(size);
+    orders.resize(size);
+    int chunks = (size + CHUNK - 1) / CHUNK;
+    run(chunks, c -> {
+      SplittableRandom rand = new SplittableRandom(streamSeed(c));
+      int hi = Math.min(size, (c + 1) * CHUNK);
+      for (int i = c * CHUNK; i < hi; i++) {
+        int earlest_start_date = rand.nextInt(APSDemo.MAX_ESD_DATE);
+        int due_date = dueDay(rand, max_ddl_date) + earlest_start_date +
+                       APSDemo.MIN_DUE_START_INTERVAL;
+        int quantity = ((rand.nextInt(APSDemo.MAX_PRODUCT_QUANTITY) +
+                         APSDemo.MIN_PRODUCT_QUANTITY) /
+                        APSDemo.MACHINE_PRODUCT_PER_HOUR) *
+                       APSDemo.MACHINE_PRODUCT_PER_HOUR;
+        orders.set(i, i, quantity, due_date,
+                   rand.nextInt(APSDemo.PRIORITY_NUM), earlest_start_date,
+                   productType(rand, mix));
+      }
+    });
+    Metrics.end(span, size);
+    return orders;
+  }
+
+  // switching to the same type is free, other entries as in
+  // APSDemo.generateRandomSwitchMatrix
+  public SwitchMatrix switchMatrix(int size) {
+    SwitchMatrix switch_matrix = new SwitchMatrix(size);
+    run(size, i -> {
+      SplittableRandom rand = new SplittableRandom(streamSeed(~i));
+      for (int j = 0; j < size; j++) {
+        switch_matrix.set(i, j,
+                          i == j ? 0
+                                 : rand.nextInt(APSDemo.MAX_SWITCH_TIME) +
+                                       APSDemo.MIN_SWITCH_TIME);
+      }
+    });
+    return switch_matrix;
+  }
+
+  private void run(int tasks, IntConsumer task) {
+    if (threads == 1 || tasks <= 1) {
+      for (int c = 0; c < tasks; c++) {
+        task.accept(c);
+      }
+      return;
+    }
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      pool.submit(() -> IntStream.range(0, tasks).parallel().forEach(task))
+          .join();
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // days after the earliest start date, before MIN_DUE_START_INTERVAL
+  private int dueDay(SplittableRandom rand, int max_ddl_date) {
+    if (cluster_days == 0) {
+      return rand.nextInt(max_ddl_date);
+    }
+    int shipping = rand.nextInt(max_ddl_date / cluster_days + 1) *
+                   cluster_days;
+    int early = (int)Math.abs(rand.nextGaussian() * DUE_SPREAD_DAYS);
+    return Math.max(0, Math.min(max_ddl_date - 1, shipping - early));
+  }
+
+  private static int productType(SplittableRandom rand, double[] mix) {
+    double u = rand.nextDouble();
+    int lo = 0, hi = mix.length - 1;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (mix[mid] <= u) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // streams are seeded by a splitmix64 hash, so neighbouring chunks do not
+  // get neighbouring seeds
+  private long streamSeed(long stream) {
+    long z = seed + stream * 0x9e3779b97f4a7c15L;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // PRESET [seed [orders.bin [switch_matrix.csv]]]
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("usage: InstanceGenerator SMALL|PLANT|ENTERPRISE|" +
+                         "STRESS [seed [orders.bin [switch_matrix.csv]]]");
+      System.exit(2);
+    }
+    Preset preset = Preset.valueOf(args[0]);
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : APSDemo.RAND_SEED;
+    long start = System.nanoTime();
+    Instance instance = new InstanceGenerator(seed).generate(preset);
+    long end = System.nanoTime();
+    System.out.println(preset + ": " + instance.orders.size() + " orders " +
+                       preset.product_type_num + " types " +
+                       preset.machine_num + " machines in " +
+                       (double)(end - start) / 1000000 + "ms");
+    OrderFile.writeBinary(
+        instance.orders, Path.of(args.length > 2 ? args[2] : "orders.bin"));
+    APSDemo.outputSWMatrix2CSV(instance.switch_matrix,
+                               args.length > 3 ? args[3]
+                                               : "switch_matrix.csv");
+  }
+}
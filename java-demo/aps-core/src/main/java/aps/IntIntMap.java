@@ -0,0 +1,91 @@
+// Open addressing int -> int hash map, no boxing
+// keys may be any int, MISSING is returned for absent keys
+
+package aps;
+
+class IntIntMap {
+  public static final int MISSING = -1;
+
+  private int[] keys;
+  private int[] values;
+  private boolean[] used;
+  private int size;
+
+  public IntIntMap(int capacity) {
+    int n = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) * 2;
+    keys = new int[n];
+    values = new int[n];
+    used = new boolean[n];
+  }
+
+  public int size() { return size; }
+
+  public int get(int key) {
+    int mask = keys.length - 1;
+    for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return values[i];
+      }
+    }
+    return MISSING;
+  }
+
+  public void put(int key, int value) {
+    if (2 * (size + 1) > keys.length) {
+      grow();
+    }
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (used[i] && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    if (!used[i]) {
+      used[i] = true;
+      keys[i] = key;
+      size++;
+    }
+    values[i] = value;
+  }
+
+  // returns the removed value or MISSING
+  public int remove(int key) {
+    int mask = keys.length - 1;
+    int i = hash(key) & mask;
+    while (used[i] && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    if (!used[i]) {
+      return MISSING;
+    }
+    int value = values[i];
+    used[i] = false;
+    size--;
+    // re-insert the rest of the probe run so lookups do not stop early
+    for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+      used[j] = false;
+      size--;
+      put(keys[j], values[j]);
+    }
+    return value;
+  }
+
+  private void grow() {
+    int[] old_keys = keys;
+    int[] old_values = values;
+    boolean[] old_used = used;
+    keys = new int[old_keys.length * 2];
+    values = new int[old_keys.length * 2];
+    used = new boolean[old_keys.length * 2];
+    size = 0;
+    for (int i = 0; i < old_keys.length; i++) {
+      if (old_used[i]) {
+        put(old_keys[i], old_values[i]);
+      }
+    }
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,511 @@
+// Local search over a finished schedule
+// takes the machine queues left by any heuristic and improves them with
+// intra-machine swap / 2-opt / or-opt and inter-machine relocate / exchange
+// moves until the time limit runs out or the rounds stop finding anything
+//
+// objective is the same as PortfolioSolver: fewer late orders, then less
+// switch time. a move is scored from its neighbouring orders and the switch
+// matrix only: forward and reverse switch prefix sums make 2-opt O(1), and
+// the suffix minimum of the on-time slack tells whether shifting the rest of
+// a queue makes any on-time order late, so no move ever adds a late order
+//
+// each round runs the intra moves of every machine in parallel, then pairs
+// the machines at random and runs the inter moves of every pair in parallel,
+// no two tasks touch the same machine
+
+package aps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class LocalSearch {
+  // positions tried on each side of an order, bounds every move to a window
+  public static final int WINDOW = 16;
+  // longest segment moved by or-opt
+  public static final int MAX_SEGMENT = 3;
+  // rounds in a row without an improving move before giving up
+  public static final int IDLE_ROUNDS = 4;
+  // slack of a late order, late orders never block a move
+  private static final int NO_SLACK = Integer.MAX_VALUE;
+
+  public static class Stats {
+    public long swap;
+    public long two_opt;
+    public long or_opt;
+    public long relocate;
+    public long exchange;
+    public int rounds;
+
+    public long moves() {
+      return swap + two_opt + or_opt + relocate + exchange;
+    }
+
+    void merge(Stats s) {
+      swap += s.swap;
+      two_opt += s.two_opt;
+      or_opt += s.or_opt;
+      relocate += s.relocate;
+      exchange += s.exchange;
+    }
+  }
+
+  private final long time_limit_ms;
+  private final int threads;
+  private final long seed;
+
+  public LocalSearch(long time_limit_ms, int threads, long seed) {
+    this.time_limit_ms = time_limit_ms;
+    this.threads = threads;
+    this.seed = seed;
+  }
+
+  public LocalSearch(long time_limit_ms) {
+    this(time_limit_ms, Runtime.getRuntime().availableProcessors(),
+         APSDemo.RAND_SEED);
+  }
+
+  // rewrites the queues and finishing times of machines in place
+  public Stats improve(final SwitchMatrix switch_matrix,
+                       final OrderTable orders, List<APSDemo.Machine> machines)
+      throws InterruptedException {
+    Metrics.Span span =
+        Metrics.begin(Metrics.Phase.DISPATCH, "local_search", true);
+    long deadline = System.nanoTime() + time_limit_ms * 1000000;
+    Route[] routes = new Route[machines.size()];
+    for (int i = 0; i < routes.length; i++) {
+      routes[i] = new Route(switch_matrix, orders, machines.get(i));
+    }
+
+    Stats stats = new Stats();
+    Random random = new Random(seed);
+    int[] pairing = new int[routes.length];
+    for (int i = 0; i < pairing.length; i++) {
+      pairing[i] = i;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      int idle = 0;
+      while (idle < IDLE_ROUNDS && System.nanoTime() < deadline) {
+        List<Callable<Stats>> tasks = new ArrayList<>();
+        for (Route r : routes) {
+          tasks.add(() -> intra(r, deadline));
+        }
+        long moves = stats.moves();
+        run(pool, tasks, stats);
+
+        tasks.clear();
+        // random pairs, an odd machine out sits this round out
+        for (int i = pairing.length - 1; i > 0; i--) {
+          int j = random.nextInt(i + 1);
+          int t = pairing[i];
+          pairing[i] = pairing[j];
+          pairing[j] = t;
+        }
+        for (int i = 0; i + 1 < pairing.length; i += 2) {
+          Route a = routes[pairing[i]];
+          Route b = routes[pairing[i + 1]];
+          tasks.add(() -> inter(a, b, deadline));
+        }
+        run(pool, tasks, stats);
+        stats.rounds++;
+        idle = stats.moves() == moves ? idle + 1 : 0;
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    long order_num = 0;
+    for (Route r : routes) {
+      r.store();
+      order_num += r.n;
+    }
+    Metrics.end(span, order_num);
+    return stats;
+  }
+
+  private static void run(ExecutorService pool, List<Callable<Stats>> tasks,
+                          Stats stats) throws InterruptedException {
+    for (Future<Stats> f : pool.invokeAll(tasks)) {
+      try {
+        stats.merge(f.get());
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+  }
+
+  // queue of one machine as flat arrays, rebuilt from a position after
+  // every applied move
+  private static class Route {
+    final SwitchMatrix switch_matrix;
+    final OrderTable orders;
+    final APSDemo.Machine machine;
+    final int rate;
+    final int start_total;
+    int n;
+    int[] seq;
+    // finishing time of each position
+    int[] fin;
+    // fwd[k]: switch time of seq[0..k] in order, rev[k]: the same links
+    // walked backwards, used to price a reversed segment
+    int[] fwd;
+    int[] rev;
+    // sufmin[k]: least slack of an on-time order at k or later
+    int[] sufmin;
+    // scratch for the intra moves, old position of each new position
+    final int[] src = new int[2 * WINDOW + MAX_SEGMENT + 2];
+    final int[] tmp = new int[2 * WINDOW + MAX_SEGMENT + 2];
+
+    Route(SwitchMatrix switch_matrix, OrderTable orders,
+          APSDemo.Machine machine) {
+      this.switch_matrix = switch_matrix;
+      this.orders = orders;
+      this.machine = machine;
+      rate = machine.machine_product_per_hour;
+      OrderQueue queue = machine.orders_in_queue;
+      n = queue.size();
+      int capacity = Math.max(16, n + n / 4);
+      seq = new int[capacity];
+      fin = new int[capacity];
+      fwd = new int[capacity];
+      rev = new int[capacity];
+      sufmin = new int[capacity + 1];
+      for (int k = 0; k < n; k++) {
+        seq[k] = queue.get(k);
+      }
+      recompute(0);
+      start_total = total();
+    }
+
+    int total() { return n == 0 ? 0 : fin[n - 1]; }
+
+    // order at k, -1 past either end
+    int at(int k) { return k < 0 || k >= n ? -1 : seq[k]; }
+
+    // finishing time of the order before k
+    int before(int k) { return k == 0 ? 0 : fin[k - 1]; }
+
+    int sw(int a, int b) {
+      return a < 0 || b < 0 ? 0
+                            : switch_matrix.get(orders.productType(a),
+                                                orders.productType(b));
+    }
+
+    int work(int o) { return orders.quantity(o) / rate; }
+
+    int due(int o) { return orders.dueDate(o) * 24; }
+
+    // the machine can run the order's type
+    boolean runs(int o) { return machine.canRun(orders.productType(o)); }
+
+    boolean late(int k) { return fin[k] > due(seq[k]); }
+
+    // slack needed by a shift of the queue from k on
+    boolean fits(int k, int shift) { return shift <= 0 || sufmin[k] >= shift; }
+
+    void recompute(int from) {
+      for (int k = from; k < n; k++) {
+        int o = seq[k];
+        int s = sw(at(k - 1), o);
+        fin[k] = before(k) + s + work(o);
+        fwd[k] = (k == 0 ? 0 : fwd[k - 1]) + s;
+        rev[k] = (k == 0 ? 0 : rev[k - 1]) + sw(o, at(k - 1));
+      }
+      sufmin[n] = NO_SLACK;
+      for (int k = n - 1; k >= 0; k--) {
+        int slack = late(k) ? NO_SLACK : due(seq[k]) - fin[k];
+        sufmin[k] = Math.min(slack, sufmin[k + 1]);
+      }
+    }
+
+    void insert(int k, int o) {
+      if (n == seq.length) {
+        int capacity = seq.length * 2;
+        seq = Arrays.copyOf(seq, capacity);
+        fin = Arrays.copyOf(fin, capacity);
+        fwd = Arrays.copyOf(fwd, capacity);
+        rev = Arrays.copyOf(rev, capacity);
+        sufmin = Arrays.copyOf(sufmin, capacity + 1);
+      }
+      System.arraycopy(seq, k, seq, k + 1, n - k);
+      seq[k] = o;
+      n++;
+      recompute(k);
+    }
+
+    int remove(int k) {
+      int o = seq[k];
+      System.arraycopy(seq, k + 1, seq, k, n - k - 1);
+      n--;
+      recompute(k);
+      return o;
+    }
+
+    // len positions from lo take the orders at src, if no on-time order of
+    // the window turns late, the rest only moves by the (negative) switch
+    // delta the caller already priced
+    boolean tryPermute(int lo, int len) {
+      int t = before(lo);
+      int prev = at(lo - 1);
+      for (int k = 0; k < len; k++) {
+        int o = seq[src[k]];
+        t += sw(prev, o) + work(o);
+        if (t > due(o) && !late(src[k])) {
+          return false;
+        }
+        prev = o;
+      }
+      for (int k = 0; k < len; k++) {
+        tmp[k] = seq[src[k]];
+      }
+      System.arraycopy(tmp, 0, seq, lo, len);
+      recompute(lo);
+      return true;
+    }
+
+    void store() {
+      OrderQueue queue = machine.orders_in_queue;
+      queue.clear();
+      for (int k = 0; k < n; k++) {
+        queue.add(seq[k]);
+      }
+      machine.finishing_time += total() - start_total;
+    }
+  }
+
+  private static Stats intra(Route r, long deadline) {
+    Stats stats = new Stats();
+    for (int i = 0; i < r.n; i++) {
+      if (System.nanoTime() > deadline) {
+        break;
+      }
+      int p = r.at(i - 1);
+      for (int j = i + 1; j < Math.min(r.n, i + WINDOW + 1); j++) {
+        int a = r.seq[i];
+        int b = r.seq[j];
+        int nx = r.at(j + 1);
+        // swap a and b
+        int delta;
+        if (j == i + 1) {
+          delta = r.sw(p, b) + r.sw(b, a) + r.sw(a, nx) - r.sw(p, a) -
+                  r.sw(a, b) - r.sw(b, nx);
+        } else {
+          int ai = r.seq[i + 1];
+          int bp = r.seq[j - 1];
+          delta = r.sw(p, b) + r.sw(b, ai) + r.sw(bp, a) + r.sw(a, nx) -
+                  r.sw(p, a) - r.sw(a, ai) - r.sw(bp, b) - r.sw(b, nx);
+        }
+        if (delta < 0) {
+          for (int k = i; k <= j; k++) {
+            r.src[k - i] = k;
+          }
+          r.src[0] = j;
+          r.src[j - i] = i;
+          if (r.tryPermute(i, j - i + 1)) {
+            stats.swap++;
+            continue;
+          }
+        }
+        // reverse seq[i..j]
+        if (j > i + 1) {
+          delta = r.sw(p, b) + r.sw(a, nx) - r.sw(p, a) - r.sw(b, nx) +
+                  (r.rev[j] - r.rev[i]) - (r.fwd[j] - r.fwd[i]);
+          if (delta < 0) {
+            for (int k = i; k <= j; k++) {
+              r.src[k - i] = i + j - k;
+            }
+            if (r.tryPermute(i, j - i + 1)) {
+              stats.two_opt++;
+            }
+          }
+        }
+      }
+      for (int len = 1; len <= MAX_SEGMENT && i + len <= r.n; len++) {
+        orOpt(r, i, len, stats);
+      }
+    }
+    return stats;
+  }
+
+  // move seq[i..i+len-1] behind some position j of the window
+  private static void orOpt(Route r, int i, int len, Stats stats) {
+    int e = i + len - 1;
+    for (int j = Math.max(-1, i - WINDOW); j <= Math.min(r.n - 1, e + WINDOW);
+         j++) {
+      if (j >= i - 1 && j <= e) {
+        continue;
+      }
+      int s0 = r.seq[i];
+      int s1 = r.seq[e];
+      int p = r.at(i - 1);
+      int nx = r.at(e + 1);
+      int x = r.at(j);
+      int y = r.at(j + 1);
+      int delta = r.sw(p, nx) - r.sw(p, s0) - r.sw(s1, nx) + r.sw(x, s0) +
+                  r.sw(s1, y) - r.sw(x, y);
+      if (delta >= 0) {
+        continue;
+      }
+      int lo;
+      int size;
+      if (j > e) {
+        // seq[e+1..j] then the segment
+        lo = i;
+        size = j - i + 1;
+        for (int k = 0; k < j - e; k++) {
+          r.src[k] = e + 1 + k;
+        }
+        for (int k = 0; k < len; k++) {
+          r.src[j - e + k] = i + k;
+        }
+      } else {
+        // the segment then seq[j+1..i-1]
+        lo = j + 1;
+        size = e - j;
+        for (int k = 0; k < len; k++) {
+          r.src[k] = i + k;
+        }
+        for (int k = 0; k < i - j - 1; k++) {
+          r.src[len + k] = j + 1 + k;
+        }
+      }
+      if (r.tryPermute(lo, size)) {
+        stats.or_opt++;
+        return;
+      }
+    }
+  }
+
+  private static Stats inter(Route a, Route b, long deadline) {
+    Stats stats = new Stats();
+    relocate(a, b, deadline, stats);
+    relocate(b, a, deadline, stats);
+    exchange(a, b, deadline, stats);
+    return stats;
+  }
+
+  // first position of r finishing at or after time
+  private static int near(Route r, int time) {
+    int lo = 0;
+    int hi = r.n;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (r.fin[mid] < time) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // move one order of a in front of some position of b
+  private static void relocate(Route a, Route b, long deadline, Stats stats) {
+    for (int i = 0; i < a.n; i++) {
+      if (System.nanoTime() > deadline) {
+        return;
+      }
+      int o = a.seq[i];
+      if (!b.runs(o)) {
+        continue;
+      }
+      int p = a.at(i - 1);
+      int nx = a.at(i + 1);
+      int delta_a = a.sw(p, nx) - a.sw(p, o) - a.sw(o, nx);
+      if (!a.fits(i + 1, delta_a - a.work(o))) {
+        continue;
+      }
+      boolean was_late = a.late(i);
+      int due = b.due(o);
+      int center = near(b, a.fin[i]);
+      int best = -1;
+      int best_late = 0;
+      int best_delta = 0;
+      for (int j = Math.max(0, center - WINDOW);
+           j <= Math.min(b.n, center + WINDOW); j++) {
+        int x = b.at(j - 1);
+        int y = b.at(j);
+        int delta_b = b.sw(x, o) + b.sw(o, y) - b.sw(x, y);
+        if (!b.fits(j, delta_b + b.work(o))) {
+          continue;
+        }
+        boolean is_late = b.before(j) + b.sw(x, o) + b.work(o) > due;
+        if (is_late && !was_late) {
+          continue;
+        }
+        int late = (is_late ? 1 : 0) - (was_late ? 1 : 0);
+        int delta = delta_a + delta_b;
+        if ((late < best_late || (late == best_late && delta < best_delta))) {
+          best = j;
+          best_late = late;
+          best_delta = delta;
+        }
+      }
+      if (best >= 0) {
+        b.insert(best, a.remove(i));
+        stats.relocate++;
+        // the next order moved into position i
+        i--;
+      }
+    }
+  }
+
+  // swap one order of a with one order of b
+  private static void exchange(Route a, Route b, long deadline, Stats stats) {
+    for (int i = 0; i < a.n; i++) {
+      if (System.nanoTime() > deadline) {
+        return;
+      }
+      int o = a.seq[i];
+      if (!b.runs(o)) {
+        continue;
+      }
+      int p = a.at(i - 1);
+      int nx = a.at(i + 1);
+      boolean o_was_late = a.late(i);
+      int center = near(b, a.fin[i]);
+      for (int j = Math.max(0, center - WINDOW);
+           j < Math.min(b.n, center + WINDOW + 1); j++) {
+        int q = b.seq[j];
+        if (!a.runs(q)) {
+          continue;
+        }
+        int x = b.at(j - 1);
+        int y = b.at(j + 1);
+        int delta_a = a.sw(p, q) + a.sw(q, nx) - a.sw(p, o) - a.sw(o, nx);
+        int delta_b = b.sw(x, o) + b.sw(o, y) - b.sw(x, q) - b.sw(q, y);
+        int delta = delta_a + delta_b;
+        boolean q_was_late = b.late(j);
+        if (delta >= 0 && !o_was_late && !q_was_late) {
+          continue;
+        }
+        int q_fin = a.before(i) + a.sw(p, q) + a.work(q);
+        int o_fin = b.before(j) + b.sw(x, o) + b.work(o);
+        boolean q_late = q_fin > a.due(q);
+        boolean o_late = o_fin > b.due(o);
+        if ((q_late && !q_was_late) || (o_late && !o_was_late) ||
+            !a.fits(i + 1, q_fin - a.fin[i] + a.sw(q, nx) - a.sw(o, nx)) ||
+            !b.fits(j + 1, o_fin - b.fin[j] + b.sw(o, y) - b.sw(q, y))) {
+          continue;
+        }
+        int late = (q_late ? 1 : 0) + (o_late ? 1 : 0) - (q_was_late ? 1 : 0) -
+                   (o_was_late ? 1 : 0);
+        if (late < 0 || (late == 0 && delta < 0)) {
+          a.seq[i] = q;
+          b.seq[j] = o;
+          a.recompute(i);
+          b.recompute(j);
+          stats.exchange++;
+          break;
+        }
+      }
+    }
+  }
+}
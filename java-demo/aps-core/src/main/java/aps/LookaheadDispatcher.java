@@ -0,0 +1,252 @@
+// First free machine dispatch with a lookahead window
+// generalizes the two-order lookahead of first_free_Machines_optimize1: the
+// next k orders of the sequence form a window, the first free machine plans
+// all of them with a bitmask DP and takes the first order of the cheapest
+// plan, then the next order of the sequence refills the window
+//
+// a plan costs its switch time plus the hours every order finishes after its
+// due date, plus LATE_PENALTY per late order. the DP is O(2^k * k^2) per
+// decision at worst; the switch times and due dates of the window are cached
+// and only the refilled slot is looked up again, and the previous plan bounds
+// the next DP (see Planner)
+
+package aps;
+
+import java.util.Arrays;
+import java.util.List;
+
+class LookaheadDispatcher {
+  public static final int DEFAULT_WINDOW = 4;
+  // DP tables grow with 2^k
+  public static final int MAX_WINDOW = 12;
+  // extra cost of an order finishing after its due date, in hours
+  public static final long LATE_PENALTY = 24;
+
+  private final int window;
+
+  public LookaheadDispatcher(int window) {
+    if (window < 1 || window > MAX_WINDOW) {
+      throw new IllegalArgumentException("window must be in 1.." + MAX_WINDOW +
+                                         ": " + window);
+    }
+    this.window = window;
+  }
+
+  public int window() { return window; }
+
+  public List<APSDemo.Machine> schedule(final OrderTable orders,
+                                        final int[] sequence,
+                                        final SwitchMatrix switch_matrix,
+                                        List<APSDemo.Machine> machines) {
+    Metrics.Span span =
+        Metrics.begin(Metrics.Phase.DISPATCH, "lookahead_k" + window);
+    MachinePool machine_pool = new MachinePool(
+        machines, MachineHeap.BY_FREE_TIME, switch_matrix.size());
+
+    int k = Math.min(window, sequence.length);
+    // slot i of the window holds slot_order[i] while bit i of active is set
+    int[] slot_order = new int[k];
+    // sequence position of the order in each slot
+    int[] slot_rank = new int[k];
+    int active = 0;
+    // pair[i * k + j]: switch time from slot i to slot j
+    int[] pair = new int[k * k];
+    Planner planner = new Planner(k);
+    int next = 0;
+    for (int i = 0; i < k; i++) {
+      slot_rank[i] = next;
+      slot_order[i] = sequence[next++];
+      planner.due[i] = orders.dueDate(slot_order[i]) * 24;
+      active |= 1 << i;
+    }
+    for (int i = 0; i < k; i++) {
+      for (int j = 0; j < k; j++) {
+        pair[i * k + j] = APSDemo.getSwitchTime(switch_matrix, orders,
+                                                slot_order[i], slot_order[j]);
+      }
+    }
+
+    while (active != 0) {
+      long decision_start = Metrics.now();
+      // the first free machine that runs the oldest order of the window
+      // plans the slots it can run
+      int oldest = Integer.numberOfTrailingZeros(active);
+      for (int rest = active; rest != 0; rest &= rest - 1) {
+        int i = Integer.numberOfTrailingZeros(rest);
+        if (slot_rank[i] < slot_rank[oldest]) {
+          oldest = i;
+        }
+      }
+      int best = machine_pool.peek(orders.productType(slot_order[oldest]));
+      APSDemo.Machine best_machine = machines.get(best);
+      int last_order = best_machine.getLastOrder();
+      int runnable = 0;
+      for (int i = 0; i < k; i++) {
+        if ((active & (1 << i)) != 0 &&
+            best_machine.canRun(orders.productType(slot_order[i]))) {
+          runnable |= 1 << i;
+          planner.start_switch[i] = APSDemo.getSwitchTime(
+              switch_matrix, orders, last_order, slot_order[i]);
+          planner.work[i] = orders.quantity(slot_order[i]) /
+                            best_machine.machine_product_per_hour;
+        }
+      }
+      int start = best_machine.finishing_time;
+      int slot = planner.plan(runnable, pair, start);
+
+      int o = slot_order[slot];
+      best_machine.finishing_time =
+          start + planner.start_switch[slot] + planner.work[slot];
+      best_machine.orders_in_queue.add(o);
+      machine_pool.update(best);
+
+      // refill the slot and its cached switch times
+      boolean refilled = next < sequence.length;
+      if (refilled) {
+        slot_rank[slot] = next;
+        slot_order[slot] = sequence[next++];
+        planner.due[slot] = orders.dueDate(slot_order[slot]) * 24;
+        for (int j = 0; j < k; j++) {
+          pair[slot * k + j] = APSDemo.getSwitchTime(
+              switch_matrix, orders, slot_order[slot], slot_order[j]);
+          pair[j * k + slot] = APSDemo.getSwitchTime(
+              switch_matrix, orders, slot_order[j], slot_order[slot]);
+        }
+      } else {
+        active &= ~(1 << slot);
+      }
+      planner.consume(slot, refilled);
+      Metrics.decision(decision_start);
+    }
+    Metrics.end(span, sequence.length);
+    return machines;
+  }
+
+  // bitmask DP over (set of planned slots, last slot), pushed forward from
+  // the smaller sets. the plan of the previous decision, minus the order it
+  // placed and with the refilled slot at its end, is still a plan of the
+  // whole window: its cost bounds the DP, and any state that already costs
+  // as much is never expanded. a machine that runs only part of the window
+  // plans that part without a cached plan
+  private static class Planner {
+    final int k;
+    final long[] cost;
+    final int[] time;
+    final int[] prev;
+    final int[] start_switch;
+    final int[] work;
+    final int[] due;
+    // slots in the order of the last plan
+    final int[] plan;
+    int plan_len;
+
+    Planner(int k) {
+      this.k = k;
+      cost = new long[(1 << k) * k];
+      time = new int[(1 << k) * k];
+      prev = new int[(1 << k) * k];
+      start_switch = new int[k];
+      work = new int[k];
+      due = new int[k];
+      plan = new int[k];
+    }
+
+    long lateness(int slot, int t) {
+      int tardiness = t - due[slot];
+      return tardiness > 0 ? tardiness + LATE_PENALTY : 0;
+    }
+
+    // slot of the active window to run first on a machine free at start
+    int plan(int active, int[] pair, int start) {
+      long bound = incumbent(active, pair, start);
+      Arrays.fill(cost, 0, (active + 1) * k, Long.MAX_VALUE);
+      for (int rest = active; rest != 0; rest &= rest - 1) {
+        int i = Integer.numberOfTrailingZeros(rest);
+        int s = (1 << i) * k + i;
+        time[s] = start + start_switch[i] + work[i];
+        cost[s] = start_switch[i] + lateness(i, time[s]);
+        prev[s] = -1;
+      }
+      long best_cost = bound;
+      int best_state = -1;
+      for (int set = 1; set <= active; set++) {
+        if ((set & ~active) != 0) {
+          continue;
+        }
+        int open = active & ~set;
+        for (int last = set; last != 0; last &= last - 1) {
+          int j = Integer.numberOfTrailingZeros(last);
+          int s = set * k + j;
+          long c = cost[s];
+          if (c >= best_cost) {
+            continue;
+          }
+          if (open == 0) {
+            best_cost = c;
+            best_state = s;
+            continue;
+          }
+          for (int rest = open; rest != 0; rest &= rest - 1) {
+            int i = Integer.numberOfTrailingZeros(rest);
+            int t = time[s] + pair[j * k + i] + work[i];
+            long next_cost = c + pair[j * k + i] + lateness(i, t);
+            int n = (set | (1 << i)) * k + i;
+            if (next_cost < cost[n]) {
+              cost[n] = next_cost;
+              time[n] = t;
+              prev[n] = j;
+            }
+          }
+        }
+      }
+      if (best_state >= 0) {
+        // walk the better plan back from its last slot
+        plan_len = Integer.bitCount(active);
+        int set = best_state / k;
+        int j = best_state % k;
+        for (int p = plan_len - 1; p >= 0; p--) {
+          plan[p] = j;
+          int i = prev[set * k + j];
+          set &= ~(1 << j);
+          j = i;
+        }
+      }
+      return plan[0];
+    }
+
+    // cost of the cached plan on this machine, or a new plan in slot order
+    long incumbent(int active, int[] pair, int start) {
+      int planned = 0;
+      for (int p = 0; p < plan_len; p++) {
+        planned |= 1 << plan[p];
+      }
+      if (planned != active) {
+        plan_len = 0;
+        for (int rest = active; rest != 0; rest &= rest - 1) {
+          plan[plan_len++] = Integer.numberOfTrailingZeros(rest);
+        }
+      }
+      int t = start + start_switch[plan[0]] + work[plan[0]];
+      long c = start_switch[plan[0]] + lateness(plan[0], t);
+      for (int p = 1; p < plan_len; p++) {
+        int i = plan[p - 1];
+        int j = plan[p];
+        t += pair[i * k + j] + work[j];
+        c += pair[i * k + j] + lateness(j, t);
+      }
+      return c + 1;
+    }
+
+    // drop the placed slot from the front of the plan, a refilled slot
+    // goes to the end
+    void consume(int slot, boolean refilled) {
+      System.arraycopy(plan, 1, plan, 0, plan_len - 1);
+      if (refilled) {
+        plan[plan_len - 1] = slot;
+      } else {
+        plan_len--;
+      }
+    }
+  }
+
+}
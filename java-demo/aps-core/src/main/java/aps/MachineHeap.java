@@ -0,0 +1,168 @@
+// Indexed d-ary min-heap of machines
+// items are positions in the machine list and keys are longs, BY_FREE_TIME
+// packs (finishing_time, machine_id) into one key, so a comparison is a
+// single long compare on contiguous arrays instead of a comparator call on
+// two Machine objects. pos[item] is the slot of the item, so a machine whose
+// finishing time grew is fixed in place with one sift-down instead of a poll
+// and an add. heaps can share one pos array as long as an item is in at most
+// one of them, see MachineTypeIndex
+
+package aps;
+
+import java.util.Arrays;
+import java.util.List;
+
+class MachineHeap {
+  // 4 children share a cache line of keys and halve the depth of a binary
+  // heap
+  public static final int ARITY = 4;
+
+  interface Key {
+    long of(APSDemo.Machine m);
+  }
+
+  // earliest finishing time, then lowest machine id
+  public static final Key BY_FREE_TIME =
+      m -> ((long)m.finishing_time << 32) | (m.machine_id & 0xffffffffL);
+  public static final Key BY_ID = m -> m.machine_id;
+
+  private long[] keys;
+  private int[] items;
+  private int size;
+  // slot of each item, -1 when it is in no heap
+  private final int[] pos;
+
+  // items 0 .. item_num - 1
+  public MachineHeap(int item_num) {
+    this(new int[item_num], item_num);
+    Arrays.fill(pos, -1);
+  }
+
+  private MachineHeap(int[] pos, int capacity) {
+    this.pos = pos;
+    keys = new long[Math.max(capacity, 4)];
+    items = new int[keys.length];
+  }
+
+  // heaps over the same items with one shared pos array
+  public static MachineHeap[] shared(int heap_num, int item_num) {
+    int[] pos = new int[item_num];
+    Arrays.fill(pos, -1);
+    MachineHeap[] heaps = new MachineHeap[heap_num];
+    for (int i = 0; i < heap_num; i++) {
+      heaps[i] = new MachineHeap(pos, 4);
+    }
+    return heaps;
+  }
+
+  // heap of every machine of the list by key
+  public static MachineHeap of(List<APSDemo.Machine> machines, Key key) {
+    MachineHeap heap = new MachineHeap(machines.size());
+    for (int i = 0; i < machines.size(); i++) {
+      heap.add(i, key.of(machines.get(i)));
+    }
+    return heap;
+  }
+
+  public int size() { return size; }
+
+  public boolean isEmpty() { return size == 0; }
+
+  public boolean contains(int item) { return pos[item] >= 0; }
+
+  // item with the smallest key, -1 when empty
+  public int peek() { return size == 0 ? -1 : items[0]; }
+
+  public long peekKey() { return keys[0]; }
+
+  public int poll() {
+    Metrics.heapOperation();
+    int item = items[0];
+    removeAt(0);
+    return item;
+  }
+
+  public void add(int item, long key) {
+    Metrics.heapOperation();
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      items = Arrays.copyOf(items, size * 2);
+    }
+    siftUp(size++, item, key);
+  }
+
+  // new key of an item in the heap, sifts whichever way the key moved
+  public void update(int item, long key) {
+    Metrics.heapOperation();
+    int slot = pos[item];
+    if (key > keys[slot]) {
+      siftDown(slot, item, key);
+    } else {
+      siftUp(slot, item, key);
+    }
+  }
+
+  public void remove(int item) {
+    Metrics.heapOperation();
+    removeAt(pos[item]);
+  }
+
+  private void removeAt(int slot) {
+    int item = items[slot];
+    pos[item] = -1;
+    size--;
+    if (slot == size) {
+      return;
+    }
+    // the last item fills the hole from whichever side it belongs
+    int last = items[size];
+    long key = keys[size];
+    if (slot > 0 && key < keys[(slot - 1) / ARITY]) {
+      siftUp(slot, last, key);
+    } else {
+      siftDown(slot, last, key);
+    }
+  }
+
+  private void siftUp(int slot, int item, long key) {
+    while (slot > 0) {
+      int parent = (slot - 1) / ARITY;
+      if (keys[parent] <= key) {
+        break;
+      }
+      keys[slot] = keys[parent];
+      items[slot] = items[parent];
+      pos[items[slot]] = slot;
+      slot = parent;
+    }
+    keys[slot] = key;
+    items[slot] = item;
+    pos[item] = slot;
+  }
+
+  private void siftDown(int slot, int item, long key) {
+    while (true) {
+      int first = slot * ARITY + 1;
+      if (first >= size) {
+        break;
+      }
+      int best = first;
+      int end = Math.min(first + ARITY, size);
+      for (int c = first + 1; c < end; c++) {
+        if (keys[c] < keys[best]) {
+          best = c;
+        }
+      }
+      if (keys[best] >= key) {
+        break;
+      }
+      keys[slot] = keys[best];
+      items[slot] = items[best];
+      pos[items[slot]] = slot;
+      slot = best;
+    }
+    keys[slot] = key;
+    items[slot] = item;
+    pos[item] = slot;
+  }
+}
@@ -0,0 +1,66 @@
+// First machine by key among the ones that can run a product type
+// one MachineHeap per eligibility class sharing one pos array, peek looks at
+// the heads of the classes that run the type, see EligibilityIndex. with
+// every machine eligible there is one class and this is a single heap
+
+package aps;
+
+import java.util.List;
+
+class MachinePool {
+  private final List<APSDemo.Machine> machines;
+  private final MachineHeap.Key key;
+  private final EligibilityIndex eligibility;
+  private final MachineHeap[] heaps;
+  // the only heap when every machine runs every type, else null
+  private final MachineHeap every_type;
+
+  public MachinePool(List<APSDemo.Machine> machines, MachineHeap.Key key,
+                     int type_num) {
+    this(machines, key, new EligibilityIndex(machines, type_num));
+  }
+
+  public MachinePool(List<APSDemo.Machine> machines, MachineHeap.Key key,
+                     EligibilityIndex eligibility) {
+    this.machines = machines;
+    this.key = key;
+    this.eligibility = eligibility;
+    heaps = MachineHeap.shared(eligibility.classNum(), machines.size());
+    for (int i = 0; i < machines.size(); i++) {
+      heaps[eligibility.classOf(i)].add(i, key.of(machines.get(i)));
+    }
+    every_type = heaps.length == 1 && eligibility.typesOf(0) == null
+                     ? heaps[0]
+                     : null;
+  }
+
+  public EligibilityIndex eligibility() { return eligibility; }
+
+  // position of the first machine that runs product_type, the machine stays
+  // in the pool, call update once it changed
+  public int peek(int product_type) {
+    if (every_type != null) {
+      return every_type.peek();
+    }
+    SparseBitSet classes = eligibility.classesFor(product_type);
+    int best = -1;
+    long best_key = Long.MAX_VALUE;
+    for (int c = classes.nextSetBit(0); c >= 0;
+         c = classes.nextSetBit(c + 1)) {
+      MachineHeap heap = heaps[c];
+      if (!heap.isEmpty() && heap.peekKey() < best_key) {
+        best = heap.peek();
+        best_key = heap.peekKey();
+      }
+    }
+    if (best < 0) {
+      throw new IllegalArgumentException("no machine can run product type " +
+                                         product_type);
+    }
+    return best;
+  }
+
+  public void update(int i) {
+    heaps[eligibility.classOf(i)].update(i, key.of(machines.get(i)));
+  }
+}
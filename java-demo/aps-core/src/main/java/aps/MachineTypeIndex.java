@@ -0,0 +1,151 @@
+// Machines grouped by the product type of their last order
+// the cheapest machine for an order is found by walking the previous types
+// in ascending switch time order, so a lookup costs O(product types) instead
+// of O(machines). each bucket is a MachineHeap, all of them share one
+// position array since a machine is in exactly one bucket
+//
+// with machines that run only some types (see EligibilityIndex) the buckets
+// are split by eligibility class, and the classes to look at in bucket t are
+// the ones that have machines there and run the order's type, one bitset
+// intersection per bucket
+
+package aps;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+class MachineTypeIndex {
+  private final OrderTable orders;
+  private final SwitchMatrix switch_matrix;
+  private final List<APSDemo.Machine> machines;
+  private final MachineHeap.Key machine_order;
+  private final EligibilityIndex eligibility;
+  // bucket[c * (type_num + 1) + t] holds the machines of class c whose last
+  // order has type t, t = type_num the ones with an empty queue
+  private final MachineHeap[] buckets;
+  // occupied[t]: classes with machines in bucket t
+  private final SparseBitSet[] occupied;
+  // bucket of each machine position
+  private final int[] bucket_of;
+  // cheapest_from[p] lists every type t sorted by the switch time t -> p
+  private final int[][] cheapest_from;
+  private int last_switch_time;
+  // running best of select
+  private int best_machine;
+  private int best_switch_time;
+  private long best_key;
+
+  // machine_order breaks ties between machines with the same switch time
+  public MachineTypeIndex(final OrderTable orders,
+                          final SwitchMatrix switch_matrix,
+                          List<APSDemo.Machine> machines,
+                          MachineHeap.Key machine_order) {
+    this.orders = orders;
+    this.switch_matrix = switch_matrix;
+    this.machines = machines;
+    this.machine_order = machine_order;
+    int type_num = switch_matrix.size();
+    eligibility = new EligibilityIndex(machines, type_num);
+    buckets = MachineHeap.shared(eligibility.classNum() * (type_num + 1),
+                                 machines.size());
+    occupied = new SparseBitSet[type_num + 1];
+    for (int t = 0; t <= type_num; t++) {
+      occupied[t] = new SparseBitSet(eligibility.classNum());
+    }
+    bucket_of = new int[machines.size()];
+    cheapest_from = new int[type_num][];
+    Integer[] types = new Integer[type_num];
+    for (int p = 0; p < type_num; p++) {
+      for (int t = 0; t < type_num; t++) {
+        types[t] = t;
+      }
+      final int to_type = p;
+      Arrays.sort(types, Comparator.comparingInt(
+                             t -> switch_matrix.get(t, to_type)));
+      cheapest_from[p] = new int[type_num];
+      for (int t = 0; t < type_num; t++) {
+        cheapest_from[p][t] = types[t];
+      }
+    }
+    for (int i = 0; i < machines.size(); i++) {
+      APSDemo.Machine m = machines.get(i);
+      bucket_of[i] = bucketOf(i);
+      add(i, machine_order.of(m));
+    }
+  }
+
+  // position of the machine with the lowest switch time into product_type.
+  // the machine stays indexed, call update once it got the order
+  public int select(int product_type) {
+    int type_num = switch_matrix.size();
+    SparseBitSet eligible = eligibility.classesFor(product_type);
+    best_machine = -1;
+    best_switch_time = Integer.MAX_VALUE;
+    best_key = Long.MAX_VALUE;
+    consider(type_num, 0, eligible);
+    for (int t : cheapest_from[product_type]) {
+      int switch_time = switch_matrix.get(t, product_type);
+      if (switch_time > best_switch_time) {
+        break;
+      }
+      consider(t, switch_time, eligible);
+    }
+    if (best_machine < 0) {
+      throw new IllegalArgumentException("no machine can run product type " +
+                                         product_type);
+    }
+    last_switch_time = best_switch_time;
+    return best_machine;
+  }
+
+  // switch time of the machine returned by the last select
+  public int lastSwitchTime() { return last_switch_time; }
+
+  // call after the queue or finishing time of the machine at position i
+  // changed, a machine that stays in its bucket is sifted in place
+  public void update(int i) {
+    int bucket = bucketOf(i);
+    long key = machine_order.of(machines.get(i));
+    if (bucket == bucket_of[i]) {
+      buckets[bucket].update(i, key);
+    } else {
+      int stride = switch_matrix.size() + 1;
+      MachineHeap old_bucket = buckets[bucket_of[i]];
+      old_bucket.remove(i);
+      if (old_bucket.isEmpty()) {
+        occupied[bucket_of[i] % stride].clear(bucket_of[i] / stride);
+      }
+      bucket_of[i] = bucket;
+      add(i, key);
+    }
+  }
+
+  // heads of the eligible classes in the buckets of type t
+  private void consider(int t, int switch_time, SparseBitSet eligible) {
+    int stride = switch_matrix.size() + 1;
+    for (int c = SparseBitSet.nextCommon(occupied[t], eligible, 0); c >= 0;
+         c = SparseBitSet.nextCommon(occupied[t], eligible, c + 1)) {
+      MachineHeap bucket = buckets[c * stride + t];
+      long key = bucket.peekKey();
+      if (switch_time < best_switch_time || key < best_key) {
+        best_switch_time = switch_time;
+        best_machine = bucket.peek();
+        best_key = key;
+      }
+    }
+  }
+
+  private void add(int i, long key) {
+    int stride = switch_matrix.size() + 1;
+    buckets[bucket_of[i]].add(i, key);
+    occupied[bucket_of[i] % stride].set(bucket_of[i] / stride);
+  }
+
+  private int bucketOf(int i) {
+    int last_order = machines.get(i).getLastOrder();
+    int t = last_order == -1 ? switch_matrix.size()
+                             : orders.productType(last_order);
+    return eligibility.classOf(i) * (switch_matrix.size() + 1) + t;
+  }
+}
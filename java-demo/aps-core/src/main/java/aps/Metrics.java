@@ -0,0 +1,430 @@
+// Pipeline metrics
+// each phase of a run (generate or ingest, sort, dispatch, evaluate, export)
+// is a span that records wall time, orders, bytes allocated by the thread
+// that ran it, and the heap operations and switch matrix lookups counted
+// while it ran. a phase that fans out to other threads also records the
+// bytes allocated by every live thread, process-wide, which takes in
+// whatever else ran at the same time, overlapping spans included.
+// dispatch loops time every decision into a log2 histogram. spans are also
+// JFR events (aps.Phase), the totals are the MBean aps:type=Metrics, and
+// summary() is one JSON line for the end of a run
+//
+// off unless -Daps.metrics=true. ENABLED is a static final, so with metrics
+// off the JIT folds every hook below to nothing: begin returns null without
+// allocating, now returns 0 and the counters are never touched
+
+package aps;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+class Metrics {
+  public static final boolean ENABLED = Boolean.getBoolean("aps.metrics");
+  public static final String MBEAN_NAME = "aps:type=Metrics";
+  // bucket b counts decisions of [2^(b-1), 2^b) ns, the last one the rest
+  public static final int LATENCY_BUCKETS = 40;
+
+  enum Phase { GENERATE, INGEST, SORT, DISPATCH, EVALUATE, EXPORT }
+
+  @Name("aps.Phase")
+  @Label("APS Phase")
+  @Category("APS")
+  static class PhaseEvent extends Event {
+    @Label("Phase") String phase;
+    @Label("Label") String label;
+    @Label("Orders") long orders;
+    @Label("Allocated") @DataAmount long allocated_bytes;
+    // 0 unless the span was begun process-wide
+    @Label("Process Allocated") @DataAmount long process_allocated_bytes;
+    @Label("Heap Operations") long heap_operations;
+    @Label("Switch Lookups") long switch_lookups;
+  }
+
+  // an open phase, see begin; it has to end on the thread that began it
+  static final class Span {
+    final Phase phase;
+    final String label;
+    final boolean process_wide;
+    final long start_nanos;
+    final long start_allocated;
+    final long start_process_allocated;
+    final long start_heap_operations;
+    final long start_switch_lookups;
+    final PhaseEvent event = new PhaseEvent();
+
+    Span(Phase phase, String label, boolean process_wide) {
+      this.phase = phase;
+      this.label = label;
+      this.process_wide = process_wide;
+      event.begin();
+      start_process_allocated = process_wide ? processAllocatedBytes() : 0;
+      start_allocated = threadAllocatedBytes();
+      start_heap_operations = heap_operations.sum();
+      start_switch_lookups = switch_lookups.sum();
+      start_nanos = System.nanoTime();
+    }
+  }
+
+  // log2 histogram, bucket b counts values of [2^(b-1), 2^b), the last one
+  // the rest; recording is a LongAdder increment, safe from any thread
+  static final class Histogram {
+    private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS];
+
+    Histogram() {
+      for (int b = 0; b < LATENCY_BUCKETS; b++) {
+        buckets[b] = new LongAdder();
+      }
+    }
+
+    void record(long value) {
+      int b = 64 - Long.numberOfLeadingZeros(Math.max(value, 0));
+      buckets[Math.min(b, LATENCY_BUCKETS - 1)].increment();
+    }
+
+    long[] counts() {
+      long[] counts = new long[LATENCY_BUCKETS];
+      for (int b = 0; b < LATENCY_BUCKETS; b++) {
+        counts[b] = buckets[b].sum();
+      }
+      return counts;
+    }
+
+    long count() {
+      long n = 0;
+      for (LongAdder b : buckets) {
+        n += b.sum();
+      }
+      return n;
+    }
+
+    // upper bound of the bucket holding quantile q, 0 when empty
+    long quantile(double q) {
+      long[] counts = counts();
+      long n = 0;
+      for (long c : counts) {
+        n += c;
+      }
+      long rank = (long)Math.ceil(q * n);
+      long seen = 0;
+      for (int b = 0; b < LATENCY_BUCKETS; b++) {
+        seen += counts[b];
+        if (seen >= Math.max(rank, 1)) {
+          return 1L << b;
+        }
+      }
+      return 0;
+    }
+
+    void reset() {
+      for (LongAdder b : buckets) {
+        b.reset();
+      }
+    }
+  }
+
+  // totals of every span with the same phase and label
+  static final class PhaseStats {
+    final Phase phase;
+    final String label;
+    long count;
+    long wall_nanos;
+    long orders;
+    long allocated_bytes;
+    // spans begun process-wide, 0 when there were none
+    long process_spans;
+    long process_allocated_bytes;
+    long heap_operations;
+    long switch_lookups;
+
+    PhaseStats(Phase phase, String label) {
+      this.phase = phase;
+      this.label = label;
+    }
+
+    double ordersPerSecond() {
+      return wall_nanos == 0 ? 0 : orders * 1e9 / wall_nanos;
+    }
+  }
+
+  private static final LongAdder heap_operations = new LongAdder();
+  private static final LongAdder switch_lookups = new LongAdder();
+  private static final Histogram latency = new Histogram();
+  private static final Map<String, PhaseStats> phases = new LinkedHashMap<>();
+  private static final java.lang.management.ThreadMXBean threads =
+      ManagementFactory.getThreadMXBean();
+
+  static {
+    if (ENABLED) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+            new Bean(), new ObjectName(MBEAN_NAME));
+      } catch (Exception e) {
+        // metrics still work without the MBean, e.g. a second class loader
+        System.err.println("Metrics MBean not registered: " + e);
+      }
+    }
+  }
+
+  // null when metrics are off, pass it to end either way
+  public static Span begin(Phase phase, String label) {
+    return begin(phase, label, false);
+  }
+
+  // process_wide for a phase that runs work on other threads, it then also
+  // sums the allocations of every live thread, O(threads) at begin and end
+  public static Span begin(Phase phase, String label, boolean process_wide) {
+    return ENABLED ? new Span(phase, label, process_wide) : null;
+  }
+
+  public static void end(Span span, long orders) {
+    if (!ENABLED || span == null) {
+      return;
+    }
+    long wall_nanos = System.nanoTime() - span.start_nanos;
+    long allocated = threadAllocatedBytes() - span.start_allocated;
+    long process_allocated =
+        span.process_wide
+            ? processAllocatedBytes() - span.start_process_allocated
+            : 0;
+    long heap = heap_operations.sum() - span.start_heap_operations;
+    long lookups = switch_lookups.sum() - span.start_switch_lookups;
+    synchronized (phases) {
+      PhaseStats stats = phases.computeIfAbsent(
+          span.phase + "/" + span.label,
+          k -> new PhaseStats(span.phase, span.label));
+      stats.count++;
+      stats.wall_nanos += wall_nanos;
+      stats.orders += orders;
+      stats.allocated_bytes += allocated;
+      if (span.process_wide) {
+        stats.process_spans++;
+        stats.process_allocated_bytes += process_allocated;
+      }
+      stats.heap_operations += heap;
+      stats.switch_lookups += lookups;
+    }
+    PhaseEvent event = span.event;
+    if (event.shouldCommit()) {
+      event.phase = span.phase.name();
+      event.label = span.label;
+      event.orders = orders;
+      event.allocated_bytes = allocated;
+      event.process_allocated_bytes = process_allocated;
+      event.heap_operations = heap;
+      event.switch_lookups = lookups;
+      event.commit();
+    }
+  }
+
+  // start of a decision, 0 when metrics are off
+  public static long now() { return ENABLED ? System.nanoTime() : 0; }
+
+  // one dispatch decision that started at now()
+  public static void decision(long start_nanos) {
+    if (ENABLED) {
+      latency.record(System.nanoTime() - start_nanos);
+    }
+  }
+
+  public static void heapOperation() {
+    if (ENABLED) {
+      heap_operations.increment();
+    }
+  }
+
+  public static void switchLookup() {
+    if (ENABLED) {
+      switch_lookups.increment();
+    }
+  }
+
+  public static long heapOperations() { return heap_operations.sum(); }
+
+  public static long switchLookups() { return switch_lookups.sum(); }
+
+  public static long[] latencyHistogram() { return latency.counts(); }
+
+  public static long decisions() { return latency.count(); }
+
+  // upper bound in ns of the bucket holding quantile q of the decisions
+  public static long latencyQuantile(double q) { return latency.quantile(q); }
+
+  public static List<PhaseStats> phases() {
+    synchronized (phases) {
+      return new ArrayList<>(phases.values());
+    }
+  }
+
+  public static void reset() {
+    heap_operations.reset();
+    switch_lookups.reset();
+    latency.reset();
+    synchronized (phases) {
+      phases.clear();
+    }
+  }
+
+  // one line of JSON with every phase and the decision latencies
+  public static String summary() {
+    StringBuilder sb = new StringBuilder("{\"phases\":[");
+    List<PhaseStats> stats = phases();
+    for (int i = 0; i < stats.size(); i++) {
+      PhaseStats s = stats.get(i);
+      sb.append(i == 0 ? "" : ",")
+          .append("{\"phase\":\"")
+          .append(s.phase.name().toLowerCase())
+          .append("\",\"label\":\"")
+          .append(s.label.replace("\\", "\\\\").replace("\"", "\\\""))
+          .append("\",\"count\":")
+          .append(s.count)
+          .append(",\"wall_ms\":")
+          .append(s.wall_nanos / 1000000.0)
+          .append(",\"orders\":")
+          .append(s.orders)
+          .append(",\"orders_per_sec\":")
+          .append(Math.round(s.ordersPerSecond()))
+          .append(",\"allocated_bytes\":")
+          .append(s.allocated_bytes);
+      if (s.process_spans > 0) {
+        sb.append(",\"process_allocated_bytes\":")
+            .append(s.process_allocated_bytes);
+      }
+      sb.append(",\"heap_operations\":")
+          .append(s.heap_operations)
+          .append(",\"switch_lookups\":")
+          .append(s.switch_lookups)
+          .append('}');
+    }
+    sb.append("],\"decisions\":")
+        .append(decisions())
+        .append(",\"decision_p50_ns\":")
+        .append(latencyQuantile(0.5))
+        .append(",\"decision_p99_ns\":")
+        .append(latencyQuantile(0.99))
+        .append(",\"decision_histogram\":[");
+    long[] histogram = latencyHistogram();
+    for (int b = 0; b < LATENCY_BUCKETS; b++) {
+      sb.append(b == 0 ? "" : ",").append(histogram[b]);
+    }
+    return sb.append("],\"heap_operations\":")
+        .append(heapOperations())
+        .append(",\"switch_lookups\":")
+        .append(switchLookups())
+        .append('}')
+        .toString();
+  }
+
+  // bytes allocated so far by the calling thread
+  private static long threadAllocatedBytes() {
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return 0;
+    }
+    return Math.max(((com.sun.management.ThreadMXBean)threads)
+                        .getCurrentThreadAllocatedBytes(),
+                    0);
+  }
+
+  // bytes allocated so far by the live threads, process-wide; a thread that
+  // ended during a span takes its bytes with it
+  private static long processAllocatedBytes() {
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return 0;
+    }
+    long total = 0;
+    for (long bytes : ((com.sun.management.ThreadMXBean)threads)
+                          .getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      total += Math.max(bytes, 0);
+    }
+    return total;
+  }
+
+  static final class Bean implements MetricsMXBean {
+    @Override
+    public long getDecisions() {
+      return decisions();
+    }
+
+    @Override
+    public long getDecisionP50Nanos() {
+      return latencyQuantile(0.5);
+    }
+
+    @Override
+    public long getDecisionP99Nanos() {
+      return latencyQuantile(0.99);
+    }
+
+    @Override
+    public long[] getDecisionHistogram() {
+      return latencyHistogram();
+    }
+
+    @Override
+    public long getHeapOperations() {
+      return heapOperations();
+    }
+
+    @Override
+    public long getSwitchLookups() {
+      return switchLookups();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseWallNanos() {
+      Map<String, Long> m = new LinkedHashMap<>();
+      for (PhaseStats s : phases()) {
+        m.put(s.phase + "/" + s.label, s.wall_nanos);
+      }
+      return m;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseAllocatedBytes() {
+      Map<String, Long> m = new LinkedHashMap<>();
+      for (PhaseStats s : phases()) {
+        m.put(s.phase + "/" + s.label, s.allocated_bytes);
+      }
+      return m;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseProcessAllocatedBytes() {
+      Map<String, Long> m = new LinkedHashMap<>();
+      for (PhaseStats s : phases()) {
+        if (s.process_spans > 0) {
+          m.put(s.phase + "/" + s.label, s.process_allocated_bytes);
+        }
+      }
+      return m;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseOrdersPerSecond() {
+      Map<String, Double> m = new LinkedHashMap<>();
+      for (PhaseStats s : phases()) {
+        m.put(s.phase + "/" + s.label, s.ordersPerSecond());
+      }
+      return m;
+    }
+
+    @Override
+    public String getSummary() {
+      return summary();
+    }
+
+    @Override
+    public void reset() {
+      Metrics.reset();
+    }
+  }
+}
@@ -0,0 +1,37 @@
+// Management interface of Metrics, registered as aps:type=Metrics
+// public because JMX only introspects public MXBean interfaces
+
+package aps;
+
+import java.util.Map;
+
+public interface MetricsMXBean {
+  long getDecisions();
+
+  long getDecisionP50Nanos();
+
+  long getDecisionP99Nanos();
+
+  // log2 buckets of decision latency in ns, see Metrics.LATENCY_BUCKETS
+  long[] getDecisionHistogram();
+
+  long getHeapOperations();
+
+  long getSwitchLookups();
+
+  // keyed by "PHASE/label"
+  Map<String, Long> getPhaseWallNanos();
+
+  // by the thread that ran each span
+  Map<String, Long> getPhaseAllocatedBytes();
+
+  // by every live thread, only the phases begun process-wide
+  Map<String, Long> getPhaseProcessAllocatedBytes();
+
+  Map<String, Double> getPhaseOrdersPerSecond();
+
+  // the JSON line of Metrics.summary
+  String getSummary();
+
+  void reset();
+}
@@ -0,0 +1,273 @@
+// Incremental first free machine scheduling
+// keeps the machine heap and every machine's order queue between calls, so
+// a new order costs one sift on the heap (O(log machines)) instead of
+// rescheduling every order from scratch; every call returns what changed
+
+package aps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class OnlineScheduler {
+  // one assignment or cancellation and the KPI changes it caused,
+  // KPIs follow ScheduleEvaluator: times in hours from the machine start
+  public static class Change {
+    public int order;      // index in the OrderTable
+    public int order_id;
+    public int machine_id;
+    public int switch_time;
+    public int start_time; // includes the switch before the order
+    public int finishing_time;
+    public boolean order_late;
+
+    public int on_time_delta;
+    public int late_delta;
+    public int switch_time_delta;
+    public int work_time_delta;
+    public long tardiness_delta;
+  }
+
+  private final OrderTable orders;
+  private final SwitchMatrix switch_matrix;
+  private final List<APSDemo.Machine> machines;
+  private final MachinePool machine_pool;
+  // order_id -> order index, only for orders currently scheduled
+  private final IntIntMap order_index;
+  // order index -> machine position and finishing time, -1 when unscheduled
+  private int[] order_machine;
+  private int[] order_finish;
+
+  private long on_time;
+  private long late;
+  private long total_switch_time;
+  private long total_work_time;
+  private long total_tardiness;
+
+  // picks up whatever is already queued on the machines, new orders are
+  // added to orders. order ids must be unique, inserting or queueing an id
+  // that is already scheduled throws IllegalArgumentException
+  public OnlineScheduler(OrderTable orders, final SwitchMatrix switch_matrix,
+                         List<APSDemo.Machine> machines) {
+    this.orders = orders;
+    this.switch_matrix = switch_matrix;
+    this.machines = machines;
+    order_index = new IntIntMap(orders.size());
+    order_machine = new int[Math.max(orders.size(), 16)];
+    order_finish = new int[order_machine.length];
+    Arrays.fill(order_machine, -1);
+    for (int i = 0; i < machines.size(); i++) {
+      APSDemo.Machine m = machines.get(i);
+      // the queue ends at the machine's finishing time
+      int time = m.finishing_time;
+      int previous = -1;
+      for (int k = 0; k < m.orders_in_queue.size(); k++) {
+        int o = m.orders_in_queue.get(k);
+        time -= APSDemo.getSwitchTime(switch_matrix, orders, previous, o) +
+                orders.quantity(o) / m.machine_product_per_hour;
+        previous = o;
+      }
+      previous = -1;
+      for (int k = 0; k < m.orders_in_queue.size(); k++) {
+        int o = m.orders_in_queue.get(k);
+        int switch_time =
+            APSDemo.getSwitchTime(switch_matrix, orders, previous, o);
+        int work_time = orders.quantity(o) / m.machine_product_per_hour;
+        time += switch_time + work_time;
+        requireNew(orders.orderId(o));
+        order_index.put(orders.orderId(o), o);
+        order_machine[o] = i;
+        order_finish[o] = time;
+        count(o, time, 1);
+        total_switch_time += switch_time;
+        total_work_time += work_time;
+        previous = o;
+      }
+    }
+    machine_pool = new MachinePool(machines, MachineHeap.BY_FREE_TIME,
+                                   switch_matrix.size());
+  }
+
+  public long onTime() { return on_time; }
+
+  public long late() { return late; }
+
+  public long totalSwitchTime() { return total_switch_time; }
+
+  public long totalWorkTime() { return total_work_time; }
+
+  public long totalTardiness() { return total_tardiness; }
+
+  public OrderTable orders() { return orders; }
+
+  public SwitchMatrix switchMatrix() { return switch_matrix; }
+
+  public List<APSDemo.Machine> machines() { return machines; }
+
+  // schedules a new order on the first free machine that runs its type
+  public Change insert(APSDemo.Order o) {
+    requireNew(o.order_id);
+    return insert(orders.add(o));
+  }
+
+  public List<Change> insertBatch(List<APSDemo.Order> batch) {
+    List<Change> changes = new ArrayList<>(batch.size());
+    for (APSDemo.Order o : batch) {
+      changes.add(insert(o));
+    }
+    return changes;
+  }
+
+  // schedules rows of another table in the given order, e.g. a chunk read
+  // from a file
+  public List<Change> insertBatch(final OrderTable batch,
+                                  final int[] sequence) {
+    List<Change> changes = new ArrayList<>(sequence.length);
+    for (int i : sequence) {
+      requireNew(batch.orderId(i));
+      changes.add(insert(orders.add(batch.orderId(i), batch.quantity(i),
+                                    batch.dueDate(i), batch.priority(i),
+                                    batch.earlestStartDate(i),
+                                    batch.productType(i))));
+    }
+    return changes;
+  }
+
+  // o is an index in orders that is not scheduled yet
+  public Change insert(int o) {
+    requireNew(orders.orderId(o));
+    long decision_start = Metrics.now();
+    ensureCapacity(o);
+    int position = machine_pool.peek(orders.productType(o));
+    APSDemo.Machine m = machines.get(position);
+    Change change = new Change();
+    change.order = o;
+    change.order_id = orders.orderId(o);
+    change.machine_id = m.machine_id;
+    change.switch_time =
+        APSDemo.getSwitchTime(switch_matrix, orders, m.getLastOrder(), o);
+    change.start_time = m.finishing_time;
+    int work_time = orders.quantity(o) / m.machine_product_per_hour;
+    m.finishing_time += change.switch_time + work_time;
+    m.orders_in_queue.add(o);
+    machine_pool.update(position);
+
+    change.finishing_time = m.finishing_time;
+    order_index.put(change.order_id, o);
+    order_machine[o] = position;
+    order_finish[o] = m.finishing_time;
+    change.order_late = isLate(o, m.finishing_time);
+    change.on_time_delta = change.order_late ? 0 : 1;
+    change.late_delta = change.order_late ? 1 : 0;
+    change.switch_time_delta = change.switch_time;
+    change.work_time_delta = work_time;
+    change.tardiness_delta = tardiness(o, m.finishing_time);
+    count(o, m.finishing_time, 1);
+    total_switch_time += change.switch_time;
+    total_work_time += work_time;
+    Metrics.decision(decision_start);
+    return change;
+  }
+
+  // an order id is scheduled at most once, cancel finds it by id
+  private void requireNew(int order_id) {
+    if (order_index.get(order_id) != IntIntMap.MISSING) {
+      throw new IllegalArgumentException("order id " + order_id +
+                                         " is already scheduled");
+    }
+  }
+
+  // removes the order from its machine, the orders behind it move forward;
+  // null when the order is not scheduled
+  public Change cancel(int order_id) {
+    int o = order_index.remove(order_id);
+    if (o == IntIntMap.MISSING) {
+      return null;
+    }
+    int position = order_machine[o];
+    APSDemo.Machine m = machines.get(position);
+    OrderQueue queue = m.orders_in_queue;
+    int k = queue.indexOf(o);
+    int previous = k == 0 ? -1 : queue.get(k - 1);
+    int next = k + 1 < queue.size() ? queue.get(k + 1) : -1;
+
+    Change change = new Change();
+    change.order = o;
+    change.order_id = order_id;
+    change.machine_id = m.machine_id;
+    change.switch_time =
+        APSDemo.getSwitchTime(switch_matrix, orders, previous, o);
+    change.finishing_time = order_finish[o];
+    change.start_time = change.finishing_time - change.switch_time -
+                        orders.quantity(o) / m.machine_product_per_hour;
+    change.order_late = isLate(o, change.finishing_time);
+    long on_time_before = on_time, late_before = late;
+    long switch_before = total_switch_time, work_before = total_work_time;
+    long tardiness_before = total_tardiness;
+
+    // take the order and every order behind it out of the totals
+    int time = change.start_time;
+    for (int j = k; j < queue.size(); j++) {
+      int q = queue.get(j);
+      count(q, order_finish[q], -1);
+    }
+    total_switch_time -= change.switch_time;
+    total_work_time -= orders.quantity(o) / m.machine_product_per_hour;
+    if (next != -1) {
+      total_switch_time -=
+          APSDemo.getSwitchTime(switch_matrix, orders, o, next);
+      total_switch_time +=
+          APSDemo.getSwitchTime(switch_matrix, orders, previous, next);
+    }
+    queue.removeAt(k);
+    order_machine[o] = -1;
+    // put the shifted orders back
+    previous = k == 0 ? -1 : queue.get(k - 1);
+    for (int j = k; j < queue.size(); j++) {
+      int q = queue.get(j);
+      time += APSDemo.getSwitchTime(switch_matrix, orders, previous, q) +
+              orders.quantity(q) / m.machine_product_per_hour;
+      order_finish[q] = time;
+      count(q, time, 1);
+      previous = q;
+    }
+    // the machine only gets earlier, sift it up in place
+    m.finishing_time = time;
+    machine_pool.update(position);
+
+    change.on_time_delta = (int)(on_time - on_time_before);
+    change.late_delta = (int)(late - late_before);
+    change.switch_time_delta = (int)(total_switch_time - switch_before);
+    change.work_time_delta = (int)(total_work_time - work_before);
+    change.tardiness_delta = total_tardiness - tardiness_before;
+    return change;
+  }
+
+  private boolean isLate(int o, int finishing_time) {
+    return finishing_time > orders.dueDate(o) * 24;
+  }
+
+  private long tardiness(int o, int finishing_time) {
+    return Math.max(0, finishing_time - orders.dueDate(o) * 24);
+  }
+
+  // adds (sign 1) or removes (sign -1) the order from the lateness totals
+  private void count(int o, int finishing_time, int sign) {
+    if (isLate(o, finishing_time)) {
+      late += sign;
+      total_tardiness += sign * tardiness(o, finishing_time);
+    } else {
+      on_time += sign;
+    }
+  }
+
+  private void ensureCapacity(int o) {
+    if (o >= order_machine.length) {
+      int capacity = Math.max(o + 1, order_machine.length * 2);
+      int old_capacity = order_machine.length;
+      order_machine = Arrays.copyOf(order_machine, capacity);
+      order_finish = Arrays.copyOf(order_finish, capacity);
+      Arrays.fill(order_machine, old_capacity, capacity, -1);
+    }
+  }
+}
@@ -0,0 +1,317 @@
+// Streaming order and switch matrix files
+// files are read through memory-mapped windows of the FileChannel and parsed
+// byte by byte, no String per line or field; orders are handed out in chunks
+// of a reused OrderTable, so memory is bounded by the chunk and the window
+// size and the consumer can dispatch a chunk before the rest is read
+//
+// order CSV: order_id,quantity,due_date,priority,earlest_start_date,
+// product_type per line, an optional header line is skipped
+// order binary: BINARY_MAGIC, BINARY_VERSION, then those six fields as
+// little-endian ints per order
+// switch matrix CSV: one row per line as written by outputSWMatrix2CSV
+//
+// streaming dispatch: readCsv(path, chunk_size,
+//     chunk -> scheduler.insertBatch(chunk, chunk.indexOrder()))
+// with an OnlineScheduler
+
+package aps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+class OrderFile {
+  public static final int CSV_FIELDS = 6;
+  public static final int BINARY_MAGIC = 0x4f535041; // "APSO"
+  public static final int BINARY_VERSION = 1;
+  public static final int BINARY_HEADER_BYTES = 8;
+  public static final int BINARY_RECORD_BYTES = CSV_FIELDS * Integer.BYTES;
+  // bytes mapped at a time, a CSV line must fit in one window
+  public static final int WINDOW_BYTES = 64 << 20;
+  // digits of Integer.MIN_VALUE
+  private static final int MAX_DIGITS = 10;
+
+  interface ChunkConsumer {
+    // chunk is reused after the call returns
+    void accept(OrderTable chunk);
+  }
+
+  // returns the number of orders read. the INGEST phase of Metrics includes
+  // the time spent in the consumer
+  public static long readCsv(Path path, int chunk_size, ChunkConsumer consumer)
+      throws IOException {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.INGEST, "csv");
+    OrderTable chunk = new OrderTable(chunk_size);
+    long[] count = new long[1];
+    scanCsv(path, (fields, n) -> {
+      if (n == 0) {
+        return; // empty line
+      }
+      if (n != CSV_FIELDS) {
+        throw new IOException("Expected " + CSV_FIELDS +
+                              " fields per order, got " + n);
+      }
+      chunk.add(fields[0], fields[1], fields[2], fields[3], fields[4],
+                fields[5]);
+      count[0]++;
+      if (chunk.size() == chunk_size) {
+        consumer.accept(chunk);
+        chunk.clear();
+      }
+    });
+    if (chunk.size() > 0) {
+      consumer.accept(chunk);
+    }
+    Metrics.end(span, count[0]);
+    return count[0];
+  }
+
+  public static long readBinary(Path path, int chunk_size,
+                                ChunkConsumer consumer) throws IOException {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.INGEST, "binary");
+    OrderTable chunk = new OrderTable(chunk_size);
+    long count = 0;
+    try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < BINARY_HEADER_BYTES) {
+        throw new IOException("Not an order file: " + path);
+      }
+      ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_BYTES)
+                              .order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(header, 0);
+      if (header.getInt(0) != BINARY_MAGIC ||
+          header.getInt(4) != BINARY_VERSION) {
+        throw new IOException("Not an order file: " + path);
+      }
+      if ((size - BINARY_HEADER_BYTES) % BINARY_RECORD_BYTES != 0) {
+        throw new IOException("Truncated order file: " + path);
+      }
+      int window =
+          WINDOW_BYTES / BINARY_RECORD_BYTES * BINARY_RECORD_BYTES;
+      for (long position = BINARY_HEADER_BYTES; position < size;
+           position += window) {
+        MappedByteBuffer buffer = channel.map(
+            FileChannel.MapMode.READ_ONLY, position,
+            Math.min(window, size - position));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int b = 0; b < buffer.limit(); b += BINARY_RECORD_BYTES) {
+          chunk.add(buffer.getInt(b), buffer.getInt(b + 4),
+                    buffer.getInt(b + 8), buffer.getInt(b + 12),
+                    buffer.getInt(b + 16), buffer.getInt(b + 20));
+          count++;
+          if (chunk.size() == chunk_size) {
+            consumer.accept(chunk);
+            chunk.clear();
+          }
+        }
+      }
+    }
+    if (chunk.size() > 0) {
+      consumer.accept(chunk);
+    }
+    Metrics.end(span, count);
+    return count;
+  }
+
+  public static void writeBinary(final OrderTable orders, Path path)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(
+             path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+             StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buffer =
+          ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(BINARY_MAGIC).putInt(BINARY_VERSION);
+      for (int i = 0; i < orders.size(); i++) {
+        if (buffer.remaining() < BINARY_RECORD_BYTES) {
+          drain(channel, buffer);
+        }
+        buffer.putInt(orders.orderId(i))
+            .putInt(orders.quantity(i))
+            .putInt(orders.dueDate(i))
+            .putInt(orders.priority(i))
+            .putInt(orders.earlestStartDate(i))
+            .putInt(orders.productType(i));
+      }
+      drain(channel, buffer);
+    }
+  }
+
+  public static SwitchMatrix readSwitchMatrixCsv(Path path)
+      throws IOException {
+    // rows are collected in a growable int array, the size is only known
+    // once the first line is complete
+    int[][] cells = {new int[1024]};
+    int[] counts = new int[2]; // cell count, row count
+    int[] size = {-1};
+    scanCsv(path, (fields, n) -> {
+      if (n == 0) {
+        return;
+      }
+      if (size[0] == -1) {
+        size[0] = n;
+      } else if (n != size[0]) {
+        throw new IOException("Switch matrix row " + counts[1] + " has " + n +
+                              " columns, expected " + size[0]);
+      }
+      while (counts[0] + n > cells[0].length) {
+        cells[0] = Arrays.copyOf(cells[0], cells[0].length * 2);
+      }
+      System.arraycopy(fields, 0, cells[0], counts[0], n);
+      counts[0] += n;
+      counts[1]++;
+    });
+    int n = Math.max(size[0], 0);
+    if (counts[1] != n) {
+      throw new IOException("Switch matrix has " + counts[1] +
+                            " rows and " + n + " columns");
+    }
+    SwitchMatrix switch_matrix = new SwitchMatrix(n);
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        switch_matrix.set(i, j, cells[0][i * n + j]);
+      }
+    }
+    return switch_matrix;
+  }
+
+  // writes out the filled part of buffer and clears it, shared with
+  // ScheduleExporter
+  static void drain(FileChannel channel, ByteBuffer buffer)
+      throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  interface RowSink {
+    // fields[0, n) holds the integers of one line, fields is reused
+    void row(int[] fields, int n) throws IOException;
+  }
+
+  // parses a CSV of integers line by line, a first line that does not
+  // start with a digit or '-' is taken as a header and skipped. a field is
+  // an int with an optional leading '-' and blanks around it, anything else
+  // (an empty field, a '-' inside the number, more than 10 digits or a
+  // value past int range) throws IOException with its byte offset
+  static void scanCsv(Path path, RowSink sink) throws IOException {
+    scanCsv(path, WINDOW_BYTES, sink);
+  }
+
+  static void scanCsv(Path path, int window, RowSink sink)
+      throws IOException {
+    int[] fields = new int[16];
+    try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      boolean first_line = true;
+      while (position < size) {
+        int length = (int)Math.min(window, size - position);
+        MappedByteBuffer buffer =
+            channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        // only parse up to the last complete line unless this is the end
+        int end = length;
+        if (position + length < size) {
+          while (end > 0 && buffer.get(end - 1) != '\n') {
+            end--;
+          }
+          if (end == 0) {
+            throw new IOException("Line longer than " + window +
+                                  " bytes at byte " + position);
+          }
+        }
+        int b = 0;
+        if (first_line) {
+          first_line = false;
+          byte c = length > 0 ? buffer.get(0) : (byte)'0';
+          if (c != '-' && (c < '0' || c > '9')) {
+            while (b < end && buffer.get(b) != '\n') {
+              b++;
+            }
+            b++;
+          }
+        }
+        int n = 0;
+        long value = 0;
+        int digits = 0;
+        boolean negative = false;
+        // a blank followed the number, the field has to end
+        boolean closed = false;
+        // the line has more than blanks
+        boolean content = false;
+        for (; b < end; b++) {
+          byte c = buffer.get(b);
+          if (c >= '0' && c <= '9') {
+            if (closed) {
+              throw new IOException("Blank inside a number at byte " +
+                                    (position + b));
+            }
+            if (++digits > MAX_DIGITS) {
+              throw new IOException("Number out of int range at byte " +
+                                    (position + b));
+            }
+            value = value * 10 + (c - '0');
+            content = true;
+          } else if (c == '-') {
+            if (negative || digits > 0 || closed) {
+              throw new IOException("Unexpected '-' at byte " +
+                                    (position + b));
+            }
+            negative = true;
+            content = true;
+          } else if (c == ',' || c == '\n') {
+            if (c == ',' || content) {
+              if (n == fields.length) {
+                fields = Arrays.copyOf(fields, n * 2);
+              }
+              fields[n++] = field(value, digits, negative, position + b);
+            }
+            value = 0;
+            digits = 0;
+            negative = false;
+            closed = false;
+            content = c == ',';
+            if (c == '\n') {
+              sink.row(fields, n);
+              n = 0;
+            }
+          } else if (c == '\r' || c == ' ') {
+            closed = digits > 0 || negative;
+          } else {
+            throw new IOException("Unexpected byte '" + (char)c +
+                                  "' at byte " + (position + b));
+          }
+        }
+        // last line without a newline
+        if (content) {
+          if (n == fields.length) {
+            fields = Arrays.copyOf(fields, n * 2);
+          }
+          fields[n++] = field(value, digits, negative, position + end);
+          sink.row(fields, n);
+        }
+        position += end;
+      }
+    }
+  }
+
+  // the field that ends at byte offset
+  private static int field(long value, int digits, boolean negative,
+                           long offset) throws IOException {
+    if (digits == 0) {
+      throw new IOException("Empty field at byte " + offset);
+    }
+    if (value > (negative ? -(long)Integer.MIN_VALUE : Integer.MAX_VALUE)) {
+      throw new IOException("Number out of int range at byte " + offset);
+    }
+    return (int)(negative ? -value : value);
+  }
+}
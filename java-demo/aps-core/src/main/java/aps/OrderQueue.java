@@ -0,0 +1,162 @@
+// Persistent list of order indices queued on one machine
+// the indices point into the OrderTable the schedule was built from
+//
+// stored in chunks of CHUNK ints under a directory, and a copy shares both
+// with the original, so forking a schedule costs O(machines) instead of
+// O(orders). a queue writes in place only the chunks (and the directory) it
+// owns, marked with its edit token; anything else is copied first, so an
+// append after a fork copies the directory and one chunk and the variants
+// keep sharing the rest
+//
+// forking drops the source's ownership, which is a write to the source, so
+// a fork needs exclusive access to it. a queue that many threads fork from
+// (a baseline) is frozen once on its own thread first; forking a frozen
+// queue only reads it, until the queue itself is written again
+
+package aps;
+
+import java.util.Arrays;
+
+class OrderQueue {
+  public static final int CHUNK_SHIFT = 6;
+  public static final int CHUNK = 1 << CHUNK_SHIFT;
+  private static final int MASK = CHUNK - 1;
+
+  private int[][] chunks;
+  // owners[c] is the edit token of the queue that may write chunks[c]
+  private Object[] owners;
+  // replaced on every fork, which drops ownership of everything shared
+  private Object edit = new Object();
+  // token of the queue that may write chunks and owners
+  private Object directory_edit;
+  private int size;
+  // owns nothing since freeze or the last fork, set until the next write
+  private boolean frozen;
+
+  public OrderQueue() {
+    chunks = new int[1][];
+    owners = new Object[1];
+    directory_edit = edit;
+  }
+
+  // O(1), q and the copy both copy on their next write. writes to q unless
+  // it is frozen, see freeze
+  public OrderQueue(OrderQueue q) {
+    chunks = q.chunks;
+    owners = q.owners;
+    size = q.size;
+    if (!q.frozen) {
+      q.freeze();
+    }
+  }
+
+  // drops the ownership of every chunk, so forks share everything without
+  // writing to this queue until it is written again
+  public void freeze() {
+    edit = new Object();
+    frozen = true;
+  }
+
+  public int size() { return size; }
+
+  public boolean isEmpty() { return size == 0; }
+
+  public int get(int i) { return chunks[i >>> CHUNK_SHIFT][i & MASK]; }
+
+  // -1 when the queue is empty
+  public int getLast() { return size == 0 ? -1 : get(size - 1); }
+
+  public void add(int order) {
+    writable(size >>> CHUNK_SHIFT)[size & MASK] = order;
+    size++;
+  }
+
+  public void set(int i, int order) {
+    writable(i >>> CHUNK_SHIFT)[i & MASK] = order;
+  }
+
+  // position of the first occurrence of order, -1 when not queued
+  public int indexOf(int order) {
+    for (int c = 0; c << CHUNK_SHIFT < size; c++) {
+      int[] chunk = chunks[c];
+      int n = Math.min(CHUNK, size - (c << CHUNK_SHIFT));
+      for (int k = 0; k < n; k++) {
+        if (chunk[k] == order) {
+          return (c << CHUNK_SHIFT) + k;
+        }
+      }
+    }
+    return -1;
+  }
+
+  // shifts the orders behind i forward, copying the chunks they are in
+  public void removeAt(int i) {
+    int first = i >>> CHUNK_SHIFT;
+    int last = (size - 1) >>> CHUNK_SHIFT;
+    for (int c = first; c <= last; c++) {
+      int[] chunk = writable(c);
+      int from = c == first ? i & MASK : 0;
+      int end = c == last ? (size - 1) & MASK : MASK;
+      System.arraycopy(chunk, from + 1, chunk, from, end - from);
+      if (c < last) {
+        chunk[MASK] = chunks[c + 1][0];
+      }
+    }
+    size--;
+  }
+
+  // shifts the orders from i on back, copying the chunks they are in
+  public void insertAt(int i, int order) {
+    if (i == size) {
+      add(order);
+      return;
+    }
+    add(getLast());
+    int first = i >>> CHUNK_SHIFT;
+    int last = (size - 1) >>> CHUNK_SHIFT;
+    for (int c = last; c >= first; c--) {
+      int[] chunk = writable(c);
+      int from = c == first ? i & MASK : 0;
+      int end = c == last ? (size - 1) & MASK : MASK;
+      System.arraycopy(chunk, from, chunk, from + 1, end - from);
+      if (c > first) {
+        chunk[0] = chunks[c - 1][MASK];
+      }
+    }
+    chunks[first][i & MASK] = order;
+  }
+
+  // owned chunks are kept and refilled by the next adds
+  public void clear() { size = 0; }
+
+  // keeps the first n orders, like clear nothing is copied until the next
+  // add
+  public void truncate(int n) {
+    if (n < 0 || n > size) {
+      throw new IndexOutOfBoundsException("truncate " + n + " of " + size);
+    }
+    size = n;
+  }
+
+  // chunk c, copied first unless this queue owns it
+  private int[] writable(int c) {
+    frozen = false;
+    if (directory_edit != edit) {
+      chunks = chunks.clone();
+      owners = new Object[chunks.length];
+      directory_edit = edit;
+    }
+    if (c == chunks.length) {
+      chunks = Arrays.copyOf(chunks, c * 2);
+      owners = Arrays.copyOf(owners, c * 2);
+    }
+    if (owners[c] != edit) {
+      int[] chunk = chunks[c];
+      // a chunk past the end holds nothing worth copying
+      chunks[c] = chunk != null && c << CHUNK_SHIFT < size ? chunk.clone()
+                                                          : new int[CHUNK];
+      owners[c] = edit;
+    }
+    return chunks[c];
+  }
+}
@@ -0,0 +1,75 @@
+// Order rankings selected by SORT_METHOD, the ordinal is the SORT_METHOD value
+// every ranking is a list of order fields, each ascending or descending, that
+// OrderSort packs into one 64-bit key per order
+
+package aps;
+
+import java.util.Comparator;
+
+enum OrderRanking {
+  INDEX_ORDER("INDEX ORDER", null),
+  PRIORITY_DDL_ESD("PRIORITY DDL ESD",
+                   new APSDemo.CompareOrder_priority_ddl_esd(),
+                   Key.PRIORITY_HIGH, Key.DUE_DATE, Key.EARLEST_START_DATE),
+  ESD_PRIORITY_DDL("ESD PRIORITY DDL",
+                   new APSDemo.CompareOrder_esd_priority_ddl(),
+                   Key.EARLEST_START_DATE, Key.PRIORITY_HIGH, Key.DUE_DATE),
+  DDL_PRIORITY_ESD("DDL PRIORITY ESD",
+                   new APSDemo.CompareOrder_ddl_priority_esd(), Key.DUE_DATE,
+                   Key.PRIORITY_HIGH, Key.EARLEST_START_DATE),
+  DDL_QUANTITY_PRIORITY("DDL QUANTITY PRIORITY",
+                        new APSDemo.CompareOrder_ddl_quantity_priority(),
+                        Key.DUE_DATE, Key.QUANTITY_HIGH, Key.PRIORITY_HIGH),
+  QUANTITY_DDL_PRIORITY("QUANTITY DDL PRIORITY",
+                        new APSDemo.CompareOrder_quantity_ddl_priority(),
+                        Key.QUANTITY_HIGH, Key.DUE_DATE, Key.PRIORITY_HIGH),
+  QUANTITY_LOWER_DDL_PRIORITY(
+      "QUANTITY_LOWER DDL PRIORITY",
+      new APSDemo.CompareOrder_quantity_lower_ddl_priority(), Key.QUANTITY,
+      Key.DUE_DATE, Key.PRIORITY_HIGH);
+
+  // one component of a sort key, descending components are stored negated
+  enum Key {
+    PRIORITY_HIGH(true),
+    DUE_DATE(false),
+    EARLEST_START_DATE(false),
+    QUANTITY(false),
+    QUANTITY_HIGH(true);
+
+    final boolean descending;
+
+    Key(boolean descending) { this.descending = descending; }
+
+    int get(final OrderTable orders, int i) {
+      switch (this) {
+      case PRIORITY_HIGH:
+        return orders.priority(i);
+      case DUE_DATE:
+        return orders.dueDate(i);
+      case EARLEST_START_DATE:
+        return orders.earlestStartDate(i);
+      default:
+        return orders.quantity(i);
+      }
+    }
+  }
+
+  public final String label;
+  // same order as the key, null for INDEX_ORDER
+  public final Comparator<APSDemo.Order> comparator;
+  final Key[] keys;
+
+  OrderRanking(String label, Comparator<APSDemo.Order> comparator,
+               Key... keys) {
+    this.label = label;
+    this.comparator = comparator;
+    this.keys = keys;
+  }
+
+  public static OrderRanking of(int sort_method) {
+    OrderRanking[] rankings = values();
+    return sort_method > 0 && sort_method < rankings.length
+        ? rankings[sort_method]
+        : INDEX_ORDER;
+  }
+}
@@ -0,0 +1,158 @@
+// Order ranking by packed sort keys
+// the fields of an OrderRanking are offset by their minimum and packed
+// most significant first into one long per order, the keys are then sorted
+// with a parallel LSD radix sort that carries the order indices along;
+// every pass is stable, so equal keys keep the index order and the result
+// does not depend on the number of threads
+
+package aps;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+class OrderSort {
+  private static final int RADIX_BITS = 8;
+  private static final int RADIX = 1 << RADIX_BITS;
+  // orders per chunk of a parallel pass
+  private static final int MIN_CHUNK = 1 << 16;
+
+  public static int[] sort(final OrderTable orders, OrderRanking ranking) {
+    return sort(orders, ranking, ForkJoinPool.commonPool().getParallelism());
+  }
+
+  public static int[] sort(final OrderTable orders, OrderRanking ranking,
+                           int threads) {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.SORT, ranking.name(),
+                                      threads > 1);
+    int[] sequence = sortKeys(orders, orders.indexOrder(), ranking, threads);
+    Metrics.end(span, sequence.length);
+    return sequence;
+  }
+
+  // ranks only the orders in subset, which should be in index order for
+  // ties to come out the same as in a sort of the whole table
+  public static int[] sort(final OrderTable orders, int[] subset,
+                           OrderRanking ranking, int threads) {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.SORT, ranking.name(),
+                                      threads > 1);
+    int[] sequence = sortKeys(orders, subset.clone(), ranking, threads);
+    Metrics.end(span, sequence.length);
+    return sequence;
+  }
+
+  private static int[] sortKeys(final OrderTable orders, int[] sequence,
+                                OrderRanking ranking, int threads) {
+    int n = sequence.length;
+    if (ranking.keys.length == 0) {
+      return sequence;
+    }
+    // range of every key component
+    int key_num = ranking.keys.length;
+    long[] min = new long[key_num];
+    int[] bits = new int[key_num];
+    int total_bits = 0;
+    for (int k = 0; k < key_num; k++) {
+      long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+      for (int i = 0; i < n; i++) {
+        long v = value(orders, ranking.keys[k], sequence[i]);
+        lo = Math.min(lo, v);
+        hi = Math.max(hi, v);
+      }
+      min[k] = n == 0 ? 0 : lo;
+      bits[k] = n == 0 ? 0 : 64 - Long.numberOfLeadingZeros(hi - lo);
+      total_bits += bits[k];
+    }
+    if (total_bits > Long.SIZE) {
+      // the ranges do not fit one key, sort through the comparator
+      return orders.sortedSequence(ranking.comparator, sequence);
+    }
+
+    long[] key = new long[n];
+    for (int i = 0; i < n; i++) {
+      long packed = 0;
+      for (int k = 0; k < key_num; k++) {
+        packed = (packed << bits[k]) |
+                 (value(orders, ranking.keys[k], sequence[i]) - min[k]);
+      }
+      key[i] = packed;
+    }
+    radixSort(key, sequence, total_bits, threads);
+    return sequence;
+  }
+
+  private static long value(final OrderTable orders, OrderRanking.Key k,
+                            int i) {
+    long v = k.get(orders, i);
+    return k.descending ? -v : v;
+  }
+
+  // sorts key ascending and applies the same permutation to sequence,
+  // only the low `bits` bits of the keys are looked at
+  static void radixSort(long[] key, int[] sequence, int bits, int threads) {
+    int n = key.length;
+    int chunk_num = Math.max(1, Math.min(threads, n / MIN_CHUNK));
+    int chunk = (n + chunk_num - 1) / Math.max(chunk_num, 1);
+    long[] key_buf = new long[n];
+    int[] sequence_buf = new int[n];
+    int[][] count = new int[chunk_num][RADIX];
+    long[] src_key = key, dst_key = key_buf;
+    int[] src_seq = sequence, dst_seq = sequence_buf;
+    for (int shift = 0; shift < bits; shift += RADIX_BITS) {
+      final int s = shift;
+      final long[] from_key = src_key;
+      // per chunk digit histogram
+      IntStream.range(0, chunk_num).parallel().forEach(c -> {
+        int[] h = count[c];
+        Arrays.fill(h, 0);
+        int hi = Math.min(n, (c + 1) * chunk);
+        for (int i = c * chunk; i < hi; i++) {
+          h[(int)(from_key[i] >>> s) & (RADIX - 1)]++;
+        }
+      });
+      // skip the pass when every key has the same digit
+      boolean single_digit = false;
+      for (int d = 0; d < RADIX && !single_digit; d++) {
+        int total = 0;
+        for (int c = 0; c < chunk_num; c++) {
+          total += count[c][d];
+        }
+        single_digit = total == n;
+      }
+      if (single_digit) {
+        continue;
+      }
+      // turn counts into write offsets, digit major then chunk
+      int offset = 0;
+      for (int d = 0; d < RADIX; d++) {
+        for (int c = 0; c < chunk_num; c++) {
+          int t = count[c][d];
+          count[c][d] = offset;
+          offset += t;
+        }
+      }
+      final int[] from_seq = src_seq;
+      final long[] to_key = dst_key;
+      final int[] to_seq = dst_seq;
+      IntStream.range(0, chunk_num).parallel().forEach(c -> {
+        int[] pos = count[c];
+        int hi = Math.min(n, (c + 1) * chunk);
+        for (int i = c * chunk; i < hi; i++) {
+          int p = pos[(int)(from_key[i] >>> s) & (RADIX - 1)]++;
+          to_key[p] = from_key[i];
+          to_seq[p] = from_seq[i];
+        }
+      });
+      long[] swap_key = src_key;
+      src_key = dst_key;
+      dst_key = swap_key;
+      int[] swap_seq = src_seq;
+      src_seq = dst_seq;
+      dst_seq = swap_seq;
+    }
+    if (src_key != key) {
+      System.arraycopy(src_key, 0, key, 0, n);
+      System.arraycopy(src_seq, 0, sequence, 0, n);
+    }
+  }
+}
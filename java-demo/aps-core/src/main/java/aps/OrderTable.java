@@ -0,0 +1,199 @@
+// Struct-of-arrays order storage
+// every Order field lives in its own primitive array and an order is
+// addressed by its index in the table, names are built from the id on demand
+
+package aps;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+class OrderTable {
+  // below this run length the sort falls back to insertion sort
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+
+  private int[] order_id;
+  private int[] quantity;
+  private int[] due_date;
+  private int[] priority;
+  private int[] earlest_start_date;
+  private int[] product_type;
+  private int size;
+  // most rows ever held, rows from here on were never written
+  private int used;
+
+  public OrderTable(int capacity) {
+    capacity = Math.max(capacity, 16);
+    order_id = new int[capacity];
+    quantity = new int[capacity];
+    due_date = new int[capacity];
+    priority = new int[capacity];
+    earlest_start_date = new int[capacity];
+    product_type = new int[capacity];
+  }
+
+  public static OrderTable of(List<APSDemo.Order> orders) {
+    OrderTable table = new OrderTable(orders.size());
+    for (APSDemo.Order o : orders) {
+      table.add(o);
+    }
+    return table;
+  }
+
+  public static String orderName(int order_id) {
+    return "order" + (order_id < 10 ? "0" + order_id : order_id);
+  }
+
+  public int size() { return size; }
+
+  // drop every row but keep the arrays, used to reuse a chunk table
+  public void clear() { size = 0; }
+
+  public int orderId(int i) { return order_id[i]; }
+
+  public int quantity(int i) { return quantity[i]; }
+
+  public int dueDate(int i) { return due_date[i]; }
+
+  public int priority(int i) { return priority[i]; }
+
+  public int earlestStartDate(int i) { return earlest_start_date[i]; }
+
+  public int productType(int i) { return product_type[i]; }
+
+  public String name(int i) { return orderName(order_id[i]); }
+
+  // returns the index of the new order
+  public int add(int id, int q, int d, int p, int e, int pt) {
+    if (size == order_id.length) {
+      grow(size * 2);
+    }
+    set(size, id, q, d, p, e, pt);
+    used = Math.max(used, size + 1);
+    return size++;
+  }
+
+  // sets the row count to n, rows past the old size are zero until set;
+  // rows left over from before a clear are zeroed, fresh ones already are
+  public void resize(int n) {
+    if (n > order_id.length) {
+      grow(n);
+    }
+    int stale = Math.min(n, used);
+    if (size < stale) {
+      Arrays.fill(order_id, size, stale, 0);
+      Arrays.fill(quantity, size, stale, 0);
+      Arrays.fill(due_date, size, stale, 0);
+      Arrays.fill(priority, size, stale, 0);
+      Arrays.fill(earlest_start_date, size, stale, 0);
+      Arrays.fill(product_type, size, stale, 0);
+    }
+    size = n;
+    used = Math.max(used, n);
+  }
+
+  // overwrite row i, rows are independent so different rows can be set
+  // from different threads
+  public void set(int i, int id, int q, int d, int p, int e, int pt) {
+    order_id[i] = id;
+    quantity[i] = q;
+    due_date[i] = d;
+    priority[i] = p;
+    earlest_start_date[i] = e;
+    product_type[i] = pt;
+  }
+
+  private void grow(int capacity) {
+    order_id = Arrays.copyOf(order_id, capacity);
+    quantity = Arrays.copyOf(quantity, capacity);
+    due_date = Arrays.copyOf(due_date, capacity);
+    priority = Arrays.copyOf(priority, capacity);
+    earlest_start_date = Arrays.copyOf(earlest_start_date, capacity);
+    product_type = Arrays.copyOf(product_type, capacity);
+  }
+
+  public int add(APSDemo.Order o) {
+    return add(o.order_id, o.quantity, o.due_date, o.priority,
+               o.earlest_start_date, o.product_type);
+  }
+
+  // materialize one row, only for printing and interop
+  public APSDemo.Order get(int i) {
+    APSDemo.Order o = new APSDemo.Order(0, null, 0, 0, 0, 0, 0);
+    load(i, o);
+    o.name = name(i);
+    return o;
+  }
+
+  // copy the numeric fields of row i into o, o.name is left untouched
+  public void load(int i, APSDemo.Order o) {
+    o.order_id = order_id[i];
+    o.quantity = quantity[i];
+    o.due_date = due_date[i];
+    o.priority = priority[i];
+    o.earlest_start_date = earlest_start_date[i];
+    o.product_type = product_type[i];
+  }
+
+  public int[] indexOrder() {
+    int[] sequence = new int[size];
+    for (int i = 0; i < size; i++) {
+      sequence[i] = i;
+    }
+    return sequence;
+  }
+
+  // stable merge sort of the order indices, the comparator sees two reused
+  // Order rows so sorting does not allocate per comparison
+  public int[] sortedSequence(Comparator<APSDemo.Order> c) {
+    return sortedSequence(c, indexOrder());
+  }
+
+  // sorts the given order indices in place and returns them, or the buffer
+  // the merge passes ended in
+  public int[] sortedSequence(Comparator<APSDemo.Order> c, int[] sequence) {
+    int n = sequence.length;
+    int[] tmp = new int[n];
+    APSDemo.Order a = new APSDemo.Order(0, null, 0, 0, 0, 0, 0);
+    APSDemo.Order b = new APSDemo.Order(0, null, 0, 0, 0, 0, 0);
+    for (int lo = 0; lo < n; lo += INSERTION_SORT_THRESHOLD) {
+      int hi = Math.min(lo + INSERTION_SORT_THRESHOLD, n);
+      for (int i = lo + 1; i < hi; i++) {
+        int pivot = sequence[i];
+        load(pivot, a);
+        int j = i - 1;
+        while (j >= lo) {
+          load(sequence[j], b);
+          if (c.compare(a, b) >= 0) {
+            break;
+          }
+          sequence[j + 1] = sequence[j];
+          j--;
+        }
+        sequence[j + 1] = pivot;
+      }
+    }
+    for (int width = INSERTION_SORT_THRESHOLD; width < n; width *= 2) {
+      for (int lo = 0; lo < n; lo += 2 * width) {
+        int mid = Math.min(lo + width, n);
+        int hi = Math.min(lo + 2 * width, n);
+        int l = lo, r = mid, k = lo;
+        while (l < mid && r < hi) {
+          load(sequence[r], a);
+          load(sequence[l], b);
+          tmp[k++] = c.compare(a, b) < 0 ? sequence[r++] : sequence[l++];
+        }
+        while (l < mid) {
+          tmp[k++] = sequence[l++];
+        }
+        while (r < hi) {
+          tmp[k++] = sequence[r++];
+        }
+      }
+      int[] swap = sequence;
+      sequence = tmp;
+      tmp = swap;
+    }
+    return sequence;
+  }
+}
@@ -0,0 +1,122 @@
+// Multi-start portfolio solver
+// every SORT_METHOD is combined with every Heuristic, each candidate runs on
+// its own copy of the machines in a worker pool and the best schedule under
+// the objective is kept, the others are dropped as soon as they are beaten
+
+package aps;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class PortfolioSolver {
+  // fewest late orders, then least switch time, then earliest makespan
+  public static final Comparator<ScheduleKpi> LATE_SWITCH_MAKESPAN =
+      Comparator.<ScheduleKpi>comparingLong(kpi -> kpi.late)
+          .thenComparingLong(kpi -> kpi.total_switch_time)
+          .thenComparingLong(kpi -> kpi.makespan);
+
+  public static class Result {
+    public final int sort_method;
+    public final Heuristic heuristic;
+    public final int[] sequence;
+    public final List<APSDemo.Machine> machines;
+    public final ScheduleKpi kpi;
+
+    Result(int sort_method, Heuristic heuristic, int[] sequence,
+           List<APSDemo.Machine> machines, ScheduleKpi kpi) {
+      this.sort_method = sort_method;
+      this.heuristic = heuristic;
+      this.sequence = sequence;
+      this.machines = machines;
+      this.kpi = kpi;
+    }
+  }
+
+  private final Comparator<ScheduleKpi> objective;
+  private final int threads;
+  private Result best;
+
+  public PortfolioSolver(Comparator<ScheduleKpi> objective, int threads) {
+    this.objective = objective;
+    this.threads = threads;
+  }
+
+  public PortfolioSolver() {
+    this(LATE_SWITCH_MAKESPAN, Runtime.getRuntime().availableProcessors());
+  }
+
+  // machines is the initial machine state and is not modified
+  public Result solve(final OrderTable orders, final SwitchMatrix switch_matrix,
+                      final List<APSDemo.Machine> machines) {
+    int[] sort_methods = new int[APSDemo.SORT_METHOD_NUM];
+    for (int i = 0; i < sort_methods.length; i++) {
+      sort_methods[i] = i;
+    }
+    return solve(orders, switch_matrix, machines, sort_methods,
+                 Heuristic.values());
+  }
+
+  public Result solve(final OrderTable orders, final SwitchMatrix switch_matrix,
+                      final List<APSDemo.Machine> machines,
+                      int[] sort_methods, Heuristic[] heuristics) {
+    best = null;
+    // every run forks the machines on a pool thread
+    for (APSDemo.Machine m : machines) {
+      m.freeze();
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      List<CompletableFuture<Void>> runs = new ArrayList<>();
+      for (int sort_method : sort_methods) {
+        // every heuristic of a sort method shares one sequence
+        CompletableFuture<int[]> sequence = CompletableFuture.supplyAsync(
+            () -> APSDemo.sortOrders(orders, sort_method), pool);
+        for (Heuristic heuristic : heuristics) {
+          runs.add(sequence.thenAcceptAsync(
+              s
+              -> run(orders, switch_matrix, machines, sort_method, heuristic,
+                     s),
+              pool));
+        }
+      }
+      CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0]))
+          .join();
+    } finally {
+      pool.shutdown();
+    }
+    return best;
+  }
+
+  private void run(final OrderTable orders, final SwitchMatrix switch_matrix,
+                   final List<APSDemo.Machine> machines, int sort_method,
+                   Heuristic heuristic, int[] sequence) {
+    List<APSDemo.Machine> candidate = new ArrayList<>(machines.size());
+    for (APSDemo.Machine m : machines) {
+      candidate.add(new APSDemo.Machine(m));
+    }
+    heuristic.schedule(orders, sequence, switch_matrix, candidate);
+    ScheduleKpi kpi =
+        ScheduleEvaluator.evaluate(switch_matrix, orders, candidate);
+    offer(new Result(sort_method, heuristic, sequence, candidate, kpi));
+  }
+
+  // ties go to the lower sort method, then the earlier heuristic, so the
+  // winner does not depend on which run finishes first
+  private synchronized void offer(Result result) {
+    if (best == null) {
+      best = result;
+      return;
+    }
+    int c = objective.compare(result.kpi, best.kpi);
+    if (c < 0 ||
+        (c == 0 && (result.sort_method < best.sort_method ||
+                    (result.sort_method == best.sort_method &&
+                     result.heuristic.ordinal() < best.heuristic.ordinal())))) {
+      best = result;
+    }
+  }
+}
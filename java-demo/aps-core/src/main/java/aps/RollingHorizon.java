@@ -0,0 +1,253 @@
+// Rolling horizon scheduling for long order books
+// the orders are cut by due date into windows of window_days, and each
+// window is dispatched together with the orders due in the first
+// overlap_days after it, so its last decisions see what comes next. only
+// the orders due inside the window are kept, the lookahead orders go back
+// to the next window, and the machines' end states carry over
+//
+// the windows run as a two stage pipeline: while window N is refined by
+// BranchAndBound.resequence on a second thread, window N+1 is dispatched
+// from N's unrefined end state. the refinement keeps every machine's last
+// order and never makes a machine finish later, so N+1 stays valid and
+// only moves up by the switch time N saved. a refined window is frozen,
+// handed to the listener and never touched again, so the first near-term
+// plan costs about one window however long the order book is
+
+package aps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+class RollingHorizon {
+  public static final int DEFAULT_WINDOW_DAYS = 7;
+  public static final int DEFAULT_OVERLAP_DAYS = 2;
+  // refinement budget per window, 0 to only dispatch
+  public static final long DEFAULT_REFINE_MS = 20;
+
+  // called on the scheduling thread as each window is frozen, machines hold
+  // the plan up to and including the window and are not written again
+  interface Listener {
+    void frozen(int window, int last_due_date, List<APSDemo.Machine> machines);
+  }
+
+  public static class Stats {
+    public int windows;
+    // lookahead orders handed back to the next window
+    public long deferred;
+    // exact windows replaced by the refinement
+    public int refined;
+    // time until the first window was frozen
+    public double first_plan_ms;
+  }
+
+  private final Heuristic heuristic;
+  private final OrderRanking ranking;
+  private final int window_days;
+  private final int overlap_days;
+  private final long refine_ms;
+
+  public RollingHorizon(Heuristic heuristic, OrderRanking ranking,
+                        int window_days, int overlap_days, long refine_ms) {
+    if (window_days < 1 || overlap_days < 0 || refine_ms < 0) {
+      throw new IllegalArgumentException("bad rolling horizon window " +
+                                         window_days + "+" + overlap_days);
+    }
+    this.heuristic = heuristic;
+    this.ranking = ranking;
+    this.window_days = window_days;
+    this.overlap_days = overlap_days;
+    this.refine_ms = refine_ms;
+  }
+
+  public RollingHorizon(Heuristic heuristic, OrderRanking ranking) {
+    this(heuristic, ranking, DEFAULT_WINDOW_DAYS, DEFAULT_OVERLAP_DAYS,
+         DEFAULT_REFINE_MS);
+  }
+
+  // appends every order to machines, window by window
+  public Stats schedule(final OrderTable orders,
+                        final SwitchMatrix switch_matrix,
+                        List<APSDemo.Machine> machines, Listener listener) {
+    Metrics.Span span =
+        Metrics.begin(Metrics.Phase.DISPATCH, "rolling_horizon", true);
+    long start = System.nanoTime();
+    Stats stats = new Stats();
+    List<int[]> windows = new ArrayList<>();
+    List<Integer> last_due_dates = new ArrayList<>();
+    cut(orders, windows, last_due_dates);
+    stats.windows = windows.size();
+
+    List<APSDemo.Machine> plan = copies(machines);
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      List<APSDemo.Machine> dispatched =
+          windows.isEmpty() ? plan
+                            : dispatch(orders, switch_matrix, plan, windows,
+                                       last_due_dates, 0, stats);
+      for (int w = 0; w < windows.size(); w++) {
+        // the window is the queue tail behind the frozen plan, its last
+        // order stays put so the next window can start from it
+        List<APSDemo.Machine> current = dispatched;
+        int[] from = new int[current.size()];
+        int[] to = new int[current.size()];
+        int[] unrefined = new int[current.size()];
+        for (int m = 0; m < current.size(); m++) {
+          from[m] = plan.get(m).orders_in_queue.size();
+          to[m] = Math.max(from[m], current.get(m).orders_in_queue.size() - 1);
+          unrefined[m] = current.get(m).finishing_time;
+        }
+        // forked before the refinement starts writing
+        List<APSDemo.Machine> base = copies(current);
+        CompletableFuture<Integer> refine =
+            CompletableFuture.completedFuture(0);
+        if (refine_ms > 0) {
+          refine = CompletableFuture.supplyAsync(
+              () -> BranchAndBound.resequence(orders, switch_matrix, current,
+                                              from, to,
+                                              BranchAndBound.DEFAULT_WINDOW,
+                                              refine_ms),
+              pool);
+        }
+        List<APSDemo.Machine> next =
+            w + 1 < windows.size()
+                ? dispatch(orders, switch_matrix, base, windows,
+                           last_due_dates, w + 1, stats)
+                : null;
+        stats.refined += refine.join();
+
+        plan = current;
+        if (w == 0) {
+          stats.first_plan_ms = (System.nanoTime() - start) / 1e6;
+        }
+        if (listener != null) {
+          listener.frozen(w, last_due_dates.get(w), plan);
+        }
+        if (next != null) {
+          dispatched = new ArrayList<>(next.size());
+          for (int m = 0; m < next.size(); m++) {
+            dispatched.add(rebase(plan.get(m), next.get(m),
+                                  unrefined[m] - plan.get(m).finishing_time));
+          }
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    for (int m = 0; m < machines.size(); m++) {
+      machines.get(m).orders_in_queue = plan.get(m).orders_in_queue;
+      machines.get(m).finishing_time = plan.get(m).finishing_time;
+    }
+    Metrics.end(span, orders.size());
+    return stats;
+  }
+
+  // buckets the order indices by due date, in index order inside a window,
+  // skipping empty windows
+  private void cut(final OrderTable orders, List<int[]> windows,
+                   List<Integer> last_due_dates) {
+    int n = orders.size();
+    if (n == 0) {
+      return;
+    }
+    int first_due = Integer.MAX_VALUE;
+    int last_due = Integer.MIN_VALUE;
+    for (int i = 0; i < n; i++) {
+      first_due = Math.min(first_due, orders.dueDate(i));
+      last_due = Math.max(last_due, orders.dueDate(i));
+    }
+    int window_num = (last_due - first_due) / window_days + 1;
+    int[] count = new int[window_num + 1];
+    for (int i = 0; i < n; i++) {
+      count[(orders.dueDate(i) - first_due) / window_days + 1]++;
+    }
+    for (int w = 0; w < window_num; w++) {
+      count[w + 1] += count[w];
+    }
+    int[] bucketed = new int[n];
+    int[] fill = Arrays.copyOf(count, window_num);
+    for (int i = 0; i < n; i++) {
+      bucketed[fill[(orders.dueDate(i) - first_due) / window_days]++] = i;
+    }
+    for (int w = 0; w < window_num; w++) {
+      if (count[w + 1] > count[w]) {
+        windows.add(Arrays.copyOfRange(bucketed, count[w], count[w + 1]));
+        last_due_dates.add(first_due + (w + 1) * window_days - 1);
+      }
+    }
+  }
+
+  // forks of base with window w appended, the lookahead orders are
+  // dispatched and then dropped again
+  private List<APSDemo.Machine> dispatch(final OrderTable orders,
+                                         final SwitchMatrix switch_matrix,
+                                         List<APSDemo.Machine> base,
+                                         List<int[]> windows,
+                                         List<Integer> last_due_dates, int w,
+                                         Stats stats) {
+    int last_due = last_due_dates.get(w);
+    int[] window = windows.get(w);
+    int size = window.length;
+    // the windows after w that start inside the overlap
+    for (int v = w + 1; v < windows.size(); v++) {
+      if (last_due_dates.get(v) - window_days >= last_due + overlap_days) {
+        break;
+      }
+      for (int o : windows.get(v)) {
+        if (orders.dueDate(o) <= last_due + overlap_days) {
+          if (size == window.length) {
+            window = Arrays.copyOf(window, Math.max(16, size * 2));
+          }
+          window[size++] = o;
+        }
+      }
+    }
+    window = Arrays.copyOf(window, size);
+    Arrays.sort(window);
+    int[] sequence = OrderSort.sort(orders, window, ranking, 1);
+
+    List<APSDemo.Machine> kept = copies(base);
+    heuristic.schedule(orders, sequence, switch_matrix, base);
+    for (int m = 0; m < base.size(); m++) {
+      APSDemo.Machine k = kept.get(m);
+      OrderQueue queue = base.get(m).orders_in_queue;
+      for (int i = k.orders_in_queue.size(); i < queue.size(); i++) {
+        int o = queue.get(i);
+        if (orders.dueDate(o) > last_due) {
+          stats.deferred++;
+          continue;
+        }
+        k.finishing_time +=
+            orders.quantity(o) / k.machine_product_per_hour +
+            APSDemo.getSwitchTime(switch_matrix, orders, k.getLastOrder(), o);
+        k.orders_in_queue.add(o);
+      }
+    }
+    return kept;
+  }
+
+  // frozen followed by the orders next appended after it, moved up by the
+  // switch time the refinement saved
+  private static APSDemo.Machine rebase(APSDemo.Machine frozen,
+                                        APSDemo.Machine next, int saved) {
+    APSDemo.Machine m = new APSDemo.Machine(frozen);
+    OrderQueue queue = next.orders_in_queue;
+    for (int i = m.orders_in_queue.size(); i < queue.size(); i++) {
+      m.orders_in_queue.add(queue.get(i));
+    }
+    m.finishing_time = next.finishing_time - saved;
+    return m;
+  }
+
+  private static List<APSDemo.Machine> copies(List<APSDemo.Machine> machines) {
+    List<APSDemo.Machine> copies = new ArrayList<>(machines.size());
+    for (APSDemo.Machine m : machines) {
+      copies.add(new APSDemo.Machine(m));
+    }
+    return copies;
+  }
+}
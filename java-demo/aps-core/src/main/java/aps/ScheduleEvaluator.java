@@ -0,0 +1,202 @@
+// Parallel schedule evaluation
+// machines are split into ranges of roughly LEAF_ORDERS orders that are
+// evaluated on the fork-join pool with primitive counters and merged at join,
+// nothing is allocated per order. without a pool everything runs on the
+// calling thread, e.g. one that holds a CPU permit
+//
+// with release_dates an order starts no earlier than its earlest_start_date,
+// the machine idles until then, see EventDispatcher
+
+package aps;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+class ScheduleEvaluator {
+  // orders below which a machine range is evaluated on one thread
+  public static final int LEAF_ORDERS = 1 << 16;
+
+  public static ScheduleKpi evaluate(final SwitchMatrix switch_matrix,
+                                     final OrderTable orders,
+                                     final List<APSDemo.Machine> machines) {
+    return evaluate(switch_matrix, orders, machines, false);
+  }
+
+  public static ScheduleKpi evaluate(final SwitchMatrix switch_matrix,
+                                     final OrderTable orders,
+                                     final List<APSDemo.Machine> machines,
+                                     boolean release_dates) {
+    return evaluate(switch_matrix, orders, machines, release_dates,
+                    ForkJoinPool.commonPool());
+  }
+
+  public static ScheduleKpi evaluate(final SwitchMatrix switch_matrix,
+                                     final OrderTable orders,
+                                     final List<APSDemo.Machine> machines,
+                                     ForkJoinPool pool) {
+    return evaluate(switch_matrix, orders, machines, false, pool);
+  }
+
+  // pool null evaluates on the calling thread
+  public static ScheduleKpi evaluate(final SwitchMatrix switch_matrix,
+                                     final OrderTable orders,
+                                     final List<APSDemo.Machine> machines,
+                                     boolean release_dates, ForkJoinPool pool) {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.EVALUATE,
+                                      release_dates ? "released" : "schedule",
+                                      pool != null);
+    ScheduleKpi kpi = new ScheduleKpi(machines.size());
+    EvaluateTask task =
+        new EvaluateTask(switch_matrix, orders, machines, release_dates, kpi,
+                         pool == null ? Long.MAX_VALUE : LEAF_ORDERS, 0,
+                         machines.size());
+    Counters counters = pool == null ? task.compute() : pool.invoke(task);
+    kpi.on_time = counters.on_time;
+    kpi.late = counters.late;
+    kpi.total_tardiness = counters.total_tardiness;
+    kpi.ineligible = counters.ineligible;
+    kpi.tardiness_histogram = counters.tardiness_histogram;
+    machineTotals(kpi);
+    Metrics.end(span, kpi.orderNum());
+    return kpi;
+  }
+
+  // the totals, minimums, maximums and makespan of kpi from its per machine
+  // times
+  static void machineTotals(ScheduleKpi kpi) {
+    int machine_num = kpi.machineNum();
+    kpi.total_switch_time = 0;
+    kpi.total_work_time = 0;
+    kpi.total_idle_time = 0;
+    kpi.max_switch_time = 0;
+    kpi.max_work_time = 0;
+    kpi.makespan = 0;
+    kpi.min_switch_time = machine_num == 0 ? 0 : Integer.MAX_VALUE;
+    kpi.min_work_time = machine_num == 0 ? 0 : Integer.MAX_VALUE;
+    for (int i = 0; i < machine_num; i++) {
+      int switch_time = kpi.machine_switch_time[i];
+      int work_time = kpi.machine_work_time[i];
+      int idle_time = kpi.machine_idle_time[i];
+      kpi.total_switch_time += switch_time;
+      kpi.total_work_time += work_time;
+      kpi.total_idle_time += idle_time;
+      kpi.min_switch_time = Math.min(kpi.min_switch_time, switch_time);
+      kpi.max_switch_time = Math.max(kpi.max_switch_time, switch_time);
+      kpi.min_work_time = Math.min(kpi.min_work_time, work_time);
+      kpi.max_work_time = Math.max(kpi.max_work_time, work_time);
+      kpi.makespan =
+          Math.max(kpi.makespan, (long)switch_time + work_time + idle_time);
+    }
+  }
+
+  // order counters of one machine range
+  private static final class Counters {
+    long on_time;
+    long late;
+    long total_tardiness;
+    long ineligible;
+    long[] tardiness_histogram = new long[ScheduleKpi.TARDINESS_BUCKETS];
+
+    Counters merge(Counters c) {
+      on_time += c.on_time;
+      late += c.late;
+      total_tardiness += c.total_tardiness;
+      ineligible += c.ineligible;
+      for (int i = 0; i < tardiness_histogram.length; i++) {
+        tardiness_histogram[i] += c.tardiness_histogram[i];
+      }
+      return this;
+    }
+  }
+
+  private static final class EvaluateTask extends RecursiveTask<Counters> {
+    private static final long serialVersionUID = 1L;
+
+    private final SwitchMatrix switch_matrix;
+    private final OrderTable orders;
+    private final List<APSDemo.Machine> machines;
+    private final boolean release_dates;
+    private final ScheduleKpi kpi;
+    private final long leaf_orders;
+    private final int lo;
+    private final int hi;
+
+    EvaluateTask(SwitchMatrix switch_matrix, OrderTable orders,
+                 List<APSDemo.Machine> machines, boolean release_dates,
+                 ScheduleKpi kpi, long leaf_orders, int lo, int hi) {
+      this.switch_matrix = switch_matrix;
+      this.orders = orders;
+      this.machines = machines;
+      this.release_dates = release_dates;
+      this.kpi = kpi;
+      this.leaf_orders = leaf_orders;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected Counters compute() {
+      long order_num = 0;
+      for (int i = lo; i < hi; i++) {
+        order_num += machines.get(i).orders_in_queue.size();
+      }
+      if (hi - lo > 1 && order_num > leaf_orders) {
+        int mid = (lo + hi) >>> 1;
+        EvaluateTask left =
+            new EvaluateTask(switch_matrix, orders, machines, release_dates,
+                             kpi, leaf_orders, lo, mid);
+        left.fork();
+        Counters right =
+            new EvaluateTask(switch_matrix, orders, machines, release_dates,
+                             kpi, leaf_orders, mid, hi)
+                .compute();
+        return left.join().merge(right);
+      }
+      Counters counters = new Counters();
+      for (int i = lo; i < hi; i++) {
+        evaluateMachine(i, counters);
+      }
+      return counters;
+    }
+
+    private void evaluateMachine(int i, Counters counters) {
+      APSDemo.Machine m = machines.get(i);
+      OrderQueue queue = m.orders_in_queue;
+      int previous_order_type = -1;
+      int work_time = 0;
+      int switch_time = 0;
+      int idle_time = 0;
+      for (int k = 0; k < queue.size(); k++) {
+        int o = queue.get(k);
+        int product_type = orders.productType(o);
+        if (!m.canRun(product_type)) {
+          counters.ineligible++;
+        }
+        if (release_dates) {
+          int release = orders.earlestStartDate(o) * 24;
+          idle_time += Math.max(0, release - work_time - switch_time -
+                                       idle_time);
+        }
+        work_time += orders.quantity(o) / m.machine_product_per_hour;
+        if (previous_order_type != -1) {
+          switch_time += switch_matrix.get(previous_order_type, product_type);
+        }
+        int tardiness =
+            work_time + switch_time + idle_time - orders.dueDate(o) * 24;
+        if (tardiness > 0) {
+          counters.late++;
+          counters.total_tardiness += tardiness;
+          counters.tardiness_histogram[Math.min(
+              tardiness / 24, ScheduleKpi.TARDINESS_BUCKETS - 1)]++;
+        } else {
+          counters.on_time++;
+        }
+        previous_order_type = product_type;
+      }
+      kpi.machine_switch_time[i] = switch_time;
+      kpi.machine_work_time[i] = work_time;
+      kpi.machine_idle_time[i] = idle_time;
+    }
+  }
+}
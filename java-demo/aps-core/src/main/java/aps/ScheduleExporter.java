@@ -0,0 +1,143 @@
+// Streaming schedule export
+// one row per assignment (long format) instead of one padded row per
+// machine, written through a direct buffer to a FileChannel and formatted
+// byte by byte so nothing is allocated per row
+//
+// CSV: CSV_HEADER, then one line per order in queue order of each machine
+// binary: BINARY_MAGIC, BINARY_VERSION, then the seven CSV columns as
+// little-endian ints per order
+// switch time is the switch from the previous order on the machine, the
+// start hour is when that switch begins
+
+package aps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+class ScheduleExporter {
+  public static final String CSV_HEADER =
+      "Machine ID,Machine Product Per Hour,Order ID,Quantity,Switch Time," +
+      "Start Hour,End Hour\n";
+  public static final int BINARY_MAGIC = 0x53535041; // "APSS"
+  public static final int BINARY_VERSION = 1;
+  public static final int BINARY_RECORD_BYTES = 7 * Integer.BYTES;
+  private static final int BUFFER_BYTES = 1 << 20;
+  // longest int plus separator
+  private static final int MAX_CELL_BYTES = 12;
+
+  public static void writeCsv(final SwitchMatrix switch_matrix,
+                              final OrderTable orders,
+                              final List<APSDemo.Machine> machines, Path path)
+      throws IOException {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.EXPORT, "csv");
+    try (FileChannel channel = create(path)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+      for (int i = 0; i < CSV_HEADER.length(); i++) {
+        buffer.put((byte)CSV_HEADER.charAt(i));
+      }
+      byte[] digits = new byte[MAX_CELL_BYTES];
+      for (APSDemo.Machine m : machines) {
+        OrderQueue queue = m.orders_in_queue;
+        int previous = -1;
+        int current_time = 0;
+        for (int k = 0; k < queue.size(); k++) {
+          int o = queue.get(k);
+          int switch_time =
+              APSDemo.getSwitchTime(switch_matrix, orders, previous, o);
+          int end_time = current_time + switch_time +
+                         orders.quantity(o) / m.machine_product_per_hour;
+          if (buffer.remaining() < 7 * MAX_CELL_BYTES) {
+            OrderFile.drain(channel, buffer);
+          }
+          putInt(buffer, m.machine_id, digits, (byte)',');
+          putInt(buffer, m.machine_product_per_hour, digits, (byte)',');
+          putInt(buffer, orders.orderId(o), digits, (byte)',');
+          putInt(buffer, orders.quantity(o), digits, (byte)',');
+          putInt(buffer, switch_time, digits, (byte)',');
+          putInt(buffer, current_time, digits, (byte)',');
+          putInt(buffer, end_time, digits, (byte)'\n');
+          current_time = end_time;
+          previous = o;
+        }
+      }
+      OrderFile.drain(channel, buffer);
+    }
+    Metrics.end(span, orderNum(machines));
+  }
+
+  public static void writeBinary(final SwitchMatrix switch_matrix,
+                                 final OrderTable orders,
+                                 final List<APSDemo.Machine> machines,
+                                 Path path) throws IOException {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.EXPORT, "binary");
+    try (FileChannel channel = create(path)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES)
+                              .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(BINARY_MAGIC).putInt(BINARY_VERSION);
+      for (APSDemo.Machine m : machines) {
+        OrderQueue queue = m.orders_in_queue;
+        int previous = -1;
+        int current_time = 0;
+        for (int k = 0; k < queue.size(); k++) {
+          int o = queue.get(k);
+          int switch_time =
+              APSDemo.getSwitchTime(switch_matrix, orders, previous, o);
+          int end_time = current_time + switch_time +
+                         orders.quantity(o) / m.machine_product_per_hour;
+          if (buffer.remaining() < BINARY_RECORD_BYTES) {
+            OrderFile.drain(channel, buffer);
+          }
+          buffer.putInt(m.machine_id)
+              .putInt(m.machine_product_per_hour)
+              .putInt(orders.orderId(o))
+              .putInt(orders.quantity(o))
+              .putInt(switch_time)
+              .putInt(current_time)
+              .putInt(end_time);
+          current_time = end_time;
+          previous = o;
+        }
+      }
+      OrderFile.drain(channel, buffer);
+    }
+    Metrics.end(span, orderNum(machines));
+  }
+
+  private static long orderNum(final List<APSDemo.Machine> machines) {
+    long n = 0;
+    for (APSDemo.Machine m : machines) {
+      n += m.orders_in_queue.size();
+    }
+    return n;
+  }
+
+  private static FileChannel create(Path path) throws IOException {
+    return FileChannel.open(path, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  // decimal digits of v followed by separator, digits is scratch space
+  static void putInt(ByteBuffer buffer, int v, byte[] digits,
+                     byte separator) {
+    long value = v;
+    if (value < 0) {
+      buffer.put((byte)'-');
+      value = -value;
+    }
+    int n = 0;
+    do {
+      digits[n++] = (byte)('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    while (n > 0) {
+      buffer.put(digits[--n]);
+    }
+    buffer.put(separator);
+  }
+}
@@ -0,0 +1,54 @@
+// Result of evaluating a schedule
+// times are in hours, a machine's time starts at 0 and the order finishes
+// after its own work time and every work and switch time before it
+
+package aps;
+
+class ScheduleKpi {
+  // bucket i counts late orders that are i days late, the last one
+  // counts everything later
+  public static final int TARDINESS_BUCKETS = 32;
+
+  public int[] machine_switch_time;
+  public int[] machine_work_time;
+  // hours spent waiting for releases, only counted with release dates
+  public int[] machine_idle_time;
+  public long total_switch_time;
+  public long total_work_time;
+  public long total_idle_time;
+  public int min_switch_time;
+  public int max_switch_time;
+  public int min_work_time;
+  public int max_work_time;
+  // latest machine finish, work, switch and idle time included
+  public long makespan;
+  public long on_time;
+  public long late;
+  // sum of hours past the due date over the late orders
+  public long total_tardiness;
+  public long[] tardiness_histogram;
+  // orders on a machine that cannot run their product type
+  public long ineligible;
+
+  public ScheduleKpi(int machine_num) {
+    machine_switch_time = new int[machine_num];
+    machine_work_time = new int[machine_num];
+    machine_idle_time = new int[machine_num];
+    tardiness_histogram = new long[TARDINESS_BUCKETS];
+  }
+
+  public int machineNum() { return machine_switch_time.length; }
+
+  public long orderNum() { return on_time + late; }
+
+  // percent of busy time spent on work rather than switching
+  public double utilization() {
+    return (double)total_work_time / (total_work_time + total_switch_time) *
+        100;
+  }
+
+  public double machineUtilization(int i) {
+    return (double)machine_work_time[i] /
+        (machine_work_time[i] + machine_switch_time[i]) * 100;
+  }
+}
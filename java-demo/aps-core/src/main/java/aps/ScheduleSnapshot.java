@@ -0,0 +1,599 @@
+// Memory-mapped schedule snapshot
+// one file with the orders, the switch matrix, every machine with its
+// finishing time and queue (as order ids) and the KPI totals, so a restarted
+// process picks up the plan instead of scheduling from zero
+//
+// layout, little-endian ints unless noted:
+//   two header slots of HEADER_BYTES each: MAGIC, VERSION, CRC32C of slot
+//     bytes 12 .. HEADER_BYTES, sequence, order, type, machine and queued
+//     order counts, offset of the state record, end of the last record,
+//     then longs on_time, late, total_switch_time, total_work_time,
+//     total_idle_time, total_tardiness, makespan
+//   records from 2 * HEADER_BYTES on: kind, payload bytes, CRC32C of the
+//     payload, then the payload
+//   matrix record: type_num * type_num cells, row-major
+//   orders record: first row, row count, then the six OrderFile columns of
+//     those rows, one column after the other
+//   state record: machine_id, machine_product_per_hour, finishing_time,
+//     queue length and eligible type count (-1 for every type) per machine,
+//     eligible types of each machine, queued order ids of each machine,
+//     names as byte length (-1 for null) and UTF-8 bytes per machine
+//
+// write puts the matrix, all orders and the state in a temporary file
+// through one mapping and moves it over the old snapshot. a Writer keeps an
+// online plan on disk: each append adds only the order rows inserted since
+// the last one and a new state record, forces them, then commits the other
+// header slot, so a reader never sees half a plan and a torn header falls
+// back to the plan before. once replaced state records fill half the file it
+// is written again from scratch. open only maps the file and picks the
+// newest valid header, the KPIs are read from it directly and the records
+// are materialized (and their checksums verified) on first use
+
+package aps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+class ScheduleSnapshot {
+  public static final int MAGIC = 0x4e535041; // "APSN"
+  public static final int VERSION = 2;
+  public static final int HEADER_BYTES = 96;
+  public static final int RECORD_BYTES = 12;
+  private static final int DATA_OFFSET = 2 * HEADER_BYTES;
+  private static final int MATRIX = 1;
+  private static final int ORDERS = 2;
+  private static final int STATE = 3;
+  private static final int MACHINE_FIELDS = 5;
+
+  // keeps the plan of an OnlineScheduler on disk, call append after each
+  // batch. rows of the scheduler's orders are only ever added, so the rows
+  // written before are not written again
+  public static class Writer implements Closeable {
+    private final OnlineScheduler scheduler;
+    private final Path path;
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private int sequence;
+    private int order_num;
+    private int end;
+    private int state_bytes;
+    // bytes of state records a later append replaced
+    private int stale;
+
+    public Writer(OnlineScheduler scheduler, Path path) throws IOException {
+      this.scheduler = scheduler;
+      this.path = path;
+      rewrite();
+    }
+
+    public void append() throws IOException {
+      OrderTable orders = scheduler.orders();
+      List<APSDemo.Machine> machines = scheduler.machines();
+      List<byte[]> names = names(machines);
+      long rows = orders.size() > order_num
+                      ? RECORD_BYTES + 8 + 24L * (orders.size() - order_num)
+                      : 0;
+      long state = RECORD_BYTES + stateBytes(machines, names);
+      long size = end + rows + state;
+      if (size > Integer.MAX_VALUE || 2L * (stale + state_bytes) > size) {
+        rewrite();
+        return;
+      }
+      Metrics.Span span = Metrics.begin(Metrics.Phase.EXPORT, "snapshot");
+      MappedByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_WRITE, end, rows + state);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      int b = rows > 0 ? putOrders(buffer, 0, orders, order_num) : 0;
+      int e = putState(buffer, b, orders, machines, names);
+      buffer.force();
+
+      sequence++;
+      putHeader(header, (sequence & 1) * HEADER_BYTES, sequence, orders.size(),
+                scheduler.switchMatrix().size(), machines, end + b, end + e,
+                kpi(scheduler));
+      header.force();
+      stale += state_bytes;
+      state_bytes = (int)state;
+      order_num = orders.size();
+      end += e;
+      Metrics.end(span, orders.size());
+    }
+
+    public void close() throws IOException {
+      channel.close();
+    }
+
+    // bytes of the file, replaced state records included
+    public int size() { return end; }
+
+    private void rewrite() throws IOException {
+      if (channel != null) {
+        channel.close();
+      }
+      end = write(scheduler.switchMatrix(), scheduler.orders(),
+                  scheduler.machines(), kpi(scheduler), path);
+      channel = FileChannel.open(path, StandardOpenOption.READ,
+                                 StandardOpenOption.WRITE);
+      header = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA_OFFSET);
+      header.order(ByteOrder.LITTLE_ENDIAN);
+      sequence = 0;
+      order_num = scheduler.orders().size();
+      state_bytes = end - header.getInt(32);
+      stale = 0;
+    }
+  }
+
+  private final Path path;
+  private final ByteBuffer buffer;
+  // offset of the header slot in use
+  private final int header;
+  private final int order_num;
+  private final int type_num;
+  private final int machine_num;
+  private final int queued_num;
+  private final int state;
+  private final int end;
+  private boolean verified;
+  private int matrix_offset;
+  private final List<Integer> order_offsets = new ArrayList<>();
+  private OrderTable orders;
+  private SwitchMatrix switch_matrix;
+  private List<APSDemo.Machine> machines;
+
+  private ScheduleSnapshot(Path path, ByteBuffer buffer, int header) {
+    this.path = path;
+    this.buffer = buffer;
+    this.header = header;
+    order_num = buffer.getInt(header + 16);
+    type_num = buffer.getInt(header + 20);
+    machine_num = buffer.getInt(header + 24);
+    queued_num = buffer.getInt(header + 28);
+    state = buffer.getInt(header + 32);
+    end = buffer.getInt(header + 36);
+  }
+
+  // snapshot of an evaluated schedule
+  public static void write(final SwitchMatrix switch_matrix,
+                           final OrderTable orders,
+                           final List<APSDemo.Machine> machines,
+                           final ScheduleKpi kpi, Path path)
+      throws IOException {
+    write(switch_matrix, orders, machines,
+          new long[] {kpi.on_time, kpi.late, kpi.total_switch_time,
+                      kpi.total_work_time, kpi.total_idle_time,
+                      kpi.total_tardiness, kpi.makespan},
+          path);
+  }
+
+  // checks the header only, the records are verified on first use
+  public static ScheduleSnapshot open(Path path) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel =
+             FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < DATA_OFFSET || size > Integer.MAX_VALUE) {
+        throw new IOException("Not a snapshot: " + path);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    boolean magic = false;
+    int header = -1;
+    for (int slot = 0; slot < DATA_OFFSET; slot += HEADER_BYTES) {
+      if (buffer.getInt(slot) != MAGIC) {
+        continue;
+      }
+      magic = true;
+      if (buffer.getInt(slot + 4) != VERSION) {
+        throw new IOException("Unsupported snapshot version " +
+                              buffer.getInt(slot + 4) + ": " + path);
+      }
+      if (buffer.getInt(slot + 8) ==
+              crc(buffer, slot + 12, slot + HEADER_BYTES) &&
+          (header < 0 ||
+           buffer.getInt(slot + 12) - buffer.getInt(header + 12) > 0)) {
+        header = slot;
+      }
+    }
+    if (!magic) {
+      throw new IOException("Not a snapshot: " + path);
+    }
+    if (header < 0) {
+      throw new IOException("Corrupt snapshot header: " + path);
+    }
+    ScheduleSnapshot snapshot = new ScheduleSnapshot(path, buffer, header);
+    int state = snapshot.state;
+    if (snapshot.end > buffer.limit() || state < DATA_OFFSET ||
+        state > snapshot.end - RECORD_BYTES ||
+        buffer.getInt(state) != STATE ||
+        buffer.getInt(state + 4) != snapshot.end - state - RECORD_BYTES ||
+        snapshot.eligibleOffset() > snapshot.end ||
+        snapshot.namesOffset() > snapshot.end) {
+      throw new IOException("Truncated snapshot: " + path);
+    }
+    return snapshot;
+  }
+
+  public int orderNum() { return order_num; }
+
+  public int typeNum() { return type_num; }
+
+  public int machineNum() { return machine_num; }
+
+  // orders on the machines, the rest of the orders are not scheduled
+  public int queuedNum() { return queued_num; }
+
+  // header commits since the file was last written from scratch
+  public int sequence() { return buffer.getInt(header + 12); }
+
+  public long onTime() { return buffer.getLong(header + 40); }
+
+  public long late() { return buffer.getLong(header + 48); }
+
+  public long totalSwitchTime() { return buffer.getLong(header + 56); }
+
+  public long totalWorkTime() { return buffer.getLong(header + 64); }
+
+  public long totalIdleTime() { return buffer.getLong(header + 72); }
+
+  public long totalTardiness() { return buffer.getLong(header + 80); }
+
+  public long makespan() { return buffer.getLong(header + 88); }
+
+  // checks the checksum of every record the header covers, once. state
+  // records an append replaced are skipped
+  public synchronized void verify() throws IOException {
+    if (verified) {
+      return;
+    }
+    matrix_offset = -1;
+    order_offsets.clear();
+    int rows = 0;
+    for (int b = DATA_OFFSET; b < state;) {
+      int payload = b + RECORD_BYTES;
+      int length = payload > state ? -1 : buffer.getInt(b + 4);
+      if (length < 0 || length > state - payload) {
+        throw new IOException("Corrupt snapshot record at " + b + ": " +
+                              path);
+      }
+      int kind = buffer.getInt(b);
+      if (kind == MATRIX || kind == ORDERS) {
+        checkRecord(b);
+      }
+      if (kind == MATRIX && matrix_offset < 0 &&
+          length == 4 * type_num * type_num) {
+        matrix_offset = payload;
+      } else if (kind == ORDERS && buffer.getInt(payload) == rows &&
+                 length == 8 + 24L * buffer.getInt(payload + 4)) {
+        order_offsets.add(payload);
+        rows += buffer.getInt(payload + 4);
+      } else if (kind != STATE) {
+        throw new IOException("Corrupt snapshot record at " + b + ": " +
+                              path);
+      }
+      b = payload + length;
+    }
+    checkRecord(state);
+    if (matrix_offset < 0 || rows != order_num) {
+      throw new IOException("Corrupt snapshot: " + path);
+    }
+    verified = true;
+  }
+
+  public synchronized OrderTable orders() throws IOException {
+    if (orders == null) {
+      verify();
+      Metrics.Span span = Metrics.begin(Metrics.Phase.INGEST, "snapshot");
+      OrderTable table = new OrderTable(Math.max(order_num, 16));
+      for (int payload : order_offsets) {
+        int count = buffer.getInt(payload + 4);
+        int column = count * Integer.BYTES;
+        for (int i = 0, b = payload + 8; i < count; i++, b += 4) {
+          table.add(buffer.getInt(b), buffer.getInt(b + column),
+                    buffer.getInt(b + 2 * column),
+                    buffer.getInt(b + 3 * column),
+                    buffer.getInt(b + 4 * column),
+                    buffer.getInt(b + 5 * column));
+        }
+      }
+      Metrics.end(span, order_num);
+      orders = table;
+    }
+    return orders;
+  }
+
+  public synchronized SwitchMatrix switchMatrix() throws IOException {
+    if (switch_matrix == null) {
+      verify();
+      SwitchMatrix matrix = new SwitchMatrix(type_num);
+      int b = matrix_offset;
+      for (int from = 0; from < type_num; from++) {
+        for (int to = 0; to < type_num; to++, b += 4) {
+          matrix.set(from, to, buffer.getInt(b));
+        }
+      }
+      switch_matrix = matrix;
+    }
+    return switch_matrix;
+  }
+
+  // queues hold indices into orders(), an id that appears more than once
+  // maps to its last row
+  public synchronized List<APSDemo.Machine> machines() throws IOException {
+    if (machines == null) {
+      OrderTable table = orders();
+      IntIntMap order_index = new IntIntMap(order_num);
+      for (int o = 0; o < order_num; o++) {
+        order_index.put(table.orderId(o), o);
+      }
+      List<APSDemo.Machine> list = new ArrayList<>(machine_num);
+      int b = machinesOffset();
+      int eligible = eligibleOffset();
+      int queued = queuedOffset();
+      int name = namesOffset();
+      for (int i = 0; i < machine_num; i++, b += MACHINE_FIELDS * 4) {
+        int name_length = buffer.getInt(name);
+        String n = null;
+        if (name_length >= 0) {
+          byte[] bytes = new byte[name_length];
+          buffer.get(name + 4, bytes);
+          n = new String(bytes, StandardCharsets.UTF_8);
+        }
+        name += 4 + align(Math.max(name_length, 0));
+        APSDemo.Machine m = new APSDemo.Machine(
+            buffer.getInt(b), n, buffer.getInt(b + 8), buffer.getInt(b + 4));
+        int eligible_num = buffer.getInt(b + 16);
+        if (eligible_num >= 0) {
+          m.eligible_types = new SparseBitSet(type_num);
+          for (int k = 0; k < eligible_num; k++, eligible += 4) {
+            m.eligible_types.set(buffer.getInt(eligible));
+          }
+        }
+        int queue_length = buffer.getInt(b + 12);
+        for (int k = 0; k < queue_length; k++, queued += 4) {
+          int o = order_index.get(buffer.getInt(queued));
+          if (o == IntIntMap.MISSING) {
+            throw new IOException("Snapshot queues unknown order " +
+                                  buffer.getInt(queued) + ": " + path);
+          }
+          m.orders_in_queue.add(o);
+        }
+        list.add(m);
+      }
+      machines = list;
+    }
+    return machines;
+  }
+
+  // a scheduler that continues the snapshot plan, later inserts go to the
+  // restored orders and machines
+  public OnlineScheduler restore() throws IOException {
+    return new OnlineScheduler(orders(), switchMatrix(), machines());
+  }
+
+  // the running totals of the scheduler, so nothing is evaluated again
+  private static long[] kpi(final OnlineScheduler scheduler) {
+    long makespan = 0;
+    for (APSDemo.Machine m : scheduler.machines()) {
+      makespan = Math.max(makespan, m.finishing_time);
+    }
+    return new long[] {scheduler.onTime(), scheduler.late(),
+                       scheduler.totalSwitchTime(), scheduler.totalWorkTime(),
+                       0, scheduler.totalTardiness(), makespan};
+  }
+
+  // returns the file size
+  private static int write(final SwitchMatrix switch_matrix,
+                           final OrderTable orders,
+                           final List<APSDemo.Machine> machines,
+                           final long[] kpi, Path path) throws IOException {
+    Metrics.Span span = Metrics.begin(Metrics.Phase.EXPORT, "snapshot");
+    int type_num = switch_matrix.size();
+    List<byte[]> names = names(machines);
+    long size = DATA_OFFSET + RECORD_BYTES + 4L * type_num * type_num +
+                RECORD_BYTES + 8 + 24L * orders.size() + RECORD_BYTES +
+                stateBytes(machines, names);
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot of " + size + " bytes is too large");
+    }
+
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(
+             tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      MappedByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      int b = DATA_OFFSET + RECORD_BYTES;
+      for (int from = 0; from < type_num; from++) {
+        for (int to = 0; to < type_num; to++, b += 4) {
+          buffer.putInt(b, switch_matrix.get(from, to));
+        }
+      }
+      record(buffer, DATA_OFFSET, MATRIX, b);
+      b = putOrders(buffer, b, orders, 0);
+      int state = b;
+      b = putState(buffer, b, orders, machines, names);
+      putHeader(buffer, 0, 0, orders.size(), type_num, machines, state, b,
+                kpi);
+      buffer.force();
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+    Metrics.end(span, orders.size());
+    return (int)size;
+  }
+
+  private static void putHeader(ByteBuffer buffer, int slot, int sequence,
+                                int order_num, int type_num,
+                                final List<APSDemo.Machine> machines,
+                                int state, int end, final long[] kpi) {
+    int queued_num = 0;
+    for (APSDemo.Machine m : machines) {
+      queued_num += m.orders_in_queue.size();
+    }
+    buffer.putInt(slot, MAGIC)
+        .putInt(slot + 4, VERSION)
+        .putInt(slot + 12, sequence)
+        .putInt(slot + 16, order_num)
+        .putInt(slot + 20, type_num)
+        .putInt(slot + 24, machines.size())
+        .putInt(slot + 28, queued_num)
+        .putInt(slot + 32, state)
+        .putInt(slot + 36, end);
+    for (int k = 0; k < kpi.length; k++) {
+      buffer.putLong(slot + 40 + 8 * k, kpi[k]);
+    }
+    buffer.putInt(slot + 8, crc(buffer, slot + 12, slot + HEADER_BYTES));
+  }
+
+  // rows from first on as one orders record at b, returns its end
+  private static int putOrders(ByteBuffer buffer, int b,
+                               final OrderTable orders, int first) {
+    int at = b;
+    b += RECORD_BYTES;
+    buffer.putInt(b, first).putInt(b + 4, orders.size() - first);
+    b += 8;
+    for (int i = first; i < orders.size(); i++, b += 4) {
+      buffer.putInt(b, orders.orderId(i));
+    }
+    for (int i = first; i < orders.size(); i++, b += 4) {
+      buffer.putInt(b, orders.quantity(i));
+    }
+    for (int i = first; i < orders.size(); i++, b += 4) {
+      buffer.putInt(b, orders.dueDate(i));
+    }
+    for (int i = first; i < orders.size(); i++, b += 4) {
+      buffer.putInt(b, orders.priority(i));
+    }
+    for (int i = first; i < orders.size(); i++, b += 4) {
+      buffer.putInt(b, orders.earlestStartDate(i));
+    }
+    for (int i = first; i < orders.size(); i++, b += 4) {
+      buffer.putInt(b, orders.productType(i));
+    }
+    record(buffer, at, ORDERS, b);
+    return b;
+  }
+
+  // the state record at b, returns its end
+  private static int putState(ByteBuffer buffer, int b,
+                              final OrderTable orders,
+                              final List<APSDemo.Machine> machines,
+                              final List<byte[]> names) {
+    int at = b;
+    b += RECORD_BYTES;
+    for (APSDemo.Machine m : machines) {
+      buffer.putInt(b, m.machine_id)
+          .putInt(b + 4, m.machine_product_per_hour)
+          .putInt(b + 8, m.finishing_time)
+          .putInt(b + 12, m.orders_in_queue.size())
+          .putInt(b + 16, m.eligible_types == null
+                              ? -1
+                              : m.eligible_types.cardinality());
+      b += MACHINE_FIELDS * 4;
+    }
+    for (APSDemo.Machine m : machines) {
+      SparseBitSet types = m.eligible_types;
+      if (types != null) {
+        for (int t = types.nextSetBit(0); t >= 0;
+             t = types.nextSetBit(t + 1), b += 4) {
+          buffer.putInt(b, t);
+        }
+      }
+    }
+    for (APSDemo.Machine m : machines) {
+      OrderQueue queue = m.orders_in_queue;
+      for (int k = 0; k < queue.size(); k++, b += 4) {
+        buffer.putInt(b, orders.orderId(queue.get(k)));
+      }
+    }
+    for (byte[] name : names) {
+      buffer.putInt(b, name == null ? -1 : name.length);
+      if (name != null) {
+        buffer.put(b + 4, name);
+      }
+      b += 4 + align(name == null ? 0 : name.length);
+    }
+    record(buffer, at, STATE, b);
+    return b;
+  }
+
+  // kind, length and checksum of the record at b whose payload ends at end
+  private static void record(ByteBuffer buffer, int b, int kind, int end) {
+    buffer.putInt(b, kind)
+        .putInt(b + 4, end - b - RECORD_BYTES)
+        .putInt(b + 8, crc(buffer, b + RECORD_BYTES, end));
+  }
+
+  private void checkRecord(int b) throws IOException {
+    int payload = b + RECORD_BYTES;
+    if (buffer.getInt(b + 8) !=
+        crc(buffer, payload, payload + buffer.getInt(b + 4))) {
+      throw new IOException("Corrupt snapshot record at " + b + ": " + path);
+    }
+  }
+
+  private static List<byte[]> names(final List<APSDemo.Machine> machines) {
+    List<byte[]> names = new ArrayList<>(machines.size());
+    for (APSDemo.Machine m : machines) {
+      names.add(m.name == null ? null
+                               : m.name.getBytes(StandardCharsets.UTF_8));
+    }
+    return names;
+  }
+
+  // payload of the state record
+  private static long stateBytes(final List<APSDemo.Machine> machines,
+                                 final List<byte[]> names) {
+    long bytes = 4L * MACHINE_FIELDS * machines.size();
+    for (APSDemo.Machine m : machines) {
+      bytes += 4L * m.orders_in_queue.size();
+      if (m.eligible_types != null) {
+        bytes += 4L * m.eligible_types.cardinality();
+      }
+    }
+    for (byte[] name : names) {
+      bytes += 4 + align(name == null ? 0 : name.length);
+    }
+    return bytes;
+  }
+
+  private int machinesOffset() { return state + RECORD_BYTES; }
+
+  private int eligibleOffset() {
+    return machinesOffset() + 4 * MACHINE_FIELDS * machine_num;
+  }
+
+  private int queuedOffset() {
+    int eligible_num = 0;
+    for (int i = 0, b = machinesOffset(); i < machine_num;
+         i++, b += MACHINE_FIELDS * 4) {
+      eligible_num += Math.max(buffer.getInt(b + 16), 0);
+    }
+    return eligibleOffset() + 4 * eligible_num;
+  }
+
+  private int namesOffset() { return queuedOffset() + 4 * queued_num; }
+
+  // names are padded so the ints after them stay aligned
+  private static int align(int bytes) { return (bytes + 3) & ~3; }
+
+  private static int crc(ByteBuffer buffer, int from, int to) {
+    CRC32C crc = new CRC32C();
+    crc.update(buffer.duplicate().limit(to).position(from));
+    return (int)crc.getValue();
+  }
+}
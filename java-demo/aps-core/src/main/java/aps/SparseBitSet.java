@@ -0,0 +1,113 @@
+// Two-level bitset
+// bit w of summary is set when words[w] is not zero, so a scan skips 64
+// empty words per summary word, and the first common bit of two sets is
+// found by and-ing summaries before words, a few word operations when the
+// sets are sparse or disjoint
+
+package aps;
+
+class SparseBitSet {
+  private final long[] words;
+  private final long[] summary;
+  private int count;
+
+  public SparseBitSet(int size) {
+    words = new long[(size + 63) >>> 6];
+    summary = new long[(words.length + 63) >>> 6];
+  }
+
+  // bits 0 .. size - 1 all set
+  public static SparseBitSet full(int size) {
+    SparseBitSet s = new SparseBitSet(size);
+    for (int i = 0; i < size; i++) {
+      s.set(i);
+    }
+    return s;
+  }
+
+  public int size() { return words.length << 6; }
+
+  public int cardinality() { return count; }
+
+  public boolean isEmpty() { return count == 0; }
+
+  public boolean get(int i) {
+    return i >>> 6 < words.length && (words[i >>> 6] & (1L << i)) != 0;
+  }
+
+  public void set(int i) {
+    int w = i >>> 6;
+    if ((words[w] & (1L << i)) == 0) {
+      words[w] |= 1L << i;
+      summary[w >>> 6] |= 1L << w;
+      count++;
+    }
+  }
+
+  public void clear(int i) {
+    int w = i >>> 6;
+    if ((words[w] & (1L << i)) != 0) {
+      words[w] &= ~(1L << i);
+      if (words[w] == 0) {
+        summary[w >>> 6] &= ~(1L << w);
+      }
+      count--;
+    }
+  }
+
+  // first set bit at or after from, -1 if none
+  public int nextSetBit(int from) {
+    return nextCommon(this, null, from);
+  }
+
+  // first bit at or after from set in both a and b (b null: in a), -1 if
+  // none
+  public static int nextCommon(SparseBitSet a, SparseBitSet b, int from) {
+    int w = from >>> 6;
+    int words = b == null ? a.words.length
+                          : Math.min(a.words.length, b.words.length);
+    if (w >= words) {
+      return -1;
+    }
+    // the rest of the first word
+    long bits = a.words[w] & (-1L << from);
+    if (b != null) {
+      bits &= b.words[w];
+    }
+    if (bits != 0) {
+      return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+    w++;
+    for (int s = w >>> 6; s < (words + 63) >>> 6; s++) {
+      long live = a.summary[s];
+      if (b != null) {
+        live &= b.summary[s];
+      }
+      if (s == w >>> 6) {
+        live &= -1L << w;
+      }
+      for (; live != 0; live &= live - 1) {
+        int v = (s << 6) + Long.numberOfTrailingZeros(live);
+        if (v >= words) {
+          return -1;
+        }
+        bits = b == null ? a.words[v] : a.words[v] & b.words[v];
+        if (bits != 0) {
+          return (v << 6) + Long.numberOfTrailingZeros(bits);
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof SparseBitSet &&
+           java.util.Arrays.equals(words, ((SparseBitSet)o).words);
+  }
+
+  @Override
+  public int hashCode() {
+    return java.util.Arrays.hashCode(words);
+  }
+}
@@ -0,0 +1,61 @@
+// Switch time matrix indexed by product type
+// stored row-major: switch time from type `from` to type `to` is the cell
+// from * size + to, either in an int[] or in an off-heap direct buffer
+
+package aps;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+class SwitchMatrix {
+  // matrices with more cells than this are kept off-heap by default
+  public static final int OFF_HEAP_THRESHOLD = 1 << 22; // 16MB of int
+  // a direct buffer is addressed by int bytes
+  public static final int MAX_SIZE = 23170;
+
+  private final int size;
+  private final int[] data;
+  private final IntBuffer off_heap_data;
+
+  public SwitchMatrix(int size) {
+    this(size, (long)size * size > OFF_HEAP_THRESHOLD);
+  }
+
+  public SwitchMatrix(int size, boolean off_heap) {
+    if (size < 0 || size > MAX_SIZE) {
+      throw new IllegalArgumentException("Switch matrix size out of range: " +
+                                         size);
+    }
+    this.size = size;
+    if (off_heap) {
+      data = null;
+      off_heap_data = ByteBuffer.allocateDirect(size * size * Integer.BYTES)
+                          .order(ByteOrder.nativeOrder())
+                          .asIntBuffer();
+    } else {
+      data = new int[size * size];
+      off_heap_data = null;
+    }
+  }
+
+  public int size() { return size; }
+
+  public boolean isOffHeap() { return data == null; }
+
+  // no range check on the product types, callers pass valid types only
+  public int get(int from_type, int to_type) {
+    Metrics.switchLookup();
+    int cell = from_type * size + to_type;
+    return data != null ? data[cell] : off_heap_data.get(cell);
+  }
+
+  public void set(int from_type, int to_type, int switch_time) {
+    int cell = from_type * size + to_type;
+    if (data != null) {
+      data[cell] = switch_time;
+    } else {
+      off_heap_data.put(cell, switch_time);
+    }
+  }
+}
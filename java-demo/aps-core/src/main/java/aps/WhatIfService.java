@@ -0,0 +1,546 @@
+// What-if scheduling service
+// a local HTTP server over one baseline: the orders, switch matrix, sorted
+// sequence and the baseline schedule are built once and never written
+// again. a request forks the baseline's queues at the first decision its
+// delta changes and redispatches only from there, see Heuristic.resumable;
+// other heuristics reschedule everything on fresh machine copies
+//
+//   GET /baseline                       KPIs of the baseline schedule
+//   GET /whatif?rush=12,40&down=7       a rushed order goes to the front of
+//                                       the machine it is dispatched to,
+//                                       down machines are left out,
+//                                       heuristic=NAME picks another Heuristic
+//   GET /stats                          served, rejected and latency quantiles
+//
+// each exchange runs on a virtual thread when the JDK has them (21+), else on
+// a cached pool. rescheduling is CPU bound, so at most cpu_permits requests
+// run a heuristic at once and the rest wait in FIFO order for at most
+// queue_timeout_ms before they get 503, which keeps a burst from stretching
+// the latency of every request and leaves a carrier for the cheap endpoints
+
+package aps;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+class WhatIfService {
+  public static final int DEFAULT_PORT = 8080;
+  public static final long DEFAULT_QUEUE_TIMEOUT_MS = 2000;
+
+  // what a request changes, nothing of the baseline itself
+  static class Delta {
+    public Heuristic heuristic;
+    public final List<Integer> rush = new ArrayList<>();
+    public final List<Integer> down = new ArrayList<>();
+  }
+
+  private final OrderTable orders;
+  private final SwitchMatrix switch_matrix;
+  private final int[] sequence;
+  // machines before any order is scheduled
+  private final List<APSDemo.Machine> machines;
+  private final Heuristic heuristic;
+  private final IntIntMap order_index;
+  // the baseline schedule, frozen so that requests fork it
+  private final List<APSDemo.Machine> scheduled;
+  private final ScheduleKpi baseline;
+  // order -> place in sequence, -1 when not in it
+  private final int[] position;
+  // order -> hours from its machine's start to its finish, and the switch
+  // time in them, in the baseline
+  private final int[] order_finish;
+  private final int[] order_switch;
+  private final Semaphore cpu;
+  private final long queue_timeout_ms;
+
+  private final LongAdder served = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  // served requests by us from arrival to reply
+  private final Metrics.Histogram latency = new Metrics.Histogram();
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public WhatIfService(final OrderTable orders,
+                       final SwitchMatrix switch_matrix, final int[] sequence,
+                       final List<APSDemo.Machine> machines,
+                       Heuristic heuristic, int cpu_permits,
+                       long queue_timeout_ms) {
+    if (cpu_permits < 1) {
+      throw new IllegalArgumentException("cpu_permits must be positive");
+    }
+    this.orders = orders;
+    this.switch_matrix = switch_matrix;
+    this.sequence = sequence;
+    this.machines = copy(machines, new Delta());
+    APSDemo.cleanMachine(this.machines);
+    // requests fork them concurrently, which then only reads them
+    for (APSDemo.Machine m : this.machines) {
+      m.freeze();
+    }
+    this.heuristic = heuristic;
+    this.queue_timeout_ms = queue_timeout_ms;
+    cpu = new Semaphore(cpu_permits, true);
+    order_index = new IntIntMap(orders.size());
+    for (int o = 0; o < orders.size(); o++) {
+      order_index.put(orders.orderId(o), o);
+    }
+    position = new int[orders.size()];
+    Arrays.fill(position, -1);
+    for (int p = 0; p < sequence.length; p++) {
+      position[sequence[p]] = p;
+    }
+    scheduled = copy(this.machines, new Delta());
+    heuristic.schedule(orders, sequence, switch_matrix, scheduled);
+    baseline = ScheduleEvaluator.evaluate(switch_matrix, orders, scheduled);
+    order_finish = new int[orders.size()];
+    order_switch = new int[orders.size()];
+    for (APSDemo.Machine m : scheduled) {
+      int time = 0;
+      int switch_time = 0;
+      int previous = -1;
+      for (int k = 0; k < m.orders_in_queue.size(); k++) {
+        int o = m.orders_in_queue.get(k);
+        int switch_to =
+            APSDemo.getSwitchTime(switch_matrix, orders, previous, o);
+        switch_time += switch_to;
+        time += switch_to + orders.quantity(o) / m.machine_product_per_hour;
+        order_finish[o] = time;
+        order_switch[o] = switch_time;
+        previous = o;
+      }
+      m.freeze();
+    }
+  }
+
+  // one core stays free for the exchanges that do not reschedule
+  public WhatIfService(final OrderTable orders,
+                       final SwitchMatrix switch_matrix, final int[] sequence,
+                       final List<APSDemo.Machine> machines,
+                       Heuristic heuristic) {
+    this(orders, switch_matrix, sequence, machines, heuristic,
+         Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+         DEFAULT_QUEUE_TIMEOUT_MS);
+  }
+
+  public ScheduleKpi baseline() { return baseline; }
+
+  // reschedules the baseline with the delta applied, safe to call from any
+  // number of threads and never leaves the calling one
+  public ScheduleKpi evaluate(Delta delta) {
+    // rushed orders once each, asked[o] is the order they were asked in
+    IntIntMap asked = new IntIntMap(delta.rush.size());
+    int[] rushed = new int[delta.rush.size()];
+    int rush_num = 0;
+    for (int id : delta.rush) {
+      int o = order_index.get(id);
+      if (o == IntIntMap.MISSING || position[o] < 0) {
+        throw new IllegalArgumentException("unknown order " + id);
+      }
+      if (asked.get(o) == IntIntMap.MISSING) {
+        asked.put(o, rush_num);
+        rushed[rush_num++] = o;
+      }
+    }
+    // in sequence order, which is when they are dispatched
+    rushed = Arrays.copyOf(rushed, rush_num);
+    for (int j = 0; j < rush_num; j++) {
+      rushed[j] = position[rushed[j]];
+    }
+    Arrays.sort(rushed);
+    for (int j = 0; j < rush_num; j++) {
+      rushed[j] = sequence[rushed[j]];
+    }
+    Heuristic h = delta.heuristic == null ? heuristic : delta.heuristic;
+    if (h != heuristic || !heuristic.resumable) {
+      List<APSDemo.Machine> m = copy(machines, delta);
+      if (m.isEmpty()) {
+        throw new IllegalArgumentException("every machine is down");
+      }
+      dispatch(h, m, 0, rushed, asked);
+      return ScheduleEvaluator.evaluate(switch_matrix, orders, m,
+                                        (ForkJoinPool)null);
+    }
+
+    // the first decision the delta changes: the first rushed order, or the
+    // first order of a down machine
+    int k = rush_num > 0 ? position[rushed[0]] : sequence.length;
+    List<APSDemo.Machine> base = new ArrayList<>(scheduled.size());
+    for (APSDemo.Machine m : scheduled) {
+      if (!delta.down.contains(m.machine_id)) {
+        base.add(m);
+      } else if (!m.orders_in_queue.isEmpty()) {
+        k = Math.min(k, position[m.orders_in_queue.get(0)]);
+      }
+    }
+    if (base.isEmpty()) {
+      throw new IllegalArgumentException("every machine is down");
+    }
+    if (k == sequence.length && base.size() == scheduled.size()) {
+      return baseline;
+    }
+
+    // the baseline as it was at decision k, O(1) per machine
+    List<APSDemo.Machine> forks = new ArrayList<>(base.size());
+    int[] kept = new int[base.size()];
+    for (int i = 0; i < base.size(); i++) {
+      APSDemo.Machine m = new APSDemo.Machine(base.get(i));
+      kept[i] = decisionsBefore(m.orders_in_queue, k);
+      m.orders_in_queue.truncate(kept[i]);
+      m.finishing_time =
+          kept[i] == 0 ? 0 : order_finish[m.orders_in_queue.get(kept[i] - 1)];
+      forks.add(m);
+    }
+    int[] changed = dispatch(h, forks, k, rushed, asked);
+    for (int i = 0; i < kept.length; i++) {
+      changed[i] = Math.min(changed[i], kept[i]);
+    }
+    return patch(base, forks, changed, k);
+  }
+
+  // the sequence from decision k on, every rushed order dispatched alone at
+  // its turn and then moved to the front of the machine the heuristic put it
+  // on, behind the rushed orders there that were asked before it. returns
+  // the first queue position each machine has a rushed order at, or its
+  // queue size
+  private int[] dispatch(Heuristic h, List<APSDemo.Machine> machines, int k,
+                         int[] rushed, IntIntMap asked) {
+    int[] front = new int[machines.size()];
+    int[] changed = new int[machines.size()];
+    Arrays.fill(changed, Integer.MAX_VALUE);
+    int p = k;
+    for (int r : rushed) {
+      h.schedule(orders, Arrays.copyOfRange(sequence, p, position[r]),
+                 switch_matrix, machines);
+      h.schedule(orders, new int[] {r}, switch_matrix, machines);
+      int i = 0;
+      while (machines.get(i).getLastOrder() != r) {
+        i++;
+      }
+      APSDemo.Machine m = machines.get(i);
+      OrderQueue queue = m.orders_in_queue;
+      queue.truncate(queue.size() - 1);
+      int previous = queue.getLast();
+      m.finishing_time -=
+          APSDemo.getSwitchTime(switch_matrix, orders, previous, r);
+      int at = 0;
+      while (at < front[i] && asked.get(queue.get(at)) < asked.get(r)) {
+        at++;
+      }
+      previous = at == 0 ? -1 : queue.get(at - 1);
+      if (at < queue.size()) {
+        int next = queue.get(at);
+        m.finishing_time +=
+            APSDemo.getSwitchTime(switch_matrix, orders, r, next) -
+            APSDemo.getSwitchTime(switch_matrix, orders, previous, next);
+      }
+      m.finishing_time +=
+          APSDemo.getSwitchTime(switch_matrix, orders, previous, r);
+      queue.insertAt(at, r);
+      front[i]++;
+      changed[i] = Math.min(changed[i], at);
+      p = position[r] + 1;
+    }
+    h.schedule(orders, Arrays.copyOfRange(sequence, p, sequence.length),
+               switch_matrix, machines);
+    return changed;
+  }
+
+  // orders of a baseline queue placed before decision k, its positions
+  // grow along the queue
+  private int decisionsBefore(OrderQueue queue, int k) {
+    int lo = 0, hi = queue.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (position[queue.get(mid)] < k) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // the baseline KPIs without the orders of decision k on and without the
+  // ones behind a rushed order, plus every order of the forks from the first
+  // position that differs from the baseline, same rules as ScheduleEvaluator
+  private ScheduleKpi patch(List<APSDemo.Machine> base,
+                            List<APSDemo.Machine> forks, int[] changed,
+                            int k) {
+    ScheduleKpi kpi = new ScheduleKpi(forks.size());
+    kpi.on_time = baseline.on_time;
+    kpi.late = baseline.late;
+    kpi.total_tardiness = baseline.total_tardiness;
+    kpi.tardiness_histogram = baseline.tardiness_histogram.clone();
+    for (int p = k; p < sequence.length; p++) {
+      count(kpi, sequence[p], order_finish[sequence[p]], -1);
+    }
+    for (int i = 0; i < forks.size(); i++) {
+      OrderQueue base_queue = base.get(i).orders_in_queue;
+      for (int j = changed[i]; j < base_queue.size(); j++) {
+        int o = base_queue.get(j);
+        if (position[o] >= k) {
+          break;
+        }
+        count(kpi, o, order_finish[o], -1);
+      }
+      APSDemo.Machine m = forks.get(i);
+      OrderQueue queue = m.orders_in_queue;
+      int switch_time = 0;
+      int work_time = 0;
+      int previous_type = -1;
+      if (changed[i] > 0) {
+        int last = queue.get(changed[i] - 1);
+        switch_time = order_switch[last];
+        work_time = order_finish[last] - switch_time;
+        previous_type = orders.productType(last);
+      }
+      for (int j = changed[i]; j < queue.size(); j++) {
+        int o = queue.get(j);
+        int product_type = orders.productType(o);
+        work_time += orders.quantity(o) / m.machine_product_per_hour;
+        if (previous_type != -1) {
+          switch_time += switch_matrix.get(previous_type, product_type);
+        }
+        count(kpi, o, work_time + switch_time, 1);
+        previous_type = product_type;
+      }
+      kpi.machine_switch_time[i] = switch_time;
+      kpi.machine_work_time[i] = work_time;
+    }
+    ScheduleEvaluator.machineTotals(kpi);
+    return kpi;
+  }
+
+  // adds (sign 1) or removes (sign -1) an order finishing at finishing_time
+  private void count(ScheduleKpi kpi, int o, int finishing_time, int sign) {
+    int tardiness = finishing_time - orders.dueDate(o) * 24;
+    if (tardiness > 0) {
+      kpi.late += sign;
+      kpi.total_tardiness += sign * tardiness;
+      kpi.tardiness_histogram[Math.min(
+          tardiness / 24, ScheduleKpi.TARDINESS_BUCKETS - 1)] += sign;
+    } else {
+      kpi.on_time += sign;
+    }
+  }
+
+  public synchronized void start(int port) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    executor = requestExecutor();
+    server.setExecutor(executor);
+    server.createContext("/baseline", exchange -> {
+      reply(exchange, 200, json(baseline, null));
+    });
+    server.createContext("/whatif", this::whatIf);
+    server.createContext("/stats", exchange -> {
+      reply(exchange, 200, stats());
+    });
+    server.start();
+  }
+
+  public synchronized int port() { return server.getAddress().getPort(); }
+
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      executor.shutdown();
+      server = null;
+    }
+  }
+
+  public String stats() {
+    return "{\"served\":" + served.sum() + ",\"rejected\":" + rejected.sum() +
+        ",\"p50_us\":" + latencyQuantile(0.5) +
+        ",\"p99_us\":" + latencyQuantile(0.99) + "}";
+  }
+
+  // upper bound in us of the bucket holding quantile q of the served
+  // requests
+  public long latencyQuantile(double q) { return latency.quantile(q); }
+
+  private void whatIf(HttpExchange exchange) throws IOException {
+    long start = System.nanoTime();
+    Delta delta;
+    try {
+      delta = parse(exchange.getRequestURI().getRawQuery());
+    } catch (IllegalArgumentException e) {
+      reply(exchange, 400, error(e.getMessage()));
+      return;
+    }
+    boolean acquired = false;
+    try {
+      acquired = cpu.tryAcquire(queue_timeout_ms, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!acquired) {
+      rejected.increment();
+      reply(exchange, 503, error("busy"));
+      return;
+    }
+    long queued = System.nanoTime();
+    ScheduleKpi kpi;
+    try {
+      kpi = evaluate(delta);
+    } catch (IllegalArgumentException e) {
+      reply(exchange, 400, error(e.getMessage()));
+      return;
+    } finally {
+      cpu.release();
+    }
+    long end = System.nanoTime();
+    served.increment();
+    latency.record((end - start) / 1000);
+    String body = json(kpi, baseline);
+    reply(exchange, 200,
+          body.substring(0, body.length() - 1) +
+              ",\"queue_ms\":" + (queued - start) / 1000000.0 +
+              ",\"elapsed_ms\":" + (end - start) / 1000000.0 + "}");
+  }
+
+  static Delta parse(String query) {
+    Delta delta = new Delta();
+    if (query == null || query.isEmpty()) {
+      return delta;
+    }
+    for (String pair : query.split("&")) {
+      int eq = pair.indexOf('=');
+      String key = eq < 0 ? pair : pair.substring(0, eq);
+      String value = URLDecoder.decode(eq < 0 ? "" : pair.substring(eq + 1),
+                                       StandardCharsets.UTF_8);
+      switch (key) {
+      case "heuristic":
+        try {
+          delta.heuristic =
+              Heuristic.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("unknown heuristic " + value);
+        }
+        break;
+      case "rush":
+        ids(value, delta.rush);
+        break;
+      case "down":
+        ids(value, delta.down);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown parameter " + key);
+      }
+    }
+    return delta;
+  }
+
+  private static void ids(String value, List<Integer> out) {
+    for (String id : value.split(",")) {
+      try {
+        out.add(Integer.parseInt(id.trim()));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("not an id: " + id);
+      }
+    }
+  }
+
+  // empty copies of the machines that are not down
+  private static List<APSDemo.Machine> copy(List<APSDemo.Machine> machines,
+                                           Delta delta) {
+    List<APSDemo.Machine> copy = new ArrayList<>(machines.size());
+    for (APSDemo.Machine m : machines) {
+      if (!delta.down.contains(m.machine_id)) {
+        copy.add(new APSDemo.Machine(m));
+      }
+    }
+    return copy;
+  }
+
+  // KPIs and, with a baseline, their change against it
+  private static String json(ScheduleKpi kpi, ScheduleKpi baseline) {
+    long[] values = {kpi.on_time, kpi.late, kpi.total_switch_time,
+                     kpi.total_work_time, kpi.total_tardiness, kpi.makespan};
+    String[] names = {"on_time", "late", "total_switch_time",
+                      "total_work_time", "total_tardiness", "makespan"};
+    StringBuilder sb = new StringBuilder("{");
+    for (int k = 0; k < names.length; k++) {
+      sb.append(k == 0 ? "\"" : ",\"")
+          .append(names[k])
+          .append("\":")
+          .append(values[k]);
+    }
+    if (baseline != null) {
+      long[] base = {baseline.on_time,           baseline.late,
+                     baseline.total_switch_time, baseline.total_work_time,
+                     baseline.total_tardiness,   baseline.makespan};
+      sb.append(",\"delta\":{");
+      for (int k = 0; k < names.length; k++) {
+        sb.append(k == 0 ? "\"" : ",\"")
+            .append(names[k])
+            .append("\":")
+            .append(values[k] - base[k]);
+      }
+      sb.append('}');
+    }
+    return sb.append('}').toString();
+  }
+
+  private static String error(String message) {
+    return "{\"error\":\"" +
+        message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+  }
+
+  private static void reply(HttpExchange exchange, int status, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  // virtual thread per exchange on JDK 21+, looked up by reflection since
+  // the build targets 17
+  static ExecutorService requestExecutor() {
+    try {
+      return (ExecutorService)Executors.class
+          .getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+
+  // serves the APSDemo problem: [port [heuristic]]
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    Heuristic heuristic = args.length > 1
+                              ? Heuristic.valueOf(args[1])
+                              : Heuristic.OPTIMIZE_SWITCH_TIME_OPTIMIZE1;
+    OrderTable orders = APSDemo.generateRandomOrder(APSDemo.PRODUCT_NUM);
+    WhatIfService service = new WhatIfService(
+        orders,
+        APSDemo.generateRandomSwitchMatrix(APSDemo.PRODUCT_TYPE_NUM),
+        APSDemo.sortOrders(orders, APSDemo.SORT_METHOD),
+        APSDemo.generateRandomMachine(APSDemo.MACHINE_NUM,
+                                      APSDemo.PRODUCT_TYPE_NUM,
+                                      APSDemo.MACHINE_FAMILY_NUM),
+        heuristic);
+    service.start(port);
+    System.out.println("What-if service on http://localhost:" +
+                       service.port() + " baseline " + heuristic.label +
+                       ": " + json(service.baseline(), null));
+  }
+}
@@ -0,0 +1,201 @@
+// BranchAndBound against exhaustive search
+// random windows of up to 7 orders on up to 3 machines, with queued orders,
+// machine families and a fixed next type per machine; every schedule is
+// enumerated and the solver has to prove the same objective, and its
+// sequences have to replay to it
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class BranchAndBoundTest {
+  private static final int INSTANCES = 3000;
+  private static final int TYPE_NUM = 4;
+
+  private OrderTable orders;
+  private SwitchMatrix switch_matrix;
+  private List<APSDemo.Machine> machines;
+  private int[] window;
+  private int[] next_type;
+  // late, switch time, makespan of the best schedule found by enumeration
+  private long[] best;
+
+  @Test
+  void matchesExhaustiveSearch() {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    int late_instances = 0;
+    for (int instance = 0; instance < INSTANCES; instance++) {
+      generate(rand, 1 + rand.nextInt(7), 1 + rand.nextInt(3));
+      exhaustive();
+      if (best == null) {
+        // some order has no eligible machine
+        assertThrows(IllegalArgumentException.class,
+                     () -> new BranchAndBound(5000).solve(
+                         orders, window, switch_matrix, machines, next_type,
+                         null));
+        continue;
+      }
+      BranchAndBound.Solution s = new BranchAndBound(5000).solve(
+          orders, window, switch_matrix, machines, next_type, null);
+      String label = "instance " + instance;
+      assertTrue(s.optimal, label);
+      assertEquals(best[0], s.late, label);
+      assertEquals(best[1], s.switch_time, label);
+      assertEquals(best[2], s.makespan, label);
+      assertEquals(s.late, s.bound_late, label);
+      assertEquals(s.switch_time, s.bound_switch_time, label);
+      assertReplays(s, label);
+      late_instances += best[0] > 0 ? 1 : 0;
+    }
+    // the due dates are tight enough for lateness to matter
+    assertTrue(late_instances > INSTANCES / 4, "late " + late_instances);
+  }
+
+  @Test
+  void reportsImprovementsToTheListener() {
+    generate(new Random(1), 7, 2);
+    List<BranchAndBound.Solution> improved = new ArrayList<>();
+    BranchAndBound.Solution s =
+        new BranchAndBound(5000).solve(orders, window, switch_matrix,
+                                       machines, next_type, improved::add);
+    assertNotNull(s);
+    assertFalse(improved.isEmpty());
+    for (int i = 1; i < improved.size(); i++) {
+      BranchAndBound.Solution previous = improved.get(i - 1);
+      assertTrue(improved.get(i).betterThan(
+          previous.late, previous.switch_time, previous.makespan));
+    }
+    BranchAndBound.Solution last = improved.get(improved.size() - 1);
+    assertEquals(s.late, last.late);
+    assertEquals(s.switch_time, last.switch_time);
+    assertEquals(s.makespan, last.makespan);
+  }
+
+  // orders due within a few days of the machines' start, half of the
+  // instances on machine families so not every machine runs every type
+  private void generate(Random rand, int n, int machine_num) {
+    orders = new OrderTable(n + machine_num);
+    for (int i = 0; i < n + machine_num; i++) {
+      orders.add(i, (1 + rand.nextInt(40)) * APSDemo.MACHINE_PRODUCT_PER_HOUR,
+                 1 + rand.nextInt(4), rand.nextInt(APSDemo.PRIORITY_NUM), 0,
+                 rand.nextInt(TYPE_NUM));
+    }
+    switch_matrix = new SwitchMatrix(TYPE_NUM);
+    for (int i = 0; i < TYPE_NUM; i++) {
+      for (int j = 0; j < TYPE_NUM; j++) {
+        switch_matrix.set(i, j, i == j ? 0 : 1 + rand.nextInt(9));
+      }
+    }
+    machines = APSDemo.generateRandomMachine(machine_num, TYPE_NUM,
+                                             rand.nextBoolean() ? 0 : 2);
+    next_type = new int[machine_num];
+    for (int m = 0; m < machine_num; m++) {
+      APSDemo.Machine machine = machines.get(m);
+      machine.finishing_time = rand.nextInt(24);
+      // rows n.. are already queued, one per machine at most
+      int queued = n + m;
+      if (rand.nextBoolean() &&
+          machine.canRun(orders.productType(queued))) {
+        machine.orders_in_queue.add(queued);
+      }
+      next_type[m] = rand.nextInt(TYPE_NUM + 1) - 1;
+    }
+    window = new int[n];
+    for (int i = 0; i < n; i++) {
+      window[i] = i;
+    }
+  }
+
+  private void exhaustive() {
+    int[] time = new int[machines.size()];
+    int[] last = new int[machines.size()];
+    for (int m = 0; m < machines.size(); m++) {
+      time[m] = machines.get(m).finishing_time;
+      int o = machines.get(m).getLastOrder();
+      last[m] = o < 0 ? -1 : orders.productType(o);
+    }
+    best = null;
+    enumerate(0, 0, time, last, 0, 0);
+  }
+
+  // fills the machines one after the other: either an unplaced order is
+  // appended to machine m or m is closed, so each schedule is seen once
+  private void enumerate(long placed, int m, int[] time, int[] last,
+                         long late, long switch_time) {
+    if (placed == (1L << window.length) - 1) {
+      long makespan = 0;
+      for (int k = 0; k < machines.size(); k++) {
+        if (last[k] >= 0 && next_type[k] >= 0) {
+          switch_time += switch_matrix.get(last[k], next_type[k]);
+        }
+        makespan = Math.max(makespan, time[k]);
+      }
+      if (best == null || BranchAndBound.compare(late, switch_time, makespan,
+                                                 best[0], best[1],
+                                                 best[2]) < 0) {
+        best = new long[] {late, switch_time, makespan};
+      }
+      return;
+    }
+    if (m + 1 < machines.size()) {
+      enumerate(placed, m + 1, time, last, late, switch_time);
+    }
+    APSDemo.Machine machine = machines.get(m);
+    for (int i = 0; i < window.length; i++) {
+      int o = window[i];
+      int type = orders.productType(o);
+      if ((placed & 1L << i) != 0 || !machine.canRun(type)) {
+        continue;
+      }
+      int saved_time = time[m];
+      int saved_last = last[m];
+      int s = last[m] < 0 ? 0 : switch_matrix.get(last[m], type);
+      time[m] += s + orders.quantity(o) / machine.machine_product_per_hour;
+      last[m] = type;
+      enumerate(placed | 1L << i, m, time, last,
+                late + (time[m] > orders.dueDate(o) * 24 ? 1 : 0),
+                switch_time + s);
+      time[m] = saved_time;
+      last[m] = saved_last;
+    }
+  }
+
+  private void assertReplays(BranchAndBound.Solution s, String label) {
+    long late = 0, switch_time = 0, makespan = 0;
+    int placed = 0;
+    for (int m = 0; m < machines.size(); m++) {
+      APSDemo.Machine machine = machines.get(m);
+      int time = machine.finishing_time;
+      int previous = machine.getLastOrder();
+      for (int o : s.sequences[m]) {
+        assertTrue(machine.canRun(orders.productType(o)), label);
+        int switch_to =
+            APSDemo.getSwitchTime(switch_matrix, orders, previous, o);
+        time += switch_to +
+                orders.quantity(o) / machine.machine_product_per_hour;
+        switch_time += switch_to;
+        late += time > orders.dueDate(o) * 24 ? 1 : 0;
+        previous = o;
+        placed++;
+      }
+      if (previous >= 0 && next_type[m] >= 0) {
+        switch_time +=
+            switch_matrix.get(orders.productType(previous), next_type[m]);
+      }
+      makespan = Math.max(makespan, time);
+    }
+    assertEquals(window.length, placed, label);
+    assertEquals(s.late, late, label);
+    assertEquals(s.switch_time, switch_time, label);
+    assertEquals(s.makespan, makespan, label);
+  }
+}
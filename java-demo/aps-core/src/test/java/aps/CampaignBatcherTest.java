@@ -0,0 +1,69 @@
+// CampaignBatcher dispatch of campaigns that would make an order late
+// three orders of one type and one day of work each form one campaign on
+// two machines. the campaign is split only when its next order would go
+// late on its machine but not on the machine picked for the rest of it
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CampaignBatcherTest {
+  private static final int DAY = 24;
+
+  @Test
+  void splitsWhenTheRestIsOnTimeElsewhere() {
+    // on one machine the second and third orders end after days 1 and 2
+    assertQueues(new int[] {1, 1, 2}, "[[0], [1, 2]]", 0);
+  }
+
+  @Test
+  void keepsCampaignThatIsOnTime() {
+    assertQueues(new int[] {3, 3, 3}, "[[0, 1, 2], []]", 0);
+  }
+
+  // late on every machine, a split would only add a changeover
+  @Test
+  void keepsCampaignThatIsLateEverywhere() {
+    assertQueues(new int[] {0, 0, 0}, "[[0, 1, 2], []]", 3);
+  }
+
+  private static void assertQueues(int[] due_dates, String queues,
+                                   long late) {
+    OrderTable orders = new OrderTable(16);
+    for (int i = 0; i < due_dates.length; i++) {
+      orders.add(i, DAY * APSDemo.MACHINE_PRODUCT_PER_HOUR, due_dates[i], 0, 0,
+                 0);
+    }
+    SwitchMatrix switch_matrix = new SwitchMatrix(1);
+    CampaignBatcher.Campaigns campaigns = CampaignBatcher.batch(
+        orders, orders.indexOrder(), switch_matrix);
+    assertEquals(1, campaigns.size());
+    for (int dispatcher = 0; dispatcher < 2; dispatcher++) {
+      List<APSDemo.Machine> machines = APSDemo.generateRandomMachine(2);
+      if (dispatcher == 0) {
+        CampaignBatcher.first_free_Campaigns(orders, campaigns, switch_matrix,
+                                             machines);
+      } else {
+        CampaignBatcher.optimize_switch_time_Campaigns(
+            orders, campaigns, switch_matrix, machines);
+      }
+      StringBuilder actual = new StringBuilder("[");
+      for (APSDemo.Machine m : machines) {
+        actual.append(actual.length() > 1 ? ", [" : "[");
+        for (int k = 0; k < m.orders_in_queue.size(); k++) {
+          actual.append(k > 0 ? ", " : "").append(m.orders_in_queue.get(k));
+        }
+        actual.append("]");
+      }
+      assertEquals(queues, actual.append("]").toString(),
+                   "dispatcher " + dispatcher);
+      assertEquals(late,
+                   ScheduleEvaluator.evaluate(switch_matrix, orders, machines)
+                       .late,
+                   "dispatcher " + dispatcher);
+    }
+  }
+}
@@ -0,0 +1,82 @@
+// InstanceGenerator determinism
+// chunks and switch matrix rows fill in parallel from their own seeded
+// streams, so one thread and several threads have to give the same
+// instance, cell for cell, while another seed gives a different one
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class InstanceGeneratorTest {
+  // a partial last chunk, so the chunks are not all the same length
+  private static final int ORDERS = 3 * InstanceGenerator.CHUNK + 1234;
+  private static final int MAX_DDL_DATE = 30;
+  private static final int TYPE_NUM = 200;
+
+  @Test
+  void sameInstanceForAnyThreadCount() {
+    // the default mix and due dates, then uniform ones
+    for (double[] shape : new double[][] {
+             {InstanceGenerator.DEFAULT_SKEW,
+              InstanceGenerator.DEFAULT_CLUSTER_DAYS},
+             {0, 0}}) {
+      String label = "skew " + shape[0] + " cluster_days " + shape[1];
+      InstanceGenerator one = new InstanceGenerator(
+          APSDemo.RAND_SEED, shape[0], (int)shape[1], 1);
+      InstanceGenerator four = new InstanceGenerator(
+          APSDemo.RAND_SEED, shape[0], (int)shape[1], 4);
+      OrderTable expected = one.orders(ORDERS, MAX_DDL_DATE, TYPE_NUM);
+      assertOrdersEquals(expected,
+                         four.orders(ORDERS, MAX_DDL_DATE, TYPE_NUM), label);
+      assertMatrixEquals(one.switchMatrix(TYPE_NUM),
+                         four.switchMatrix(TYPE_NUM), label);
+
+      InstanceGenerator other = new InstanceGenerator(
+          APSDemo.RAND_SEED + 1, shape[0], (int)shape[1], 4);
+      assertNotEquals(digest(expected),
+                      digest(other.orders(ORDERS, MAX_DDL_DATE, TYPE_NUM)),
+                      label);
+    }
+  }
+
+  private static void assertOrdersEquals(OrderTable expected,
+                                         OrderTable actual, String label) {
+    assertEquals(expected.size(), actual.size(), label);
+    for (int i = 0; i < expected.size(); i++) {
+      String row = label + " row " + i;
+      assertEquals(expected.orderId(i), actual.orderId(i), row);
+      assertEquals(expected.quantity(i), actual.quantity(i), row);
+      assertEquals(expected.dueDate(i), actual.dueDate(i), row);
+      assertEquals(expected.priority(i), actual.priority(i), row);
+      assertEquals(expected.earlestStartDate(i), actual.earlestStartDate(i),
+                   row);
+      assertEquals(expected.productType(i), actual.productType(i), row);
+    }
+  }
+
+  private static void assertMatrixEquals(SwitchMatrix expected,
+                                         SwitchMatrix actual, String label) {
+    assertEquals(expected.size(), actual.size(), label);
+    for (int from = 0; from < expected.size(); from++) {
+      for (int to = 0; to < expected.size(); to++) {
+        assertEquals(expected.get(from, to), actual.get(from, to),
+                     label + " cell " + from + "," + to);
+      }
+    }
+  }
+
+  private static long digest(OrderTable orders) {
+    long h = 0;
+    for (int i = 0; i < orders.size(); i++) {
+      h = h * 31 + orders.quantity(i);
+      h = h * 31 + orders.dueDate(i);
+      h = h * 31 + orders.priority(i);
+      h = h * 31 + orders.earlestStartDate(i);
+      h = h * 31 + orders.productType(i);
+    }
+    return h;
+  }
+}
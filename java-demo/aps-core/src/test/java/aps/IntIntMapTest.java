@@ -0,0 +1,67 @@
+// IntIntMap against HashMap
+// random puts, overwrites and removes over keys that share probe runs:
+// a small range, negative keys, MISSING as a key and keys the hash sends to
+// the same slot. remove re-inserts the rest of its run, so after every step
+// each key has to read back what a HashMap holds
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class IntIntMapTest {
+  private static final int STEPS = 20000;
+
+  @Test
+  void matchesHashMap() {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    int[] keys = keys(rand);
+    // starts small so it grows while keys come and go
+    IntIntMap map = new IntIntMap(1);
+    Map<Integer, Integer> expected = new HashMap<>();
+    for (int step = 0; step < STEPS; step++) {
+      int key = keys[rand.nextInt(keys.length)];
+      String label = "step " + step + " key " + key;
+      if (rand.nextInt(3) == 0) {
+        Integer removed = expected.remove(key);
+        assertEquals(removed == null ? IntIntMap.MISSING : removed,
+                     map.remove(key), label);
+      } else {
+        int value = rand.nextInt(1000);
+        expected.put(key, value);
+        map.put(key, value);
+      }
+      assertEquals(expected.size(), map.size(), label);
+      if (step % 16 == 0 || step > STEPS - 100) {
+        for (int k : keys) {
+          assertEquals(expected.getOrDefault(k, IntIntMap.MISSING),
+                       map.get(k), label + " get " + k);
+        }
+      }
+    }
+  }
+
+  // keys that collide in a table of any size up to 1 << 12: a dense range
+  // around zero, the int extremes and keys whose hash has the same low bits
+  private static int[] keys(Random rand) {
+    int[] keys = new int[300];
+    int n = 0;
+    for (int k = -60; k < 60; k++) {
+      keys[n++] = k;
+    }
+    keys[n++] = Integer.MIN_VALUE;
+    keys[n++] = Integer.MAX_VALUE;
+    while (n < keys.length) {
+      int k = rand.nextInt();
+      int h = k * 0x9E3779B9;
+      if (((h ^ (h >>> 16)) & 0xfff) == 0) {
+        keys[n++] = k;
+      }
+    }
+    return keys;
+  }
+}
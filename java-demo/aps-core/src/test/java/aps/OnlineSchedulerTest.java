@@ -0,0 +1,175 @@
+// OnlineScheduler against evaluating from scratch
+// random interleavings of insert, both insertBatch forms and cancel, with
+// ids that come back after a cancel, ids that are still scheduled and ids
+// that were never seen; after every step the running totals and the sum of
+// the returned changes have to match ScheduleEvaluator on the machines, and
+// the scheduled ids have to match a HashMap of what was inserted
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+
+class OnlineSchedulerTest {
+  private static final int MACHINES = 10;
+  private static final int TYPE_NUM = 12;
+  private static final int STEPS = 3000;
+  // ids are drawn from a small range so they collide and come back
+  private static final int ID_RANGE = 2000;
+
+  private final Random rand = new Random(APSDemo.RAND_SEED);
+  private final OrderTable source = APSDemo.generateRandomOrder(
+      STEPS, APSDemo.maxDdlDate(STEPS, MACHINES), TYPE_NUM);
+  private OnlineScheduler scheduler;
+  // order id -> row of the scheduled orders
+  private final Map<Integer, Integer> scheduled = new HashMap<>();
+  // sums of the changes returned so far
+  private long on_time, late, switch_time, work_time, tardiness;
+
+  @Test
+  void matchesEvaluator() {
+    for (int families : new int[] {0, 3}) {
+      List<APSDemo.Machine> machines =
+          APSDemo.generateRandomMachine(MACHINES, TYPE_NUM, families);
+      scheduler = new OnlineScheduler(
+          new OrderTable(16), APSDemo.generateRandomSwitchMatrix(TYPE_NUM),
+          machines);
+      scheduled.clear();
+      on_time = late = switch_time = work_time = tardiness = 0;
+      for (int step = 0; step < STEPS; step++) {
+        String label = "families " + families + " step " + step;
+        switch (rand.nextInt(8)) {
+        case 0:
+        case 1:
+          add(scheduler.insert(order(freeId(new HashSet<>()))));
+          break;
+        case 2: {
+          List<APSDemo.Order> batch = new ArrayList<>();
+          Set<Integer> picked = new HashSet<>();
+          for (int k = rand.nextInt(4); k > 0; k--) {
+            batch.add(order(freeId(picked)));
+          }
+          scheduler.insertBatch(batch).forEach(this::add);
+          break;
+        }
+        case 3: {
+          OrderTable batch = new OrderTable(16);
+          Set<Integer> picked = new HashSet<>();
+          for (int k = rand.nextInt(4); k > 0; k--) {
+            APSDemo.Order o = order(freeId(picked));
+            batch.add(o.order_id, o.quantity, o.due_date, o.priority,
+                      o.earlest_start_date, o.product_type);
+          }
+          // a shuffled sequence over the rows
+          int[] sequence = batch.indexOrder();
+          for (int i = sequence.length - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int t = sequence[i];
+            sequence[i] = sequence[j];
+            sequence[j] = t;
+          }
+          scheduler.insertBatch(batch, sequence).forEach(this::add);
+          break;
+        }
+        default:
+          // mostly a scheduled id, else any id in the range
+          List<Integer> ids = new ArrayList<>(scheduled.keySet());
+          cancel(ids.isEmpty() || rand.nextInt(4) == 0
+                     ? rand.nextInt(ID_RANGE)
+                     : ids.get(rand.nextInt(ids.size())),
+                 label);
+          break;
+        }
+        if (!scheduled.isEmpty() && rand.nextInt(10) == 0) {
+          // a scheduled id is refused and changes nothing
+          int taken = scheduled.keySet().iterator().next();
+          assertThrows(IllegalArgumentException.class,
+                       () -> scheduler.insert(order(taken)), label);
+        }
+        check(label);
+      }
+    }
+  }
+
+  // an id that is not scheduled nor picked for the same batch, often one
+  // that was cancelled before
+  private int freeId(Set<Integer> picked) {
+    int id;
+    do {
+      id = rand.nextInt(ID_RANGE);
+    } while (scheduled.containsKey(id) || !picked.add(id));
+    return id;
+  }
+
+  private APSDemo.Order order(int id) {
+    int i = rand.nextInt(source.size());
+    return new APSDemo.Order(id, null, source.quantity(i), source.dueDate(i),
+                             source.priority(i), source.earlestStartDate(i),
+                             source.productType(i));
+  }
+
+  private void add(OnlineScheduler.Change change) {
+    assertNull(scheduled.put(change.order_id, change.order));
+    sum(change);
+  }
+
+  private void cancel(int id, String label) {
+    Integer row = scheduled.remove(id);
+    OnlineScheduler.Change change = scheduler.cancel(id);
+    if (row == null) {
+      assertNull(change, label);
+      return;
+    }
+    assertEquals(row, change.order, label);
+    assertEquals(id, change.order_id, label);
+    sum(change);
+    // the same id again is gone
+    assertNull(scheduler.cancel(id), label);
+  }
+
+  private void sum(OnlineScheduler.Change change) {
+    on_time += change.on_time_delta;
+    late += change.late_delta;
+    switch_time += change.switch_time_delta;
+    work_time += change.work_time_delta;
+    tardiness += change.tardiness_delta;
+  }
+
+  private void check(String label) {
+    ScheduleKpi kpi = ScheduleEvaluator.evaluate(
+        scheduler.switchMatrix(), scheduler.orders(), scheduler.machines(),
+        (ForkJoinPool)null);
+    assertEquals(kpi.on_time, scheduler.onTime(), label);
+    assertEquals(kpi.late, scheduler.late(), label);
+    assertEquals(kpi.total_switch_time, scheduler.totalSwitchTime(), label);
+    assertEquals(kpi.total_work_time, scheduler.totalWorkTime(), label);
+    assertEquals(kpi.total_tardiness, scheduler.totalTardiness(), label);
+    assertEquals(kpi.on_time, on_time, label);
+    assertEquals(kpi.late, late, label);
+    assertEquals(kpi.total_switch_time, switch_time, label);
+    assertEquals(kpi.total_work_time, work_time, label);
+    assertEquals(kpi.total_tardiness, tardiness, label);
+
+    // the queues hold exactly the scheduled rows, each once
+    Map<Integer, Integer> queued = new HashMap<>();
+    OrderTable orders = scheduler.orders();
+    for (APSDemo.Machine m : scheduler.machines()) {
+      for (int k = 0; k < m.orders_in_queue.size(); k++) {
+        int o = m.orders_in_queue.get(k);
+        assertNull(queued.put(orders.orderId(o), o), label);
+      }
+    }
+    assertEquals(scheduled, queued, label);
+  }
+}
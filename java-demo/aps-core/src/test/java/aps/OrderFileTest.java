@@ -0,0 +1,127 @@
+// OrderFile CSV parsing
+// headers, CRLF, a last line without a newline and lines cut by the mapped
+// window have to read like plain lines, and every malformed number has to
+// fail with the byte offset instead of turning into a valid looking order
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OrderFileTest {
+  @TempDir Path dir;
+
+  @Test
+  void readsHeaderCrlfAndLastLineWithoutNewline() throws IOException {
+    Path path = write("order_id,quantity,due_date,priority," +
+                      "earlest_start_date,product_type\r\n" +
+                      "1,200,3,1,0,7\r\n" +
+                      "\r\n" +
+                      " 2 , 300,-4,0,1,2\r\n" +
+                      "2147483647,-2147483648,0,0,0,0");
+    List<OrderTable> chunks = new ArrayList<>();
+    long n = OrderFile.readCsv(path, 2, chunk -> {
+      OrderTable copy = new OrderTable(chunk.size());
+      for (int i = 0; i < chunk.size(); i++) {
+        copy.add(chunk.orderId(i), chunk.quantity(i), chunk.dueDate(i),
+                 chunk.priority(i), chunk.earlestStartDate(i),
+                 chunk.productType(i));
+      }
+      chunks.add(copy);
+    });
+    assertEquals(3, n);
+    assertEquals(2, chunks.size());
+    OrderTable first = chunks.get(0);
+    assertEquals(1, first.orderId(0));
+    assertEquals(7, first.productType(0));
+    assertEquals(2, first.orderId(1));
+    assertEquals(300, first.quantity(1));
+    assertEquals(-4, first.dueDate(1));
+    OrderTable last = chunks.get(1);
+    assertEquals(Integer.MAX_VALUE, last.orderId(0));
+    assertEquals(Integer.MIN_VALUE, last.quantity(0));
+  }
+
+  // random lines read through windows of every size from one line up, so
+  // the cut falls inside numbers, before a '-' and between "\r" and "\n"
+  @Test
+  void linesSpanningTheWindowCut() throws IOException {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    List<int[]> expected = new ArrayList<>();
+    StringBuilder csv = new StringBuilder("a,b,c\n");
+    for (int line = 0; line < 40; line++) {
+      int[] row = new int[1 + rand.nextInt(4)];
+      for (int k = 0; k < row.length; k++) {
+        row[k] = rand.nextInt() >> rand.nextInt(32);
+        csv.append(k == 0 ? "" : ",").append(row[k]);
+      }
+      csv.append(rand.nextBoolean() ? "\r\n" : "\n");
+      expected.add(row);
+    }
+    Path path = write(csv.toString());
+    for (int window = 56; window <= 200; window++) {
+      List<int[]> rows = new ArrayList<>();
+      OrderFile.scanCsv(path, window,
+                        (fields, n) -> rows.add(Arrays.copyOf(fields, n)));
+      assertEquals(expected.size(), rows.size(), "window " + window);
+      for (int i = 0; i < rows.size(); i++) {
+        assertEquals(Arrays.toString(expected.get(i)),
+                     Arrays.toString(rows.get(i)),
+                     "window " + window + " line " + i);
+      }
+    }
+    IOException e = assertThrows(
+        IOException.class,
+        () -> OrderFile.scanCsv(path, 8, (fields, n) -> {}));
+    assertTrue(e.getMessage().startsWith("Line longer than 8 bytes"),
+               e.getMessage());
+  }
+
+  @Test
+  void rejectsMalformedNumbers() throws IOException {
+    // the line, then the offset of the byte the error has to name
+    assertRejects("1-2,3\n", 1);
+    assertRejects("--5\n", 1);
+    assertRejects("5-\n", 1);
+    assertRejects("1,,3\n", 2);
+    assertRejects(",1\n", 0);
+    assertRejects("1,2,\n", 4);
+    assertRejects("1,2,", 4);
+    assertRejects("-\n", 1);
+    assertRejects("1 2\n", 2);
+    assertRejects("2147483648\n", 10);
+    assertRejects("-2147483649\n", 11);
+    assertRejects("12345678901\n", 10);
+    assertRejects("99999999999999999999\n", 10);
+    assertRejects("1,x\n", 2);
+  }
+
+  private void assertRejects(String line, long offset) throws IOException {
+    // after a header and one good line
+    String good = "id\n1,2\n";
+    Path path = write(good + line);
+    IOException e = assertThrows(
+        IOException.class, () -> OrderFile.scanCsv(path, (fields, n) -> {}),
+        line);
+    assertTrue(e.getMessage().endsWith(" at byte " + (good.length() + offset)),
+               line + ": " + e.getMessage());
+  }
+
+  private Path write(String csv) throws IOException {
+    Path path = Files.createTempFile(dir, "orders", ".csv");
+    Files.write(path, csv.getBytes(StandardCharsets.US_ASCII));
+    return path;
+  }
+}
@@ -0,0 +1,188 @@
+// OrderQueue forks against plain lists
+// a fork shares every chunk with its source, so writing either side must
+// leave the other exactly as it was, within a chunk, across chunk
+// boundaries and after removeAt, insertAt, truncate, clear and freeze
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class OrderQueueTest {
+  private static final int STEPS = 20000;
+
+  @Test
+  void forkIsIsolatedFromItsSource() {
+    OrderQueue source = filled(3 * OrderQueue.CHUNK + 5);
+    List<Integer> source_expected = contents(source);
+    OrderQueue fork = new OrderQueue(source);
+
+    // writes in the first, a middle and the last, partly filled chunk
+    fork.set(0, -1);
+    fork.set(OrderQueue.CHUNK + 7, -2);
+    fork.add(-3);
+    assertEquals(source_expected, contents(source));
+
+    List<Integer> fork_expected = contents(fork);
+    source.set(2 * OrderQueue.CHUNK, -4);
+    source.add(-5);
+    assertEquals(fork_expected, contents(fork));
+  }
+
+  @Test
+  void removeAtShiftsOnlyTheWrittenSide() {
+    OrderQueue source = filled(2 * OrderQueue.CHUNK + 3);
+    List<Integer> source_expected = contents(source);
+    OrderQueue fork = new OrderQueue(source);
+    // the shift crosses both chunk boundaries
+    fork.removeAt(OrderQueue.CHUNK - 1);
+    fork.removeAt(0);
+    assertEquals(source_expected, contents(source));
+
+    List<Integer> fork_expected = contents(fork);
+    source.removeAt(source.size() - 1);
+    source.removeAt(OrderQueue.CHUNK);
+    assertEquals(fork_expected, contents(fork));
+  }
+
+  @Test
+  void insertAtShiftsOnlyTheWrittenSide() {
+    OrderQueue source = filled(2 * OrderQueue.CHUNK);
+    List<Integer> source_expected = contents(source);
+    OrderQueue fork = new OrderQueue(source);
+    // the shift crosses both chunk boundaries into a new chunk
+    fork.insertAt(0, -1);
+    fork.insertAt(OrderQueue.CHUNK, -2);
+    fork.insertAt(fork.size(), -3);
+    assertEquals(source_expected, contents(source));
+    List<Integer> fork_expected = new ArrayList<>(source_expected);
+    fork_expected.add(0, -1);
+    fork_expected.add(OrderQueue.CHUNK, -2);
+    fork_expected.add(-3);
+    assertEquals(fork_expected, contents(fork));
+
+    source.insertAt(1, -4);
+    assertEquals(fork_expected, contents(fork));
+  }
+
+  @Test
+  void clearAndRefillLeavesForksAlone() {
+    OrderQueue source = filled(OrderQueue.CHUNK + 10);
+    OrderQueue fork = new OrderQueue(source);
+    List<Integer> fork_expected = contents(fork);
+    source.clear();
+    for (int i = 0; i < 2 * OrderQueue.CHUNK; i++) {
+      source.add(1000000 + i);
+    }
+    assertEquals(fork_expected, contents(fork));
+
+    fork.clear();
+    fork.add(7);
+    assertEquals(2 * OrderQueue.CHUNK, source.size());
+    assertEquals(1000000, source.get(0));
+    assertEquals(1, fork.size());
+  }
+
+  @Test
+  void frozenSourceForksAndWritesIndependently() {
+    OrderQueue source = filled(OrderQueue.CHUNK + 1);
+    source.freeze();
+    List<Integer> source_expected = contents(source);
+    OrderQueue a = new OrderQueue(source);
+    OrderQueue b = new OrderQueue(source);
+    a.set(0, -1);
+    b.add(-2);
+    assertEquals(source_expected, contents(source));
+    assertEquals(-1, a.get(0));
+    assertEquals(source.get(0), b.get(0));
+    assertEquals(source.size() + 1, b.size());
+
+    // written after the freeze, the source must not leak into the forks
+    List<Integer> a_expected = contents(a);
+    source.set(1, -3);
+    source.removeAt(0);
+    assertEquals(a_expected, contents(a));
+  }
+
+  // random writes to a growing family of forks, each checked against a
+  // list that gets the same operations
+  @Test
+  void randomOperationsMatchLists() {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    List<OrderQueue> queues = new ArrayList<>();
+    List<List<Integer>> expected = new ArrayList<>();
+    queues.add(new OrderQueue());
+    expected.add(new ArrayList<>());
+    for (int step = 0; step < STEPS; step++) {
+      int q = rand.nextInt(queues.size());
+      OrderQueue queue = queues.get(q);
+      List<Integer> list = expected.get(q);
+      int op = rand.nextInt(100);
+      if (op < 50) {
+        queue.add(step);
+        list.add(step);
+      } else if (op < 65 && !list.isEmpty()) {
+        int i = rand.nextInt(list.size());
+        queue.set(i, -step);
+        list.set(i, -step);
+      } else if (op < 80 && !list.isEmpty()) {
+        int i = rand.nextInt(list.size());
+        queue.removeAt(i);
+        list.remove(i);
+      } else if (op < 82) {
+        queue.clear();
+        list.clear();
+      } else if (op < 84) {
+        queue.freeze();
+      } else if (op < 86 && !list.isEmpty()) {
+        int n = rand.nextInt(list.size());
+        queue.truncate(n);
+        list.subList(n, list.size()).clear();
+      } else if (op < 92) {
+        int i = rand.nextInt(list.size() + 1);
+        queue.insertAt(i, step);
+        list.add(i, step);
+      } else if (queues.size() < 16) {
+        queues.add(new OrderQueue(queue));
+        expected.add(new ArrayList<>(list));
+      }
+      if (step % 97 == 0) {
+        for (int k = 0; k < queues.size(); k++) {
+          assertEquals(expected.get(k), contents(queues.get(k)),
+                       "queue " + k + " step " + step);
+        }
+      }
+    }
+    for (int k = 0; k < queues.size(); k++) {
+      OrderQueue queue = queues.get(k);
+      List<Integer> list = expected.get(k);
+      assertEquals(list, contents(queue), "queue " + k);
+      assertEquals(list.isEmpty() ? -1 : list.get(list.size() - 1),
+                   queue.getLast());
+      if (!list.isEmpty()) {
+        int order = list.get(rand.nextInt(list.size()));
+        assertEquals(list.indexOf(order), queue.indexOf(order));
+      }
+    }
+  }
+
+  private static OrderQueue filled(int n) {
+    OrderQueue queue = new OrderQueue();
+    for (int i = 0; i < n; i++) {
+      queue.add(i);
+    }
+    return queue;
+  }
+
+  private static List<Integer> contents(OrderQueue queue) {
+    List<Integer> list = new ArrayList<>(queue.size());
+    for (int i = 0; i < queue.size(); i++) {
+      list.add(queue.get(i));
+    }
+    return list;
+  }
+}
@@ -0,0 +1,175 @@
+// OrderSort against the ranking comparators
+// the packed-key radix sort has to give the same stable permutation as a
+// stable sort through the CompareOrder_* comparator of every ranking, for
+// tables built to hit each path: many ties, descending fields at the int
+// extremes, keys of exactly 64 bits, ranges past 64 bits that fall back to
+// the comparator, digits every key shares so their passes are skipped, a
+// digit only one key differs in, and tables large enough to split a pass
+// over several threads
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class OrderSortTest {
+  private static final int ROUNDS = 5;
+  private static final int ORDERS = 3000;
+  // past one parallel chunk of a pass
+  private static final int LARGE_ORDERS = 3 * (1 << 16) + 17;
+
+  enum Shape {
+    // a few values per field, most keys tie
+    TIES,
+    // small values around zero
+    NEGATIVE,
+    // priority and due date over the whole int range, the others constant,
+    // so every ranking packs exactly 64 bits
+    EXACT_64,
+    // every field over the whole int range, 96 bits
+    WIDE,
+    // only the third byte varies, the passes of the other digits are skipped
+    SHARED_DIGITS,
+    // one key for all orders but one, which differs in the second byte of
+    // its quantity only, so a pass must not be skipped for one odd key
+    ONE_OFF
+  }
+
+  @Test
+  void matchesComparator() {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    for (Shape shape : Shape.values()) {
+      for (int round = 0; round < ROUNDS; round++) {
+        OrderTable orders = table(shape, ORDERS - rand.nextInt(100), rand);
+        for (OrderRanking ranking : OrderRanking.values()) {
+          String label = shape + " round " + round + " " + ranking;
+          int[] expected = reference(orders, ranking, orders.indexOrder());
+          assertArrayEquals(expected, OrderSort.sort(orders, ranking, 1),
+                            label);
+          assertArrayEquals(expected, OrderSort.sort(orders, ranking, 4),
+                            label);
+        }
+      }
+    }
+  }
+
+  @Test
+  void matchesComparatorOnLargeTables() {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    for (Shape shape : new Shape[] {Shape.TIES, Shape.SHARED_DIGITS}) {
+      OrderTable orders = table(shape, LARGE_ORDERS, rand);
+      for (OrderRanking ranking : OrderRanking.values()) {
+        String label = shape + " " + ranking;
+        int[] expected = reference(orders, ranking, orders.indexOrder());
+        assertArrayEquals(expected, OrderSort.sort(orders, ranking, 1),
+                          label);
+        assertArrayEquals(expected, OrderSort.sort(orders, ranking, 4),
+                          label);
+      }
+    }
+  }
+
+  // a subset in index order ranks like the same rows of the whole table
+  @Test
+  void subsetMatchesComparator() {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    for (Shape shape : Shape.values()) {
+      OrderTable orders = table(shape, ORDERS, rand);
+      int[] subset = Arrays.stream(orders.indexOrder())
+                         .filter(i -> rand.nextInt(3) == 0)
+                         .toArray();
+      for (OrderRanking ranking : OrderRanking.values()) {
+        assertArrayEquals(reference(orders, ranking, subset),
+                          OrderSort.sort(orders, subset, ranking, 4),
+                          shape + " " + ranking);
+      }
+    }
+  }
+
+  // stable sort of the rows through the ranking's comparator
+  private static int[] reference(OrderTable orders, OrderRanking ranking,
+                                 int[] subset) {
+    if (ranking.comparator == null) {
+      return subset.clone();
+    }
+    APSDemo.Order[] rows = new APSDemo.Order[orders.size()];
+    for (int i : subset) {
+      rows[i] = new APSDemo.Order(orders.orderId(i), null, orders.quantity(i),
+                                  orders.dueDate(i), orders.priority(i),
+                                  orders.earlestStartDate(i),
+                                  orders.productType(i));
+    }
+    Comparator<APSDemo.Order> c = ranking.comparator;
+    return Arrays.stream(subset)
+        .boxed()
+        .sorted((a, b) -> c.compare(rows[a], rows[b]))
+        .mapToInt(Integer::intValue)
+        .toArray();
+  }
+
+  private static OrderTable table(Shape shape, int n, Random rand) {
+    OrderTable orders = new OrderTable(n);
+    int odd = rand.nextInt(n);
+    for (int i = 0; i < n; i++) {
+      int quantity, due_date, priority, earlest_start_date;
+      switch (shape) {
+      case TIES:
+        quantity = 100 * (1 + rand.nextInt(3));
+        due_date = rand.nextInt(8);
+        priority = rand.nextInt(3);
+        earlest_start_date = rand.nextInt(8);
+        break;
+      case NEGATIVE:
+        quantity = rand.nextInt(101) - 50;
+        due_date = rand.nextInt(101) - 50;
+        priority = rand.nextInt(11) - 5;
+        earlest_start_date = rand.nextInt(101) - 50;
+        break;
+      case EXACT_64:
+        quantity = 7;
+        due_date = extreme(rand, i);
+        priority = extreme(rand, i - 2);
+        earlest_start_date = -7;
+        break;
+      case WIDE:
+        quantity = extreme(rand, i);
+        due_date = extreme(rand, i - 2);
+        priority = extreme(rand, i - 4);
+        earlest_start_date = extreme(rand, i - 6);
+        break;
+      case SHARED_DIGITS:
+        quantity = (rand.nextInt(4) << 16) | 0x3400;
+        due_date = (rand.nextInt(4) << 16) | 0x12;
+        priority = (rand.nextInt(3) << 16) - 0x100;
+        earlest_start_date = 0x10203;
+        break;
+      default:
+        quantity = i == odd ? 0x305 : 5;
+        due_date = 5;
+        priority = 5;
+        earlest_start_date = 5;
+        break;
+      }
+      orders.add(i, quantity, due_date, priority, earlest_start_date,
+                 rand.nextInt(4));
+    }
+    return orders;
+  }
+
+  // the int extremes on rows 0 and 1 so the range is the full 32 bits,
+  // random values with repeats on the other rows
+  private static int extreme(Random rand, int i) {
+    switch (i) {
+    case 0:
+      return Integer.MIN_VALUE;
+    case 1:
+      return Integer.MAX_VALUE;
+    default:
+      return rand.nextInt(4) == 0 ? rand.nextInt(3) - 1 : rand.nextInt();
+    }
+  }
+}
@@ -0,0 +1,271 @@
+// ScheduleSnapshot round trip and corruption
+// a plan kept on disk by a Writer through batches of inserts and cancels has
+// to open with the scheduler's totals, restore to the same queues and keep
+// scheduling like the scheduler it was written from. a flipped byte in a
+// header or a record has to be rejected, not read as a different plan
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ScheduleSnapshotTest {
+  private static final int ORDERS = 2000;
+  private static final int MACHINES = 12;
+  private static final int TYPE_NUM = 8;
+  private static final int BATCHES = 40;
+  private static final int BATCH = 50;
+
+  @TempDir Path dir;
+
+  @Test
+  void roundTripContinues() throws IOException {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    Path path = dir.resolve("plan.snapshot");
+    OnlineScheduler scheduler = scheduler(ORDERS);
+    OrderTable more = APSDemo.generateRandomOrder(
+        BATCHES * BATCH, APSDemo.maxDdlDate(ORDERS, MACHINES), TYPE_NUM);
+    int next = 0;
+    int appended = 0;
+    try (ScheduleSnapshot.Writer writer =
+             new ScheduleSnapshot.Writer(scheduler, path)) {
+      for (int batch = 0; batch < BATCHES; batch++) {
+        next = insert(scheduler, more, next, BATCH);
+        for (int c = rand.nextInt(BATCH); c > 0; c--) {
+          OrderTable orders = scheduler.orders();
+          scheduler.cancel(orders.orderId(rand.nextInt(orders.size())));
+        }
+        writer.append();
+        assertEquals(writer.size(), Files.size(path));
+        ScheduleSnapshot snapshot = ScheduleSnapshot.open(path);
+        appended += snapshot.sequence() > 0 ? 1 : 0;
+        assertRestores(scheduler, snapshot, "batch " + batch);
+      }
+      // most batches only append, and replaced states are dropped once they
+      // fill half the file
+      assertTrue(appended > BATCHES / 2, "appended " + appended);
+      assertTrue(ScheduleSnapshot.open(path).sequence() < BATCHES);
+      int fresh;
+      try (ScheduleSnapshot.Writer from_scratch = new ScheduleSnapshot.Writer(
+               scheduler, dir.resolve("fresh.snapshot"))) {
+        fresh = from_scratch.size();
+      }
+      assertTrue(writer.size() < 3 * fresh, writer.size() + " " + fresh);
+    }
+
+    // the restored plan keeps scheduling like the original
+    OnlineScheduler restored = ScheduleSnapshot.open(path).restore();
+    OrderTable tail = APSDemo.generateRandomOrder(
+        500, APSDemo.maxDdlDate(ORDERS, MACHINES), TYPE_NUM);
+    for (int i = 0; i < tail.size(); i++) {
+      APSDemo.Order o = order(tail, i, (1 << 24) + i);
+      assertEquals(scheduler.insert(o).machine_id,
+                   restored.insert(o).machine_id, "order " + i);
+    }
+    assertTotals(scheduler, restored);
+  }
+
+  @Test
+  void newestValidHeaderWins() throws IOException {
+    Path path = dir.resolve("plan.snapshot");
+    OnlineScheduler scheduler = scheduler(ORDERS);
+    OrderTable more = APSDemo.generateRandomOrder(
+        2 * BATCH, APSDemo.maxDdlDate(ORDERS, MACHINES), TYPE_NUM);
+    long on_time;
+    try (ScheduleSnapshot.Writer writer =
+             new ScheduleSnapshot.Writer(scheduler, path)) {
+      insert(scheduler, more, 0, BATCH);
+      writer.append();
+      on_time = scheduler.onTime();
+      insert(scheduler, more, BATCH, BATCH);
+      writer.append();
+    }
+    ScheduleSnapshot snapshot = ScheduleSnapshot.open(path);
+    assertEquals(2, snapshot.sequence());
+    assertEquals(ORDERS + 2 * BATCH, snapshot.orderNum());
+
+    // a torn commit of the second append leaves the first one
+    flip(path, 40);
+    snapshot = ScheduleSnapshot.open(path);
+    assertEquals(1, snapshot.sequence());
+    assertEquals(ORDERS + BATCH, snapshot.orderNum());
+    assertEquals(on_time, snapshot.onTime());
+    assertEquals(ORDERS + BATCH, snapshot.restore().orders().size());
+  }
+
+  @Test
+  void rejectsCorruptHeader() throws IOException {
+    Path path = dir.resolve("plan.snapshot");
+    OnlineScheduler scheduler = scheduler(ORDERS);
+    new ScheduleSnapshot.Writer(scheduler, path).close();
+    // the KPIs, a count, the checksum, the version and the magic
+    for (int at : new int[] {88, 16, 8, 4, 0}) {
+      Path copy = copy(path, "header" + at);
+      flip(copy, at);
+      assertThrows(IOException.class, () -> ScheduleSnapshot.open(copy),
+                   "byte " + at);
+    }
+    Path cut = copy(path, "cut");
+    byte[] bytes = Files.readAllBytes(path);
+    Files.write(cut, Arrays.copyOf(bytes, bytes.length - 4));
+    assertThrows(IOException.class, () -> ScheduleSnapshot.open(cut));
+  }
+
+  @Test
+  void rejectsCorruptPayload() throws IOException {
+    Path path = dir.resolve("plan.snapshot");
+    OnlineScheduler scheduler = scheduler(ORDERS);
+    int replaced;
+    int fresh;
+    try (ScheduleSnapshot.Writer writer =
+             new ScheduleSnapshot.Writer(scheduler, path)) {
+      replaced = state(path) + ScheduleSnapshot.RECORD_BYTES;
+      fresh = writer.size();
+      insert(scheduler,
+             APSDemo.generateRandomOrder(
+                 BATCH, APSDemo.maxDdlDate(ORDERS, MACHINES), TYPE_NUM),
+             0, BATCH);
+      writer.append();
+    }
+    long size = Files.size(path);
+    Random rand = new Random(APSDemo.RAND_SEED);
+    // the matrix record, the first orders record, the appended records and
+    // the last byte of the state
+    List<Long> offsets = new ArrayList<>(List.of(
+        2L * ScheduleSnapshot.HEADER_BYTES + ScheduleSnapshot.RECORD_BYTES,
+        2L * ScheduleSnapshot.HEADER_BYTES + 1000, (long)fresh, size - 1));
+    while (offsets.size() < 40) {
+      long at = 2L * ScheduleSnapshot.HEADER_BYTES +
+                (long)(rand.nextDouble() *
+                       (size - 2 * ScheduleSnapshot.HEADER_BYTES));
+      if (at < replaced || at >= fresh) {
+        offsets.add(at);
+      }
+    }
+    for (long at : offsets) {
+      Path copy = copy(path, "payload" + at);
+      flip(copy, at);
+      // the header is intact, so open succeeds and the first use fails
+      ScheduleSnapshot snapshot = ScheduleSnapshot.open(copy);
+      assertEquals(scheduler.onTime(), snapshot.onTime());
+      assertThrows(IOException.class, snapshot::restore, "byte " + at);
+    }
+
+    // the state the append replaced is not read
+    Path copy = copy(path, "replaced");
+    flip(copy, replaced);
+    assertEquals(scheduler.orders().size(),
+                 ScheduleSnapshot.open(copy).restore().orders().size());
+  }
+
+  private static OnlineScheduler scheduler(int order_num) {
+    OrderTable orders = APSDemo.generateRandomOrder(
+        order_num, APSDemo.maxDdlDate(order_num, MACHINES), TYPE_NUM);
+    List<APSDemo.Machine> machines =
+        APSDemo.generateRandomMachine(MACHINES, TYPE_NUM, 3);
+    machines.get(0).name = "first";
+    OnlineScheduler scheduler = new OnlineScheduler(
+        new OrderTable(16), APSDemo.generateRandomSwitchMatrix(TYPE_NUM),
+        machines);
+    insert(scheduler, orders, 0, order_num);
+    return scheduler;
+  }
+
+  // rows from of the table with ids past every id in the scheduler
+  private static int insert(OnlineScheduler scheduler, OrderTable table,
+                            int from, int n) {
+    for (int i = from; i < from + n; i++) {
+      scheduler.insert(order(table, i, scheduler.orders().size()));
+    }
+    return from + n;
+  }
+
+  private static APSDemo.Order order(OrderTable table, int i, int id) {
+    return new APSDemo.Order(id, null, table.quantity(i), table.dueDate(i),
+                             table.priority(i), table.earlestStartDate(i),
+                             table.productType(i));
+  }
+
+  private static void assertRestores(OnlineScheduler scheduler,
+                                 ScheduleSnapshot snapshot, String label)
+      throws IOException {
+    assertEquals(scheduler.orders().size(), snapshot.orderNum(), label);
+    assertEquals(scheduler.onTime(), snapshot.onTime(), label);
+    assertEquals(scheduler.late(), snapshot.late(), label);
+    assertEquals(scheduler.totalSwitchTime(), snapshot.totalSwitchTime(),
+                 label);
+    assertEquals(scheduler.totalWorkTime(), snapshot.totalWorkTime(), label);
+    assertEquals(scheduler.totalTardiness(), snapshot.totalTardiness(),
+                 label);
+    OrderTable orders = scheduler.orders();
+    OrderTable read = snapshot.orders();
+    for (int i = 0; i < orders.size(); i++) {
+      assertEquals(orders.orderId(i), read.orderId(i), label);
+      assertEquals(orders.quantity(i), read.quantity(i), label);
+      assertEquals(orders.dueDate(i), read.dueDate(i), label);
+      assertEquals(orders.priority(i), read.priority(i), label);
+      assertEquals(orders.earlestStartDate(i), read.earlestStartDate(i),
+                   label);
+      assertEquals(orders.productType(i), read.productType(i), label);
+    }
+    List<APSDemo.Machine> machines = snapshot.machines();
+    for (int i = 0; i < machines.size(); i++) {
+      APSDemo.Machine expected = scheduler.machines().get(i);
+      APSDemo.Machine m = machines.get(i);
+      assertEquals(expected.machine_id, m.machine_id, label);
+      assertEquals(expected.name, m.name, label);
+      assertEquals(expected.finishing_time, m.finishing_time, label);
+      assertEquals(expected.eligible_types, m.eligible_types, label);
+      assertEquals(expected.orders_in_queue.size(), m.orders_in_queue.size(),
+                   label);
+      for (int k = 0; k < m.orders_in_queue.size(); k++) {
+        assertEquals(expected.orders_in_queue.get(k), m.orders_in_queue.get(k),
+                     label);
+      }
+    }
+    assertTotals(scheduler, snapshot.restore());
+  }
+
+  private static void assertTotals(OnlineScheduler expected,
+                                   OnlineScheduler actual) {
+    assertEquals(expected.onTime(), actual.onTime());
+    assertEquals(expected.late(), actual.late());
+    assertEquals(expected.totalSwitchTime(), actual.totalSwitchTime());
+    assertEquals(expected.totalWorkTime(), actual.totalWorkTime());
+    assertEquals(expected.totalTardiness(), actual.totalTardiness());
+  }
+
+  // offset of the state record in the newest header
+  private static int state(Path path) throws IOException {
+    ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(path))
+                            .order(ByteOrder.LITTLE_ENDIAN);
+    int slot = header.getInt(ScheduleSnapshot.HEADER_BYTES + 12) >
+                       header.getInt(12)
+                   ? ScheduleSnapshot.HEADER_BYTES
+                   : 0;
+    return header.getInt(slot + 32);
+  }
+
+  private Path copy(Path path, String name) throws IOException {
+    return Files.copy(path, dir.resolve(name));
+  }
+
+  private static void flip(Path path, long at) throws IOException {
+    byte[] bytes = Files.readAllBytes(path);
+    bytes[(int)at] ^= 0x10;
+    Files.write(path, bytes);
+  }
+}
@@ -0,0 +1,329 @@
+// WhatIfService against rescheduling from scratch
+// a request forks the baseline at the first decision its delta changes, so
+// for every heuristic and random rushes and downed machines its KPIs have to
+// match dispatching the whole sequence with the delta applied
+//
+// bursts of concurrent /whatif calls over HTTP check the admission control:
+// with one CPU permit a burst either waits its turn or, past the queue
+// timeout, gets 503, and no served request takes much longer than the queue
+// timeout plus a few reschedules
+
+package aps;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class WhatIfServiceTest {
+  private static final int ORDERS = 3000;
+  private static final int MACHINES = 24;
+  private static final int TYPE_NUM = 12;
+  private static final int DELTAS = 60;
+  private static final int BURST_ORDERS = 20000;
+  private static final int BURST = 200;
+  private static final long BURST_TIMEOUT_MS = 100;
+  // scheduling slack of a busy box on top of the waits the service allows
+  private static final long SLACK_MS = 100;
+  private static final Pattern TIMES = Pattern.compile(
+      "\"queue_ms\":([0-9.E]+),\"elapsed_ms\":([0-9.E]+)");
+
+  private OrderTable orders;
+  private SwitchMatrix switch_matrix;
+  private int[] sequence;
+  private List<APSDemo.Machine> machines;
+
+  @Test
+  void matchesRescheduling() {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    for (int families : new int[] {0, 3}) {
+      generate(families);
+      for (Heuristic h : Heuristic.values()) {
+        WhatIfService service =
+            new WhatIfService(orders, switch_matrix, sequence, machines, h,
+                              1, WhatIfService.DEFAULT_QUEUE_TIMEOUT_MS);
+        assertKpiEquals(reschedule(h, new WhatIfService.Delta()),
+                        service.baseline(), h.name());
+        for (int d = 0; d < DELTAS; d++) {
+          WhatIfService.Delta delta = randomDelta(rand);
+          String label = h.name() + " families " + families + " delta " + d;
+          ScheduleKpi expected;
+          try {
+            expected = reschedule(delta.heuristic == null ? h
+                                                          : delta.heuristic,
+                                  delta);
+          } catch (IllegalArgumentException e) {
+            assertThrows(IllegalArgumentException.class,
+                         () -> service.evaluate(delta), label);
+            continue;
+          }
+          assertKpiEquals(expected, service.evaluate(delta), label);
+        }
+      }
+    }
+  }
+
+  @Test
+  void unchangedDeltaIsTheBaseline() {
+    generate(0);
+    WhatIfService service =
+        new WhatIfService(orders, switch_matrix, sequence, machines,
+                          Heuristic.FIRST_FREE_MACHINE);
+    WhatIfService.Delta delta = new WhatIfService.Delta();
+    // no such machine
+    delta.down.add(-1);
+    assertSame(service.baseline(), service.evaluate(delta));
+  }
+
+  @Test
+  void burstWaitsItsTurn() throws Exception {
+    generate(ORDERS, 0);
+    WhatIfService service =
+        new WhatIfService(orders, switch_matrix, sequence, machines,
+                          Heuristic.FIRST_FREE_MACHINE, 1, 60000);
+    List<HttpResponse<String>> replies = burst(service, BURST);
+    for (HttpResponse<String> reply : replies) {
+      assertEquals(200, reply.statusCode(), reply.body());
+    }
+    assertTrue(service.stats().startsWith(
+                   "{\"served\":" + BURST + ",\"rejected\":0,"),
+               service.stats());
+  }
+
+  @Test
+  void overloadIsRejectedAndServedLatencyBounded() throws Exception {
+    generate(BURST_ORDERS, 0);
+    WhatIfService service =
+        new WhatIfService(orders, switch_matrix, sequence, machines,
+                          Heuristic.FIRST_FREE_MACHINE, 1, BURST_TIMEOUT_MS);
+    // rushing the second order redispatches nearly everything
+    WhatIfService.Delta delta = new WhatIfService.Delta();
+    delta.rush.add(orders.orderId(sequence[1]));
+    long reschedule_ms = 0;
+    for (int i = 0; i < 5; i++) {
+      long start = System.nanoTime();
+      service.evaluate(delta);
+      reschedule_ms = Math.max(reschedule_ms,
+                               (System.nanoTime() - start) / 1000000);
+    }
+    List<HttpResponse<String>> replies =
+        burst(service, "rush=" + delta.rush.get(0), BURST);
+    long served = 0, rejected = 0;
+    // a served request waits at most the queue timeout for its permit and
+    // then reschedules once, sharing the CPU with the other requests and
+    // the client
+    long bound_ms = BURST_TIMEOUT_MS + 10 * reschedule_ms + 4 * SLACK_MS;
+    for (HttpResponse<String> reply : replies) {
+      if (reply.statusCode() == 503) {
+        rejected++;
+        continue;
+      }
+      assertEquals(200, reply.statusCode(), reply.body());
+      Matcher m = TIMES.matcher(reply.body());
+      assertTrue(m.find(), reply.body());
+      double queue_ms = Double.parseDouble(m.group(1));
+      double elapsed_ms = Double.parseDouble(m.group(2));
+      assertTrue(queue_ms <= BURST_TIMEOUT_MS + SLACK_MS, reply.body());
+      assertTrue(elapsed_ms <= bound_ms, reply.body());
+      served++;
+    }
+    assertTrue(served > 0 && rejected > 0,
+               "served " + served + " rejected " + rejected);
+    assertTrue(service.stats().startsWith("{\"served\":" + served +
+                                          ",\"rejected\":" + rejected +
+                                          ","),
+               service.stats());
+    // the histogram reports the upper bound of a log2 bucket
+    assertTrue(service.latencyQuantile(0.99) <= 2 * bound_ms * 1000,
+               service.stats());
+  }
+
+  private List<HttpResponse<String>> burst(WhatIfService service, int n)
+      throws Exception {
+    Random rand = new Random(APSDemo.RAND_SEED);
+    List<String> queries = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      queries.add("rush=" + orders.orderId(rand.nextInt(orders.size())));
+    }
+    return burst(service, queries);
+  }
+
+  private List<HttpResponse<String>> burst(WhatIfService service,
+                                           String query, int n)
+      throws Exception {
+    List<String> queries = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      queries.add(query);
+    }
+    return burst(service, queries);
+  }
+
+  // every query at once, the replies in the same order
+  private static List<HttpResponse<String>> burst(WhatIfService service,
+                                                  List<String> queries)
+      throws Exception {
+    service.start(0);
+    try {
+      HttpClient client =
+          HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+      List<CompletableFuture<HttpResponse<String>>> pending =
+          new ArrayList<>();
+      for (String query : queries) {
+        HttpRequest request =
+            HttpRequest
+                .newBuilder(URI.create("http://localhost:" + service.port() +
+                                       "/whatif?" + query))
+                .build();
+        pending.add(
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+      }
+      List<HttpResponse<String>> replies = new ArrayList<>();
+      for (CompletableFuture<HttpResponse<String>> reply : pending) {
+        replies.add(reply.get());
+      }
+      return replies;
+    } finally {
+      service.stop();
+    }
+  }
+
+  private void generate(int families) { generate(ORDERS, families); }
+
+  private void generate(int order_num, int families) {
+    orders = APSDemo.generateRandomOrder(
+        order_num, APSDemo.maxDdlDate(order_num, MACHINES), TYPE_NUM);
+    switch_matrix = APSDemo.generateRandomSwitchMatrix(TYPE_NUM);
+    sequence = APSDemo.sortOrders(orders, APSDemo.SORT_METHOD);
+    machines = APSDemo.generateRandomMachine(MACHINES, TYPE_NUM, families);
+  }
+
+  // rushes from the front, the middle or the end of the sequence, repeats,
+  // machines down, ids that are not machines and other heuristics
+  private WhatIfService.Delta randomDelta(Random rand) {
+    WhatIfService.Delta delta = new WhatIfService.Delta();
+    int rush = rand.nextInt(5);
+    for (int j = 0; j < rush; j++) {
+      int p = rand.nextBoolean() ? rand.nextInt(ORDERS)
+                                 : Math.min(j + rand.nextInt(2), ORDERS - 1);
+      delta.rush.add(orders.orderId(sequence[p]));
+    }
+    if (rush > 0 && rand.nextInt(4) == 0) {
+      delta.rush.add(delta.rush.get(0));
+    }
+    int down = rand.nextInt(3);
+    for (int j = 0; j < down; j++) {
+      delta.down.add(machines.get(rand.nextInt(MACHINES)).machine_id);
+    }
+    if (rand.nextInt(10) == 0) {
+      delta.down.add(-1);
+    }
+    if (rand.nextInt(10) == 0) {
+      Heuristic[] all = Heuristic.values();
+      delta.heuristic = all[rand.nextInt(all.length)];
+    }
+    return delta;
+  }
+
+  // the what-if from scratch: the sequence is cut at every rushed order,
+  // which is dispatched alone and moved to the front of its machine behind
+  // the rushed orders asked before it
+  private ScheduleKpi reschedule(Heuristic h, WhatIfService.Delta delta) {
+    List<Integer> asked = new ArrayList<>();
+    for (int id : delta.rush) {
+      for (int o = 0; o < orders.size(); o++) {
+        if (orders.orderId(o) == id && !asked.contains(o)) {
+          asked.add(o);
+        }
+      }
+    }
+    List<APSDemo.Machine> m = new ArrayList<>();
+    for (APSDemo.Machine machine : machines) {
+      if (!delta.down.contains(machine.machine_id)) {
+        APSDemo.Machine copy = new APSDemo.Machine(machine);
+        copy.finishing_time = 0;
+        copy.orders_in_queue.clear();
+        m.add(copy);
+      }
+    }
+    if (m.isEmpty()) {
+      throw new IllegalArgumentException("every machine is down");
+    }
+    List<Integer> piece = new ArrayList<>();
+    for (int o : sequence) {
+      if (!asked.contains(o)) {
+        piece.add(o);
+        continue;
+      }
+      h.schedule(orders, toArray(piece), switch_matrix, m);
+      piece.clear();
+      h.schedule(orders, new int[] {o}, switch_matrix, m);
+      for (APSDemo.Machine machine : m) {
+        if (machine.getLastOrder() == o) {
+          toFront(machine, o, asked);
+        }
+      }
+    }
+    h.schedule(orders, toArray(piece), switch_matrix, m);
+    return ScheduleEvaluator.evaluate(switch_matrix, orders, m);
+  }
+
+  private void toFront(APSDemo.Machine machine, int o, List<Integer> asked) {
+    List<Integer> queue = new ArrayList<>();
+    for (int k = 0; k < machine.orders_in_queue.size() - 1; k++) {
+      queue.add(machine.orders_in_queue.get(k));
+    }
+    int at = 0;
+    while (at < queue.size() && asked.contains(queue.get(at)) &&
+           asked.indexOf(queue.get(at)) < asked.indexOf(o)) {
+      at++;
+    }
+    queue.add(at, o);
+    machine.orders_in_queue.clear();
+    machine.finishing_time = 0;
+    int previous = -1;
+    for (int q : queue) {
+      machine.orders_in_queue.add(q);
+      machine.finishing_time +=
+          APSDemo.getSwitchTime(switch_matrix, orders, previous, q) +
+          orders.quantity(q) / machine.machine_product_per_hour;
+      previous = q;
+    }
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = list.get(i);
+    }
+    return array;
+  }
+
+  private static void assertKpiEquals(ScheduleKpi expected, ScheduleKpi kpi,
+                                      String label) {
+    assertEquals(expected.on_time, kpi.on_time, label);
+    assertEquals(expected.late, kpi.late, label);
+    assertEquals(expected.total_tardiness, kpi.total_tardiness, label);
+    assertEquals(expected.total_switch_time, kpi.total_switch_time, label);
+    assertEquals(expected.total_work_time, kpi.total_work_time, label);
+    assertEquals(expected.makespan, kpi.makespan, label);
+    assertArrayEquals(expected.tardiness_histogram, kpi.tardiness_histogram,
+                      label);
+    assertArrayEquals(expected.machine_switch_time, kpi.machine_switch_time,
+                      label);
+    assertArrayEquals(expected.machine_work_time, kpi.machine_work_time,
+                      label);
+  }
+}